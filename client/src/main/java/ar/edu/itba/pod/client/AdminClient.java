@@ -1,27 +1,36 @@
 package ar.edu.itba.pod.client;
 
 import ar.edu.itba.pod.client.models.Passenger;
+import ar.edu.itba.pod.client.utils.PassengerManifestReader;
 import ar.edu.itba.pod.grpc.admin.*;
 import ar.edu.itba.pod.grpc.common.CounterRange;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.nio.file.Path;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.io.FileReader;
-import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 public class AdminClient {
     private static final Logger logger = LoggerFactory.getLogger(AdminClient.class);
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int MAX_BATCHES_IN_FLIGHT = 4;
 
     public static void main(String[] args) throws InterruptedException {
         logger.info("tpe1-g4 Admin Client Starting ...");
@@ -47,8 +56,6 @@ public class AdminClient {
                 .usePlaintext()
                 .build();
 
-        AdminServiceGrpc.AdminServiceBlockingStub stub = AdminServiceGrpc.newBlockingStub(channel);
-
         try {
             action = Optional.ofNullable(System.getProperty("action")).orElseThrow(IllegalArgumentException::new);
         } catch (IllegalArgumentException e) {
@@ -56,13 +63,14 @@ public class AdminClient {
             return;
         }
         try {
-            executeAction(action, stub);
+            executeAction(action, channel);
         } finally {
             channel.shutdown().awaitTermination(10, TimeUnit.SECONDS);
         }
     }
 
-    private static void executeAction(String action, AdminServiceGrpc.AdminServiceBlockingStub stub) {
+    private static void executeAction(String action, ManagedChannel channel) {
+        AdminServiceGrpc.AdminServiceBlockingStub stub = AdminServiceGrpc.newBlockingStub(channel);
         switch (action) {
             case "addSector":
                 String sectorName = Optional.ofNullable(System.getProperty("sector")).orElseThrow(IllegalArgumentException::new);
@@ -99,20 +107,15 @@ public class AdminClient {
 
             case "manifest":
                 String path = Optional.ofNullable(System.getProperty("inPath")).orElseThrow(IllegalArgumentException::new);
-                for (Passenger passenger : parsePassengers(path)) {
-                    AddPassengerRequest addPassengerRequest = AddPassengerRequest
-                            .newBuilder()
-                            .setBooking(passenger.booking())
-                            .setFlight(passenger.flight())
-                            .setAirline(passenger.airline())
-                            .build();
-                    try {
-                        stub.addPassenger(addPassengerRequest);
-                        System.out.println("Booking " + passenger.booking() + " for " + passenger.airline() + " " + passenger.flight() + " added successfully");
-                    }catch (RuntimeException e){
-                        Status status= Status.fromThrowable(e);
-                        System.out.println("Error: " + status.getDescription());
-                    }
+                int batchSize = Integer.parseInt(Optional.ofNullable(System.getProperty("batchSize")).orElse(String.valueOf(DEFAULT_BATCH_SIZE)));
+                if (batchSize <= 0) {
+                    logger.error("batchSize must be positive");
+                    break;
+                }
+                try (PassengerManifestReader reader = new PassengerManifestReader(Paths.get(path))) {
+                    addPassengers(AdminServiceGrpc.newStub(channel), reader, batchSize);
+                } catch (IOException e) {
+                    logger.error(e.getMessage());
                 }
                 break;
             default:
@@ -122,19 +125,99 @@ public class AdminClient {
         }
     }
 
-    private static List<Passenger> parsePassengers(String path) {
-        List<Passenger> passengers = new ArrayList<>();
-        Path file = Paths.get(path);
-        try (BufferedReader br = new BufferedReader(new FileReader(file.toFile()))) {
-            String line;
-            br.readLine();
-            while ((line = br.readLine()) != null) {
-                String[] passengerData = line.split(";");
-                passengers.add(new Passenger(passengerData[0], passengerData[1], passengerData[2]));
+    private static void addPassengers(AdminServiceGrpc.AdminServiceStub stub, Iterator<Passenger> passengers, int batchSize) {
+        // The server answers every batch in order, so the batches are kept until their response arrives
+        Queue<List<Passenger>> sentBatches = new ConcurrentLinkedQueue<>();
+        CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        ClientResponseObserver<AddPassengersRequest, AddPassengersResponse> responseObserver = new ClientResponseObserver<>() {
+            private ClientCallStreamObserver<AddPassengersRequest> requestStream;
+            private boolean completed;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<AddPassengersRequest> requestStream) {
+                this.requestStream = requestStream;
+                requestStream.setOnReadyHandler(this::sendBatches);
             }
-        }catch (IOException e) {
+
+            // Rows are only parsed when the transport can take them and the server is not too far behind,
+            // called both when the stream becomes ready and when a batch is answered
+            private synchronized void sendBatches() {
+                while (!completed && requestStream.isReady() && sentBatches.size() < MAX_BATCHES_IN_FLIGHT) {
+                    List<Passenger> batch = new ArrayList<>(batchSize);
+                    try {
+                        while (batch.size() < batchSize && passengers.hasNext()) {
+                            batch.add(passengers.next());
+                        }
+                    } catch (UncheckedIOException e) {
+                        completed = true;
+                        requestStream.cancel("Could not read the manifest", e);
+                        return;
+                    }
+
+                    if (batch.isEmpty()) {
+                        completed = true;
+                        requestStream.onCompleted();
+                        return;
+                    }
+
+                    AddPassengersRequest.Builder requestBuilder = AddPassengersRequest.newBuilder();
+                    for (Passenger passenger : batch) {
+                        requestBuilder.addPassengers(AddPassengerRequest
+                                .newBuilder()
+                                .setBooking(passenger.booking())
+                                .setFlight(passenger.flight())
+                                .setAirline(passenger.airline()));
+                    }
+                    sentBatches.add(batch);
+                    requestStream.onNext(requestBuilder.build());
+                }
+            }
+
+            @Override
+            public void onNext(AddPassengersResponse response) {
+                List<Passenger> batch = sentBatches.poll();
+                if (batch == null) {
+                    return;
+                }
+
+                Map<Integer, AddPassengerFailure> failures = new HashMap<>();
+                for (AddPassengerFailure failure : response.getFailuresList()) {
+                    failures.put(failure.getIndex(), failure);
+                }
+
+                for (int i = 0; i < batch.size(); i++) {
+                    AddPassengerFailure failure = failures.get(i);
+                    if (failure == null) {
+                        Passenger passenger = batch.get(i);
+                        System.out.println("Booking " + passenger.booking() + " for " + passenger.airline() + " " + passenger.flight() + " added successfully");
+                    } else {
+                        System.out.println("Error: " + failure.getDescription());
+                    }
+                }
+
+                sendBatches();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                Status status = Status.fromThrowable(throwable);
+                System.out.println("Error: " + status.getDescription());
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                countDownLatch.countDown();
+            }
+        };
+
+        stub.addPassengers(responseObserver);
+
+        try {
+            countDownLatch.await();
+        } catch (InterruptedException e) {
             logger.error(e.getMessage());
         }
-        return passengers;
     }
 }
@@ -91,32 +91,41 @@ public class CounterClient {
                 sectorName = Optional.ofNullable(System.getProperty("sector")).orElseThrow(IllegalArgumentException::new);
                 int from = Integer.parseInt(Optional.ofNullable(System.getProperty("counterFrom")).orElseThrow(IllegalArgumentException::new));
                 int to = Integer.parseInt(Optional.ofNullable(System.getProperty("counterTo")).orElseThrow(IllegalArgumentException::new));
+                // Sin pageSize se piden todos los mostradores de una vez
+                int pageSize = Integer.parseInt(Optional.ofNullable(System.getProperty("pageSize")).orElse("0"));
                 counterRange = CounterRange.newBuilder().setFrom(from).setTo(to).build();
                 ListCountersRequest listCountersRequest = ListCountersRequest.
                         newBuilder().
                         setSectorName(sectorName).
                         setCounterRange(counterRange).
+                        setPageSize(pageSize).
                         build();
                 try {
                     ListCountersResponse listCountersResponse = stub.listCounters(listCountersRequest);
-                    List<CounterInfo> counterInfoList = listCountersResponse.getCountersList();
                     System.out.println("Counters  Airline          Flights             People");
                     System.out.println("##########################################################");
-                    for (CounterInfo counterInfo : counterInfoList) {
-                        counterRange = counterInfo.getCounterRange();
-                        String rangeString = "(" + counterRange.getFrom() + "-" + counterRange.getTo() + ")";
-                        int passengers = counterInfo.getPassengersInQueue();
-                        airline = counterInfo.getAssignedAirline();
-                        flightStringBuilder = new StringBuilder();
-                        flights = counterInfo.getAssignedFlightsList().stream().toList();
-                        for (int i = 0; i < flights.size(); ) {
-                            flightStringBuilder.append(flights.get(i));
-                            i++;
-                            if (i < flights.size()) {
-                                flightStringBuilder.append("|");
+                    while (true) {
+                        for (CounterInfo counterInfo : listCountersResponse.getCountersList()) {
+                            counterRange = counterInfo.getCounterRange();
+                            String rangeString = "(" + counterRange.getFrom() + "-" + counterRange.getTo() + ")";
+                            int passengers = counterInfo.getPassengersInQueue();
+                            airline = counterInfo.getAssignedAirline();
+                            flightStringBuilder = new StringBuilder();
+                            flights = counterInfo.getAssignedFlightsList().stream().toList();
+                            for (int i = 0; i < flights.size(); ) {
+                                flightStringBuilder.append(flights.get(i));
+                                i++;
+                                if (i < flights.size()) {
+                                    flightStringBuilder.append("|");
+                                }
                             }
+                            System.out.printf("%-10s%-18s%-20s%-8s\n", rangeString, airline, flightStringBuilder, passengers == 0 ? "-" : passengers);
+                        }
+                        if (listCountersResponse.getNextPageToken().isEmpty()) {
+                            break;
                         }
-                        System.out.printf("%-10s%-18s%-20s%-8s\n", rangeString, airline, flightStringBuilder, passengers == 0 ? "-" : passengers);
+                        listCountersResponse = stub.listCounters(
+                                listCountersRequest.toBuilder().setPageToken(listCountersResponse.getNextPageToken()).build());
                     }
                 } catch (RuntimeException e) {
                     Status status = Status.fromThrowable(e);
@@ -10,6 +10,8 @@ import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -62,81 +64,24 @@ public class EventsClient {
                 EventsServiceGrpc.EventsServiceStub stubRegister = EventsServiceGrpc.newStub(channel);
                 CountDownLatch countDownLatch = new CountDownLatch(1);
                 airline = Optional.ofNullable(System.getProperty("airline")).orElseThrow(IllegalArgumentException::new);
+                // Opcional, junta llegadas de pasajeros y movimientos en la cola en un solo mensaje
+                Optional<String> coalesceWindow = Optional.ofNullable(System.getProperty("coalesceWindow"));
                 RegisterRequest registerRequest = RegisterRequest
                         .newBuilder()
                         .setAirline(airline)
+                        .setCoalesce(coalesceWindow.isPresent())
+                        .setCoalesceWindowMillis(coalesceWindow.map(Integer::parseInt).orElse(0))
+                        // Opcional, reenvia los eventos desde esa secuencia si el servidor todavia los tiene
+                        .setResumeFromSequence(Optional.ofNullable(System.getProperty("resumeFrom")).map(Long::parseLong).orElse(0L))
+                        // Opcionales, filtran los eventos en el servidor
+                        .addAllEventTypes(listProperty("eventTypes").stream().map(type -> EventType.valueOf("EVENT_TYPE_" + type)).toList())
+                        .addAllFlights(listProperty("flights"))
+                        .addAllSectors(listProperty("sectors"))
                         .build();
                 StreamObserver<RegisterResponse> responseObserver = new StreamObserver<>() {
                     @Override
                     public void onNext(RegisterResponse registerResponse) {
-                        EventType eventType = registerResponse.getEventType();
-                        String sectorName;
-                        CounterRange range;
-                        String flight;
-                        String flights;
-                        String booking;
-                        int counterCount;
-                        int pendingAssignations;
-                        switch (eventType) {
-                            case EVENT_TYPE_UNSPECIFIED:
-                                // TODO: idk
-                                break;
-                            case EVENT_TYPE_COUNTERS_ASSIGNED:
-                                CountersAssignedInfo countersAssignedInfo = registerResponse.getCountersAssignedInfo();
-                                range = countersAssignedInfo.getCounters();
-                                counterCount = range.getTo() - range.getFrom() + 1;
-                                sectorName = countersAssignedInfo.getSectorName();
-                                // TODO: revisar esto
-                                flights = String.join("|", countersAssignedInfo.getFlightsList());
-                                System.out.println(counterCount + " counters ("+range.getFrom()+"-"+range.getTo()+") in Sector "+sectorName+" are now checking in passengers from "+airline+" "+flights+" flights");
-                                break;
-                            case EVENT_TYPE_COUNTERS_FREED:
-                                CountersFreedInfo freedInfo = registerResponse.getCountersFreedInfo();
-                                sectorName = freedInfo.getSectorName();
-                                range = freedInfo.getCounters();
-                                flights = String.join("|", freedInfo.getFlightsList());
-                                System.out.println("Ended check-in for flights "+flights+" on counters ("+range.getFrom()+"-"+range.getTo()+") from Sector " + sectorName);
-                                break;
-                            case EVENT_TYPE_PASSENGER_ARRIVED:
-                                PassengerArrivedInfo passengerArrivedInfo = registerResponse.getPassengerArrivedInfo();
-                                booking = passengerArrivedInfo.getBooking();
-                                flight = passengerArrivedInfo.getFlight();
-                                sectorName = passengerArrivedInfo.getSectorName();
-                                range = passengerArrivedInfo.getCounters();
-                                int passengersInQueue = passengerArrivedInfo.getPassengersInQueue();
-                                System.out.println("Booking "+booking+" for flight "+flight+" from "+airline+" is now waiting to check-in on counters ("+range.getFrom()+"-"+range.getTo()+") in Sector "+sectorName+" with "+passengersInQueue+" people in line");
-                                break;
-                            case EVENT_TYPE_PASSENGER_CHECKED_IN:
-                                PassengerCheckedInInfo passengerCheckedInInfo = registerResponse.getPassengerCheckedInInfo();
-                                booking = passengerCheckedInInfo.getBooking();
-                                flight = passengerCheckedInInfo.getFlight();
-                                sectorName = passengerCheckedInInfo.getSectorName();
-                                int counter = passengerCheckedInInfo.getCounter();
-                                System.out.println("Check-in successful of "+booking+" for flight "+flight+" at counter "+counter+" in Sector " + sectorName);
-                                break;
-                            case EVENT_TYPE_ASSIGNATION_PENDING:
-                                AssignationPendingInfo assignationPendingInfo = registerResponse.getAssignationPendingInfo();
-                                sectorName = assignationPendingInfo.getSectorName();
-                                flights = String.join("|", assignationPendingInfo.getFlightsList());
-                                counterCount = assignationPendingInfo.getCounterCount();
-                                pendingAssignations = assignationPendingInfo.getPendingAssignations();
-                                System.out.println(counterCount + " counters in Sector "+sectorName+" for flights "+flights+" is pending with "+pendingAssignations+" other pendings ahead");
-                                break;
-                            case EVENT_TYPE_MOVED_IN_ASSIGNATION_QUEUE:
-                                MovedInAssignationQueueInfo movedInAssignationQueueInfo = registerResponse.getMovedInAssignationQueueInfo();
-                                sectorName = movedInAssignationQueueInfo.getSectorName();
-                                flights = String.join("|", movedInAssignationQueueInfo.getFlightsList());
-                                counterCount = movedInAssignationQueueInfo.getCounterCount();
-                                pendingAssignations = movedInAssignationQueueInfo.getPendingAssignations();
-                                System.out.println(counterCount+" counters in Sector "+sectorName+" for flights "+flights+" is pending with "+pendingAssignations+" other pendings ahead");
-                                break;
-                            case EVENT_TYPE_AIRLINE_REGISTERED:
-                                System.out.println(airline + " registered successfully for check-in events");
-                                break;
-                            case UNRECOGNIZED:
-                                // TODO: idk
-                                break;
-                        }
+                        printEvent(airline, registerResponse);
                     }
 
                     // Should not happen
@@ -186,4 +131,89 @@ public class EventsClient {
                 break;
         }
     }
-}
\ No newline at end of file
+
+    private static List<String> listProperty(String name) {
+        return Optional.ofNullable(System.getProperty(name)).map(value -> Arrays.asList(value.split("\\|"))).orElse(List.of());
+    }
+
+    private static void printEvent(String airline, RegisterResponse registerResponse) {
+        EventType eventType = registerResponse.getEventType();
+        String sectorName;
+        CounterRange range;
+        String flight;
+        String flights;
+        String booking;
+        int counterCount;
+        int pendingAssignations;
+        switch (eventType) {
+            case EVENT_TYPE_UNSPECIFIED:
+                // TODO: idk
+                break;
+            case EVENT_TYPE_COUNTERS_ASSIGNED:
+                CountersAssignedInfo countersAssignedInfo = registerResponse.getCountersAssignedInfo();
+                range = countersAssignedInfo.getCounters();
+                counterCount = range.getTo() - range.getFrom() + 1;
+                sectorName = countersAssignedInfo.getSectorName();
+                // TODO: revisar esto
+                flights = String.join("|", countersAssignedInfo.getFlightsList());
+                System.out.println(counterCount + " counters ("+range.getFrom()+"-"+range.getTo()+") in Sector "+sectorName+" are now checking in passengers from "+airline+" "+flights+" flights");
+                break;
+            case EVENT_TYPE_COUNTERS_FREED:
+                CountersFreedInfo freedInfo = registerResponse.getCountersFreedInfo();
+                sectorName = freedInfo.getSectorName();
+                range = freedInfo.getCounters();
+                flights = String.join("|", freedInfo.getFlightsList());
+                System.out.println("Ended check-in for flights "+flights+" on counters ("+range.getFrom()+"-"+range.getTo()+") from Sector " + sectorName);
+                break;
+            case EVENT_TYPE_PASSENGER_ARRIVED:
+                PassengerArrivedInfo passengerArrivedInfo = registerResponse.getPassengerArrivedInfo();
+                booking = passengerArrivedInfo.getBooking();
+                flight = passengerArrivedInfo.getFlight();
+                sectorName = passengerArrivedInfo.getSectorName();
+                range = passengerArrivedInfo.getCounters();
+                int passengersInQueue = passengerArrivedInfo.getPassengersInQueue();
+                System.out.println("Booking "+booking+" for flight "+flight+" from "+airline+" is now waiting to check-in on counters ("+range.getFrom()+"-"+range.getTo()+") in Sector "+sectorName+" with "+passengersInQueue+" people in line");
+                break;
+            case EVENT_TYPE_PASSENGER_CHECKED_IN:
+                PassengerCheckedInInfo passengerCheckedInInfo = registerResponse.getPassengerCheckedInInfo();
+                booking = passengerCheckedInInfo.getBooking();
+                flight = passengerCheckedInInfo.getFlight();
+                sectorName = passengerCheckedInInfo.getSectorName();
+                int counter = passengerCheckedInInfo.getCounter();
+                System.out.println("Check-in successful of "+booking+" for flight "+flight+" at counter "+counter+" in Sector " + sectorName);
+                break;
+            case EVENT_TYPE_ASSIGNATION_PENDING:
+                AssignationPendingInfo assignationPendingInfo = registerResponse.getAssignationPendingInfo();
+                sectorName = assignationPendingInfo.getSectorName();
+                flights = String.join("|", assignationPendingInfo.getFlightsList());
+                counterCount = assignationPendingInfo.getCounterCount();
+                pendingAssignations = assignationPendingInfo.getPendingAssignations();
+                System.out.println(counterCount + " counters in Sector "+sectorName+" for flights "+flights+" is pending with "+pendingAssignations+" other pendings ahead");
+                break;
+            case EVENT_TYPE_MOVED_IN_ASSIGNATION_QUEUE:
+                MovedInAssignationQueueInfo movedInAssignationQueueInfo = registerResponse.getMovedInAssignationQueueInfo();
+                sectorName = movedInAssignationQueueInfo.getSectorName();
+                flights = String.join("|", movedInAssignationQueueInfo.getFlightsList());
+                counterCount = movedInAssignationQueueInfo.getCounterCount();
+                pendingAssignations = movedInAssignationQueueInfo.getPendingAssignations();
+                System.out.println(counterCount+" counters in Sector "+sectorName+" for flights "+flights+" is pending with "+pendingAssignations+" other pendings ahead");
+                break;
+            case EVENT_TYPE_ASSIGNATION_DISCARDED:
+                AssignationDiscardedInfo assignationDiscardedInfo = registerResponse.getAssignationDiscardedInfo();
+                sectorName = assignationDiscardedInfo.getSectorName();
+                flights = String.join("|", assignationDiscardedInfo.getFlightsList());
+                counterCount = assignationDiscardedInfo.getCounterCount();
+                System.out.println(counterCount+" counters in Sector "+sectorName+" for flights "+flights+" were discarded, the flights were assigned in another sector");
+                break;
+            case EVENT_TYPE_AIRLINE_REGISTERED:
+                System.out.println(airline + " registered successfully for check-in events");
+                break;
+            case EVENT_TYPE_BATCH:
+                registerResponse.getBatchedEventsList().forEach(event -> printEvent(airline, event));
+                break;
+            case UNRECOGNIZED:
+                // TODO: idk
+                break;
+        }
+    }
+}
@@ -10,9 +10,11 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class QueryClient {
     private static final Logger logger = LoggerFactory.getLogger(QueryClient.class);
@@ -65,14 +67,20 @@ public class QueryClient {
 
             case "queryCounters":
                 Optional<String> sectorCounter = Optional.ofNullable(System.getProperty("sector"));
+                // Sin pageSize se piden todos los mostradores de una vez
+                int pageSize = Integer.parseInt(Optional.ofNullable(System.getProperty("pageSize")).orElse("0"));
                 CountersRequest countersRequest = CountersRequest
                         .newBuilder()
                         .setSectorName(sectorCounter.orElse(""))
+                        .setPageSize(pageSize)
                         .build();
 
                 try {
                     CountersResponse countersResponse = stub.counters(countersRequest);
-                    outputCountersFile(outPath, countersResponse.getCountersList());
+                    outputCountersFile(
+                            outPath,
+                            countersResponse,
+                            pageToken -> stub.counters(countersRequest.toBuilder().setPageToken(pageToken).build()));
                 }catch (RuntimeException e){
                     Status status= Status.fromThrowable(e);
                     System.out.println("Error: " + status.getDescription());
@@ -88,8 +96,11 @@ public class QueryClient {
                         .setAirline(airline.orElse(""))
                         .build();
                 try {
-                    CheckinsResponse checkinsResponse = stub.checkins(checkinsRequest);
-                    outputCheckinsFile(outPath, checkinsResponse.getCheckinsList());
+                    // Se escribe cada parte a medida que llega, sin juntar todo el resultado en memoria
+                    Iterator<CheckinsResponse> checkinsResponses = stub.streamCheckins(checkinsRequest);
+                    // Falla aca si no hay checkins, antes de crear el archivo
+                    checkinsResponses.hasNext();
+                    outputCheckinsFile(outPath, checkinsResponses);
                 }catch (RuntimeException e){
                     Status status= Status.fromThrowable(e);
                     System.out.println("Error: " + status.getDescription());
@@ -104,10 +115,21 @@ public class QueryClient {
 
     }
 
-    private static void outputCountersFile(String fileName, List<CountersInfo> countersList) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(fileName));
-        writer.append("Sector  Counters  Airline         Flights             People\n");
-        writer.append("###########################################################\n");
+    private static void outputCountersFile(
+            String fileName, CountersResponse firstPage, Function<String, CountersResponse> nextPage) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+            writer.append("Sector  Counters  Airline         Flights             People\n");
+            writer.append("###########################################################\n");
+            CountersResponse page = firstPage;
+            outputCounters(writer, page.getCountersList());
+            while (!page.getNextPageToken().isEmpty()) {
+                page = nextPage.apply(page.getNextPageToken());
+                outputCounters(writer, page.getCountersList());
+            }
+        }
+    }
+
+    private static void outputCounters(BufferedWriter writer, List<CountersInfo> countersList) throws IOException {
         for (CountersInfo countersInfo : countersList) {
             writer.append(String.format("%-8s%-10s%-17s",
                     countersInfo.getSectorName(),
@@ -121,23 +143,23 @@ public class QueryClient {
             }
             writer.append(String.format("%-20s%-6s\n",flightStringBuilder, countersInfo.getPassengersInQueue()));
         }
-        writer.close();
-
     }
 
-    private static void outputCheckinsFile(String fileName, List<CheckinInfo> checkinsList) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(fileName));
-        writer.append("Sector  Counter   Airline           Flight     Booking\n");
-        writer.append("###########################################################\n");
-        for (CheckinInfo checkinInfo : checkinsList) {
-            writer.append(String.format("%-8s%-10d%-18s%-11s%-7s\n",
-                    checkinInfo.getSectorName(),
-                    checkinInfo.getCounter(),
-                    checkinInfo.getAirline(),
-                    checkinInfo.getFlight(),
-                    checkinInfo.getBooking()));
+    private static void outputCheckinsFile(String fileName, Iterator<CheckinsResponse> checkinsResponses) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+            writer.append("Sector  Counter   Airline           Flight     Booking\n");
+            writer.append("###########################################################\n");
+            while (checkinsResponses.hasNext()) {
+                for (CheckinInfo checkinInfo : checkinsResponses.next().getCheckinsList()) {
+                    writer.append(String.format("%-8s%-10d%-18s%-11s%-7s\n",
+                            checkinInfo.getSectorName(),
+                            checkinInfo.getCounter(),
+                            checkinInfo.getAirline(),
+                            checkinInfo.getFlight(),
+                            checkinInfo.getBooking()));
+                }
+            }
         }
-        writer.close();
 
     }
 }
@@ -0,0 +1,151 @@
+package ar.edu.itba.pod.client.utils;
+
+import ar.edu.itba.pod.client.models.Passenger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a passenger manifest (booking;flight;airline, with a header line) one row at a time.
+ * Only a fixed size buffer is kept in memory, so the size of the manifest does not matter.
+ */
+public class PassengerManifestReader implements Iterator<Passenger>, Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int FIELDS = 3;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    // Bytes of the field being read, it grows if a field does not fit
+    private byte[] field;
+    private int fieldLength;
+
+    private final String[] fields;
+    private Passenger next;
+    private boolean endOfFile;
+
+    public PassengerManifestReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.buffer.flip();
+        this.field = new byte[64];
+        this.fields = new String[FIELDS];
+
+        // Header
+        skipLine();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = readPassenger();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Passenger next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Passenger passenger = next;
+        next = null;
+        return passenger;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Passenger readPassenger() {
+        while (true) {
+            int fieldCount = 0;
+            fieldLength = 0;
+            boolean lineRead = false;
+
+            int b;
+            while ((b = read()) != -1) {
+                lineRead = true;
+                if (b == '\n') {
+                    break;
+                }
+                if (b == ';') {
+                    if (fieldCount < FIELDS) {
+                        fields[fieldCount] = decodeField();
+                    }
+                    fieldCount++;
+                    fieldLength = 0;
+                } else if (b != '\r') {
+                    appendToField((byte) b);
+                }
+            }
+
+            if (!lineRead) {
+                return null;
+            }
+
+            if (fieldCount < FIELDS) {
+                fields[fieldCount] = decodeField();
+            }
+            fieldCount++;
+
+            // Blank or incomplete lines are skipped
+            if (fieldCount >= FIELDS) {
+                return new Passenger(fields[0], fields[1], fields[2]);
+            }
+        }
+    }
+
+    private void skipLine() {
+        int b;
+        while ((b = read()) != -1 && b != '\n') {}
+    }
+
+    private int read() {
+        if (!buffer.hasRemaining()) {
+            if (endOfFile) {
+                return -1;
+            }
+            buffer.clear();
+            try {
+                int read;
+                do {
+                    read = channel.read(buffer);
+                } while (read == 0);
+
+                if (read == -1) {
+                    endOfFile = true;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.flip();
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private void appendToField(byte b) {
+        if (fieldLength == field.length) {
+            field = Arrays.copyOf(field, field.length * 2);
+        }
+        field[fieldLength++] = b;
+    }
+
+    private String decodeField() {
+        return new String(field, 0, fieldLength, StandardCharsets.UTF_8);
+    }
+}
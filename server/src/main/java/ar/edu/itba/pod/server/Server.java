@@ -2,8 +2,14 @@ package ar.edu.itba.pod.server;
 
 import ar.edu.itba.pod.server.events.EventManager;
 import ar.edu.itba.pod.server.events.EventManagerImpl;
+import ar.edu.itba.pod.server.events.OverflowPolicy;
 import ar.edu.itba.pod.server.repositories.*;
 import ar.edu.itba.pod.server.services.*;
+import ar.edu.itba.pod.server.wal.FsyncPolicy;
+import ar.edu.itba.pod.server.wal.LoggedCounterRepository;
+import ar.edu.itba.pod.server.wal.LoggedPassengerRepository;
+import ar.edu.itba.pod.server.wal.WalReplayer;
+import ar.edu.itba.pod.server.wal.WriteAheadLog;
 
 import io.grpc.BindableService;
 import io.grpc.ServerBuilder;
@@ -12,6 +18,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Server {
     private static final Logger logger = LoggerFactory.getLogger(Server.class);
@@ -19,11 +29,72 @@ public class Server {
     public static void main(String[] args) throws InterruptedException, IOException {
         logger.info(" Server Starting ...");
 
-        CounterRepository counterRepository = new CounterRepositoryImpl();
+        CounterRepository counterRepository = new CounterRepositorySectorLocked();
         PassengerRepository passengerRepository = new PassengerRepositoryImpl();
         CheckinRepository checkinRepository = new CheckinRepositoryImpl();
 
-        EventManager eventManager = new EventManagerImpl();
+        // Without a path the state only lives in memory
+        String walPath = System.getProperty("walPath");
+        if (walPath != null) {
+            FsyncPolicy walFsyncPolicy =
+                    FsyncPolicy.valueOf(System.getProperty("walFsyncPolicy", FsyncPolicy.ALWAYS.name()));
+            Duration walFsyncInterval =
+                    Duration.ofMillis(
+                            Long.parseLong(
+                                    System.getProperty(
+                                            "walFsyncIntervalMillis",
+                                            String.valueOf(WriteAheadLog.DEFAULT_FSYNC_INTERVAL.toMillis()))));
+
+            // The repositories are rebuilt before they are logged, replaying must not log again
+            WriteAheadLog wal =
+                    WriteAheadLog.open(
+                            Path.of(walPath),
+                            walFsyncPolicy,
+                            walFsyncInterval,
+                            new WalReplayer(counterRepository, passengerRepository, checkinRepository));
+            counterRepository = new LoggedCounterRepository(counterRepository, wal);
+            passengerRepository = new LoggedPassengerRepository(passengerRepository, wal);
+
+            Runtime.getRuntime()
+                    .addShutdownHook(
+                            new Thread(
+                                    () -> {
+                                        try {
+                                            wal.close();
+                                        } catch (IOException e) {
+                                            logger.error("Could not close the write-ahead log", e);
+                                        }
+                                    }));
+            logger.info("Logging mutations to {} with fsync policy {}", walPath, walFsyncPolicy);
+        }
+
+        int eventsBufferSize =
+                Integer.parseInt(
+                        System.getProperty(
+                                "eventsBufferSize",
+                                String.valueOf(EventManagerImpl.DEFAULT_BUFFER_CAPACITY)));
+        OverflowPolicy eventsOverflowPolicy =
+                OverflowPolicy.valueOf(
+                        System.getProperty("eventsOverflowPolicy", OverflowPolicy.DROP_OLDEST.name()));
+
+        int eventsReplaySize =
+                Integer.parseInt(
+                        System.getProperty(
+                                "eventsReplaySize",
+                                String.valueOf(EventManagerImpl.DEFAULT_REPLAY_CAPACITY)));
+
+        // Writes the buffered events of every airline, so a slow client does not hold up notifiers
+        ExecutorService eventsExecutor =
+                Executors.newFixedThreadPool(
+                        Runtime.getRuntime().availableProcessors(),
+                        runnable -> {
+                            Thread thread = new Thread(runnable, "events-dispatcher");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        EventManager eventManager =
+                new EventManagerImpl(
+                        eventsExecutor, eventsBufferSize, eventsOverflowPolicy, eventsReplaySize);
 
         BindableService adminService = new AdminService(counterRepository, passengerRepository);
         BindableService counterService =
@@ -38,7 +109,7 @@ public class Server {
                         passengerRepository,
                         checkinRepository,
                         eventManager);
-        BindableService eventsService = new EventsService(passengerRepository, eventManager);
+        EventsService eventsService = new EventsService(passengerRepository, eventManager);
         BindableService queryService =
                 new QueryService(counterRepository, checkinRepository);
 
@@ -48,7 +119,7 @@ public class Server {
                         .addService(adminService)
                         .addService(counterService)
                         .addService(passengerService)
-                        .addService(eventsService)
+                        .addService(eventsService.bindWithSharedSerialization())
                         .addService(queryService)
                         .build();
 
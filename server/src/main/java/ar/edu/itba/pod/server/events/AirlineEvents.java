@@ -0,0 +1,121 @@
+package ar.edu.itba.pod.server.events;
+
+import ar.edu.itba.pod.grpc.events.EventType;
+import ar.edu.itba.pod.grpc.events.RegisterResponse;
+import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
+import ar.edu.itba.pod.server.exceptions.SequenceNotAvailableException;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What the manager keeps for an airline: its event log and the dispatchers of its registered
+ * streams. Filters are checked against the event as it was notified, and only if some stream
+ * wants it the copy with its sequence is built. That copy is offered as the same PublishedEvent to
+ * every dispatcher that wants it, each with its own buffer, so a slow stream only delays itself
+ * and the event is serialized once.
+ * Publishing and attaching a stream are serialized by its monitor, so a resumed stream gets every
+ * event once, either replayed from the log or live.
+ */
+final class AirlineEvents {
+
+    private final EventLog log;
+    private final List<EventDispatcher> dispatchers = new ArrayList<>();
+
+    AirlineEvents(int replayCapacity) {
+        this.log = new EventLog(replayCapacity);
+    }
+
+    // Returns true if a registered stream wanted and took the event
+    synchronized boolean publish(RegisterResponse event) {
+        long sequence = log.append(event);
+
+        boolean notified = false;
+        PublishedEvent published = null;
+        // Copia porque un dispatcher que se desconecta se saca de la lista
+        for (EventDispatcher dispatcher : List.copyOf(dispatchers)) {
+            if (dispatcher.wants(event)) {
+                if (published == null) {
+                    published = new PublishedEvent(new EventLog.LoggedEvent(sequence, event).sequenced());
+                }
+                notified |= dispatcher.offer(published);
+            }
+        }
+        return notified;
+    }
+
+    // Logs the events in order and offers each dispatcher the ones it wants in a single call
+    synchronized boolean publishAll(List<RegisterResponse> events) {
+        long firstSequence = log.lastSequence() + 1;
+        for (RegisterResponse event : events) {
+            log.append(event);
+        }
+
+        boolean notified = false;
+        PublishedEvent[] published = new PublishedEvent[events.size()];
+        for (EventDispatcher dispatcher : List.copyOf(dispatchers)) {
+            List<PublishedEvent> wanted = new ArrayList<>();
+            for (int i = 0; i < published.length; i++) {
+                if (dispatcher.wants(events.get(i))) {
+                    if (published[i] == null) {
+                        published[i] =
+                                new PublishedEvent(new EventLog.LoggedEvent(firstSequence + i, events.get(i)).sequenced());
+                    }
+                    wanted.add(published[i]);
+                }
+            }
+            if (!wanted.isEmpty()) {
+                notified |= dispatcher.offerAll(wanted);
+            }
+        }
+        return notified;
+    }
+
+    /**
+     * Registers the stream, which first gets AIRLINE_REGISTERED carrying the last sequence of the
+     * airline and then, if resumeFrom is not 0, the logged events from that sequence on.
+     */
+    synchronized void attach(
+            EventDispatcher dispatcher, StreamObserver<RegisterResponse> eventStream, long resumeFrom)
+            throws AlreadyExistsException, SequenceNotAvailableException {
+        if (dispatchers.stream().anyMatch(registered -> registered.writesTo(eventStream))) {
+            throw new AlreadyExistsException("This stream is already registered for events");
+        }
+
+        if (resumeFrom != 0
+                && (resumeFrom < log.firstSequence() || resumeFrom > log.lastSequence() + 1)) {
+            throw new SequenceNotAvailableException(
+                    "The events from sequence " + resumeFrom + " are no longer available");
+        }
+
+        dispatchers.add(dispatcher);
+        dispatcher.offer(
+                new PublishedEvent(
+                        RegisterResponse.newBuilder()
+                                .setEventType(EventType.EVENT_TYPE_AIRLINE_REGISTERED)
+                                .setSequence(log.lastSequence())
+                                .build()));
+        if (resumeFrom != 0) {
+            dispatcher.offerAll(
+                    log.from(resumeFrom).stream()
+                            .filter(logged -> dispatcher.wants(logged.event()))
+                            .map(logged -> new PublishedEvent(logged.sequenced()))
+                            .toList());
+        }
+    }
+
+    synchronized List<EventDispatcher> detachAll() {
+        List<EventDispatcher> detached = List.copyOf(dispatchers);
+        dispatchers.clear();
+        return detached;
+    }
+
+    synchronized void detach(EventDispatcher closed) {
+        dispatchers.remove(closed);
+    }
+
+    synchronized List<DispatcherStats> stats() {
+        return dispatchers.stream().map(EventDispatcher::stats).toList();
+    }
+}
@@ -0,0 +1,13 @@
+package ar.edu.itba.pod.server.events;
+
+/**
+ * Delivery counters of an airline. lagNanos is the age of the oldest buffered event and
+ * maxLagNanos the longest an event has waited to be written to the stream.
+ */
+public record DispatcherStats(
+        int queuedEvents,
+        long deliveredEvents,
+        long droppedEvents,
+        long coalescedEvents,
+        long lagNanos,
+        long maxLagNanos) {}
@@ -0,0 +1,389 @@
+package ar.edu.itba.pod.server.events;
+
+import ar.edu.itba.pod.grpc.events.EventType;
+import ar.edu.itba.pod.grpc.events.MovedInAssignationQueueInfo;
+import ar.edu.itba.pod.grpc.events.RegisterResponse;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the events of one registered airline. Events wait in a bounded buffer and a drain task
+ * on the executor writes them to the stream, so notifying never blocks on a slow client. When the
+ * stream has flow control the drain pauses while the transport is not ready and its onReady
+ * handler resumes it. Only one drain runs at a time, which keeps the stream calls serialized.
+ *
+ * <p>A coalescing dispatcher holds a passenger arrival or queue move at the head of the buffer
+ * until it is as old as the window, and then sends it together with every arrival and move
+ * buffered right behind it as a single EVENT_TYPE_BATCH message.
+ */
+final class EventDispatcher {
+
+    private record QueuedEvent(PublishedEvent published, long enqueuedAt) {
+        private RegisterResponse event() {
+            return published.event();
+        }
+    }
+
+    private final StreamObserver<RegisterResponse> eventStream;
+    private final ServerCallStreamObserver<RegisterResponse> serverStream;
+    private final Executor executor;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long coalesceWindowNanos;
+    private final EventFilter filter;
+    private final Consumer<EventDispatcher> onClosed;
+
+    // Guarded by this
+    private final ArrayDeque<QueuedEvent> buffer;
+    private boolean draining;
+    private boolean windowOpen;
+    private boolean closed;
+    private Consumer<StreamObserver<RegisterResponse>> terminal;
+    private long delivered;
+    private long dropped;
+    private long coalesced;
+    private long maxLagNanos;
+
+    EventDispatcher(
+            StreamObserver<RegisterResponse> eventStream,
+            Executor executor,
+            int capacity,
+            OverflowPolicy overflowPolicy,
+            SubscriptionOptions options,
+            Consumer<EventDispatcher> onClosed) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The buffer capacity must be positive");
+        }
+
+        this.eventStream = eventStream;
+        this.serverStream =
+                eventStream instanceof ServerCallStreamObserver<RegisterResponse> stream
+                        ? stream
+                        : null;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.coalesceWindowNanos = options.coalesces() ? options.coalesceWindow().toNanos() : 0;
+        this.filter = options.filter();
+        this.onClosed = onClosed;
+        this.buffer = new ArrayDeque<>(capacity);
+    }
+
+    // Must be called while the call that opened the stream is still being handled
+    void start() {
+        if (serverStream == null) {
+            return;
+        }
+
+        serverStream.setOnReadyHandler(this::resume);
+        serverStream.setOnCancelHandler(
+                () -> {
+                    synchronized (this) {
+                        closed = true;
+                        terminal = null;
+                        dropped += buffer.size();
+                        buffer.clear();
+                    }
+                    onClosed.accept(this);
+                });
+    }
+
+    /**
+     * @return false if the dispatcher is closed or the event made it disconnect
+     */
+    boolean offer(PublishedEvent event) {
+        return offerAll(List.of(event));
+    }
+
+    /**
+     * Buffers the events in order holding the monitor once, and schedules a single drain for all
+     * of them.
+     *
+     * @return false if the dispatcher is closed or one of the events made it disconnect
+     */
+    boolean offerAll(List<PublishedEvent> events) {
+        boolean disconnected = false;
+        boolean schedule;
+
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+
+            for (PublishedEvent event : events) {
+                if (!enqueue(event)) {
+                    disconnected = true;
+                    break;
+                }
+            }
+            schedule = startDraining();
+        }
+
+        if (disconnected) {
+            onClosed.accept(this);
+        }
+        if (schedule) {
+            executor.execute(this::drain);
+        }
+
+        return !disconnected;
+    }
+
+    // Completes the stream once every buffered event has been written
+    void complete() {
+        boolean schedule;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            close(StreamObserver::onCompleted);
+            schedule = startDraining();
+        }
+
+        if (schedule) {
+            executor.execute(this::drain);
+        }
+    }
+
+    // Checked before offering, so the stream does not buffer nor serialize what it does not want
+    boolean wants(RegisterResponse event) {
+        return filter.matches(event);
+    }
+
+    boolean writesTo(StreamObserver<RegisterResponse> stream) {
+        return eventStream == stream;
+    }
+
+    synchronized DispatcherStats stats() {
+        QueuedEvent oldest = buffer.peekFirst();
+        long lag = oldest == null ? 0 : System.nanoTime() - oldest.enqueuedAt();
+        return new DispatcherStats(
+                buffer.size(), delivered, dropped, coalesced, lag, Math.max(maxLagNanos, lag));
+    }
+
+    private void resume() {
+        boolean schedule;
+        synchronized (this) {
+            schedule = startDraining();
+        }
+
+        if (schedule) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void closeWindow() {
+        boolean schedule;
+        synchronized (this) {
+            windowOpen = false;
+            schedule = startDraining();
+        }
+
+        if (schedule) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            PublishedEvent next = null;
+            Consumer<StreamObserver<RegisterResponse>> terminal = null;
+
+            synchronized (this) {
+                if (!buffer.isEmpty() && !isReady()) {
+                    // The onReady handler schedules the drain again
+                    draining = false;
+                    return;
+                }
+
+                QueuedEvent head = buffer.peekFirst();
+                if (head == null) {
+                    terminal = this.terminal;
+                    this.terminal = null;
+                    if (terminal == null) {
+                        draining = false;
+                        return;
+                    }
+                } else if (coalesceWindowNanos > 0 && isCoalescable(head.event())) {
+                    long remaining = head.enqueuedAt() + coalesceWindowNanos - System.nanoTime();
+                    if (remaining > 0) {
+                        // closeWindow schedules the drain again
+                        windowOpen = true;
+                        draining = false;
+                        CompletableFuture.delayedExecutor(remaining, TimeUnit.NANOSECONDS, executor)
+                                .execute(this::closeWindow);
+                        return;
+                    }
+                    next = pollBatch();
+                } else {
+                    next = poll();
+                }
+            }
+
+            try {
+                if (next != null) {
+                    next.writeTo(eventStream);
+                } else {
+                    terminal.accept(eventStream);
+                }
+            } catch (RuntimeException e) {
+                // The stream is broken, nothing else can be written to it
+                synchronized (this) {
+                    closed = true;
+                    this.terminal = null;
+                    dropped += buffer.size();
+                    buffer.clear();
+                }
+                onClosed.accept(this);
+            }
+        }
+    }
+
+    // Caller must hold the monitor
+    private PublishedEvent poll() {
+        QueuedEvent next = buffer.pollFirst();
+        maxLagNanos = Math.max(maxLagNanos, System.nanoTime() - next.enqueuedAt());
+        delivered++;
+        return next.published();
+    }
+
+    // Caller must hold the monitor. Takes the arrivals and moves at the head of the buffer
+    private PublishedEvent pollBatch() {
+        List<PublishedEvent> events = new ArrayList<>();
+        Map<List<String>, Integer> moves = new HashMap<>();
+        int polled = 0;
+
+        while (!buffer.isEmpty() && isCoalescable(buffer.peekFirst().event())) {
+            PublishedEvent event = poll();
+            polled++;
+            if (event.event().getEventType() != EventType.EVENT_TYPE_MOVED_IN_ASSIGNATION_QUEUE) {
+                events.add(event);
+                continue;
+            }
+
+            // A later position of the same assignment replaces the earlier one
+            MovedInAssignationQueueInfo moved = event.event().getMovedInAssignationQueueInfo();
+            List<String> key = new ArrayList<>(moved.getFlightsList());
+            key.add(moved.getSectorName());
+            Integer index = moves.putIfAbsent(key, events.size());
+            if (index == null) {
+                events.add(event);
+            } else {
+                events.set(index, event);
+            }
+        }
+
+        coalesced += polled - 1;
+        if (events.size() == 1) {
+            return events.get(0);
+        }
+
+        // Only this stream writes the batch, its bytes are not shared
+        return new PublishedEvent(
+                RegisterResponse.newBuilder()
+                        .setEventType(EventType.EVENT_TYPE_BATCH)
+                        .addAllBatchedEvents(events.stream().map(PublishedEvent::event).toList())
+                        .build());
+    }
+
+    // Caller must hold the monitor. Returns false if the event made the dispatcher disconnect
+    private boolean enqueue(PublishedEvent event) {
+        if (buffer.size() >= capacity) {
+            switch (overflowPolicy) {
+                case DROP_OLDEST -> dropOldest();
+                case COALESCE -> {
+                    if (removeSupersededBy(event.event())) {
+                        coalesced++;
+                    } else {
+                        dropOldest();
+                    }
+                }
+                case DISCONNECT -> {
+                    dropped += buffer.size() + 1;
+                    buffer.clear();
+                    close(
+                            stream ->
+                                    stream.onError(
+                                            Status.RESOURCE_EXHAUSTED
+                                                    .withDescription(
+                                                            "The airline is not consuming its events fast enough")
+                                                    .asRuntimeException()));
+                    return false;
+                }
+            }
+        }
+
+        buffer.addLast(new QueuedEvent(event, System.nanoTime()));
+        return true;
+    }
+
+    // Caller must hold the monitor
+    private boolean startDraining() {
+        if (draining || windowOpen || (buffer.isEmpty() && terminal == null)) {
+            return false;
+        }
+        draining = true;
+        return true;
+    }
+
+    // Caller must hold the monitor
+    private void close(Consumer<StreamObserver<RegisterResponse>> terminal) {
+        closed = true;
+        this.terminal = terminal;
+    }
+
+    // Caller must hold the monitor
+    private boolean isReady() {
+        return serverStream == null || serverStream.isReady();
+    }
+
+    // Caller must hold the monitor
+    private void dropOldest() {
+        buffer.pollFirst();
+        dropped++;
+    }
+
+    private static boolean isCoalescable(RegisterResponse event) {
+        return event.getEventType() == EventType.EVENT_TYPE_PASSENGER_ARRIVED
+                || event.getEventType() == EventType.EVENT_TYPE_MOVED_IN_ASSIGNATION_QUEUE;
+    }
+
+    // Caller must hold the monitor. Only a newer position of the same assignment supersedes an event
+    private boolean removeSupersededBy(RegisterResponse event) {
+        if (event.getEventType() != EventType.EVENT_TYPE_MOVED_IN_ASSIGNATION_QUEUE) {
+            return false;
+        }
+
+        MovedInAssignationQueueInfo moved = event.getMovedInAssignationQueueInfo();
+        Iterator<QueuedEvent> queued = buffer.descendingIterator();
+        while (queued.hasNext()) {
+            RegisterResponse candidate = queued.next().event();
+            if (candidate.getEventType() == EventType.EVENT_TYPE_MOVED_IN_ASSIGNATION_QUEUE
+                    && Objects.equals(
+                            candidate.getMovedInAssignationQueueInfo().getSectorName(),
+                            moved.getSectorName())
+                    && candidate
+                            .getMovedInAssignationQueueInfo()
+                            .getFlightsList()
+                            .equals(moved.getFlightsList())) {
+                queued.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+}
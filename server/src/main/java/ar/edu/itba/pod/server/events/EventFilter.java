@@ -0,0 +1,64 @@
+package ar.edu.itba.pod.server.events;
+
+import ar.edu.itba.pod.grpc.events.EventType;
+import ar.edu.itba.pod.grpc.events.RegisterResponse;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Events a stream wants. Every non empty set has to match: the type of the event, any of its
+ * flights and its sector. The registration event that starts a stream is not filtered.
+ */
+public record EventFilter(Set<EventType> eventTypes, Set<String> flights, Set<String> sectors) {
+
+    public static final EventFilter ALL = new EventFilter(Set.of(), Set.of(), Set.of());
+
+    public EventFilter {
+        eventTypes = Set.copyOf(eventTypes);
+        flights = Set.copyOf(flights);
+        sectors = Set.copyOf(sectors);
+    }
+
+    public boolean matches(RegisterResponse event) {
+        if (this == ALL) {
+            return true;
+        }
+
+        if (!eventTypes.isEmpty() && !eventTypes.contains(event.getEventType())) {
+            return false;
+        }
+
+        if (!sectors.isEmpty() && !sectors.contains(sectorOf(event))) {
+            return false;
+        }
+
+        return flights.isEmpty() || flightsOf(event).stream().anyMatch(flights::contains);
+    }
+
+    private static String sectorOf(RegisterResponse event) {
+        return switch (event.getEventType()) {
+            case EVENT_TYPE_COUNTERS_ASSIGNED -> event.getCountersAssignedInfo().getSectorName();
+            case EVENT_TYPE_COUNTERS_FREED -> event.getCountersFreedInfo().getSectorName();
+            case EVENT_TYPE_PASSENGER_ARRIVED -> event.getPassengerArrivedInfo().getSectorName();
+            case EVENT_TYPE_PASSENGER_CHECKED_IN -> event.getPassengerCheckedInInfo().getSectorName();
+            case EVENT_TYPE_ASSIGNATION_PENDING -> event.getAssignationPendingInfo().getSectorName();
+            case EVENT_TYPE_MOVED_IN_ASSIGNATION_QUEUE -> event.getMovedInAssignationQueueInfo().getSectorName();
+            case EVENT_TYPE_ASSIGNATION_DISCARDED -> event.getAssignationDiscardedInfo().getSectorName();
+            default -> "";
+        };
+    }
+
+    private static List<String> flightsOf(RegisterResponse event) {
+        return switch (event.getEventType()) {
+            case EVENT_TYPE_COUNTERS_ASSIGNED -> event.getCountersAssignedInfo().getFlightsList();
+            case EVENT_TYPE_COUNTERS_FREED -> event.getCountersFreedInfo().getFlightsList();
+            case EVENT_TYPE_PASSENGER_ARRIVED -> List.of(event.getPassengerArrivedInfo().getFlight());
+            case EVENT_TYPE_PASSENGER_CHECKED_IN -> List.of(event.getPassengerCheckedInInfo().getFlight());
+            case EVENT_TYPE_ASSIGNATION_PENDING -> event.getAssignationPendingInfo().getFlightsList();
+            case EVENT_TYPE_MOVED_IN_ASSIGNATION_QUEUE -> event.getMovedInAssignationQueueInfo().getFlightsList();
+            case EVENT_TYPE_ASSIGNATION_DISCARDED -> event.getAssignationDiscardedInfo().getFlightsList();
+            default -> List.of();
+        };
+    }
+}
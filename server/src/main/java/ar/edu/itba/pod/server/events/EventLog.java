@@ -0,0 +1,57 @@
+package ar.edu.itba.pod.server.events;
+
+import ar.edu.itba.pod.grpc.events.RegisterResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Numbers the events of an airline and keeps the last ones in a ring buffer, so a stream that
+ * reconnects can be sent what it missed. Sequences start at 1. Events are kept as they were
+ * notified, the copy with the sequence set is only built for the streams that want them. Not
+ * thread safe, it is guarded by the monitor of its airline.
+ */
+final class EventLog {
+
+    record LoggedEvent(long sequence, RegisterResponse event) {
+        RegisterResponse sequenced() {
+            return event.toBuilder().setSequence(sequence).build();
+        }
+    }
+
+    private final RegisterResponse[] ring;
+    private long nextSequence = 1;
+    private int size;
+
+    EventLog(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The replay capacity must be positive");
+        }
+        this.ring = new RegisterResponse[capacity];
+    }
+
+    // Returns the sequence of the event
+    long append(RegisterResponse event) {
+        long sequence = nextSequence++;
+        ring[(int) (sequence % ring.length)] = event;
+        size = Math.min(size + 1, ring.length);
+        return sequence;
+    }
+
+    long lastSequence() {
+        return nextSequence - 1;
+    }
+
+    long firstSequence() {
+        return nextSequence - size;
+    }
+
+    // Caller must check that sequence is between firstSequence and lastSequence + 1
+    List<LoggedEvent> from(long sequence) {
+        List<LoggedEvent> events = new ArrayList<>((int) (nextSequence - sequence));
+        for (long s = sequence; s < nextSequence; s++) {
+            events.add(new LoggedEvent(s, ring[(int) (s % ring.length)]));
+        }
+        return events;
+    }
+}
@@ -2,16 +2,34 @@ package ar.edu.itba.pod.server.events;
 
 import ar.edu.itba.pod.grpc.events.RegisterResponse;
 import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
+import ar.edu.itba.pod.server.exceptions.SequenceNotAvailableException;
 import io.grpc.stub.StreamObserver;
 
+import java.util.List;
 import java.util.NoSuchElementException;
 
 public interface EventManager {
 
-    void register(String airline, StreamObserver<RegisterResponse> eventStream) throws AlreadyExistsException;
+    // The stream first gets EVENT_TYPE_AIRLINE_REGISTERED, carrying the last sequence of the airline
+    void register(String airline, StreamObserver<RegisterResponse> eventStream, SubscriptionOptions options)
+            throws AlreadyExistsException, SequenceNotAvailableException;
+
+    default void register(String airline, StreamObserver<RegisterResponse> eventStream) throws AlreadyExistsException {
+        try {
+            register(airline, eventStream, SubscriptionOptions.DEFAULT);
+        } catch (SequenceNotAvailableException e) {
+            // No hay replay sin resumeFromSequence
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Several streams may be registered for the same airline, unregistering completes all of them
     void unregister(String airline) throws NoSuchElementException;
 
-    // Returns true if the airline was notified, false otherwise
+    // Logs the event for replay. Returns true if the airline was notified, false otherwise
     boolean notify(String airline, RegisterResponse event);
 
+    // Same as notifying the events one by one, with a single hand off to each stream
+    boolean notifyAll(String airline, List<RegisterResponse> events);
+
 }
@@ -3,66 +3,97 @@ package ar.edu.itba.pod.server.events;
 import ar.edu.itba.pod.grpc.events.RegisterResponse;
 
 import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
+import ar.edu.itba.pod.server.exceptions.SequenceNotAvailableException;
 import io.grpc.stub.StreamObserver;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 public class EventManagerImpl implements EventManager {
 
-    private final Map<String, StreamObserver<RegisterResponse>> streams = new ConcurrentHashMap<>();
+    public static final int DEFAULT_BUFFER_CAPACITY = 1024;
+    public static final int DEFAULT_REPLAY_CAPACITY = 1024;
 
-    // TODO: checkear si se deben sincronizar los llamados a los stream observers
+    private final Map<String, AirlineEvents> airlines = new ConcurrentHashMap<>();
 
-    @Override
-    public void register(String airline, StreamObserver<RegisterResponse> eventStream) throws AlreadyExistsException {
-        if (streams.containsKey(airline)) {
-            throw new AlreadyExistsException("This airline is already registered for events");
-        }
+    private final Executor executor;
+    private final int bufferCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int replayCapacity;
+
+    // Events are written on the notifying thread
+    public EventManagerImpl() {
+        this(Runnable::run, DEFAULT_BUFFER_CAPACITY, OverflowPolicy.DROP_OLDEST, DEFAULT_REPLAY_CAPACITY);
+    }
+
+    public EventManagerImpl(
+            Executor executor, int bufferCapacity, OverflowPolicy overflowPolicy, int replayCapacity) {
+        this.executor = executor;
+        this.bufferCapacity = bufferCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.replayCapacity = replayCapacity;
+    }
 
-        streams.put(airline, eventStream);
+    @Override
+    public void register(String airline, StreamObserver<RegisterResponse> eventStream, SubscriptionOptions options)
+            throws AlreadyExistsException, SequenceNotAvailableException {
+        AirlineEvents events = airlineEvents(airline);
+        EventDispatcher dispatcher =
+                new EventDispatcher(
+                        eventStream,
+                        executor,
+                        bufferCapacity,
+                        overflowPolicy,
+                        options,
+                        events::detach);
+
+        events.attach(dispatcher, eventStream, options.resumeFromSequence());
+
+        dispatcher.start();
     }
 
     @Override
     public void unregister(String airline) throws NoSuchElementException {
-        if (!streams.containsKey(airline)) {
+        AirlineEvents events = airlines.get(airline);
+
+        List<EventDispatcher> dispatchers = events == null ? List.of() : events.detachAll();
+        if (dispatchers.isEmpty()) {
             throw new NoSuchElementException("This airline is not registered for events");
         }
 
-        StreamObserver<RegisterResponse> airlineStream = streams.get(airline);
-
-        synchronized (airlineStream) {
-            // Alguien ya lo borro, TODO: Nose si va a pasar
-            if (!streams.containsKey(airline)) {
-                return;
-            }
-
-            // Corto el stream
-            airlineStream.onCompleted();
-
-            // Saco a la aerolinea
-            streams.remove(airline);
-        }
+        // Corta los streams cuando terminan de mandar lo que tenian pendiente
+        dispatchers.forEach(EventDispatcher::complete);
     }
 
     @Override
     public boolean notify(String airline, RegisterResponse event) {
-        if (!streams.containsKey(airline)) {
-            return false;
-        }
-
-        StreamObserver<RegisterResponse> airlineStream = streams.get(airline);
+        return airlineEvents(airline).publish(event);
+    }
 
-        synchronized (airlineStream) {
-            // Alguien ya lo borro
-            if (!streams.containsKey(airline)) {
-                return false;
-            }
+    @Override
+    public boolean notifyAll(String airline, List<RegisterResponse> events) {
+        return !events.isEmpty() && airlineEvents(airline).publishAll(events);
+    }
 
-            airlineStream.onNext(event);
-        }
+    // One entry per registered stream of the airline
+    public Map<String, List<DispatcherStats>> getDispatcherStats() {
+        Map<String, List<DispatcherStats>> stats = new HashMap<>();
+        airlines.forEach(
+                (airline, events) -> {
+                    List<DispatcherStats> airlineStats = events.stats();
+                    if (!airlineStats.isEmpty()) {
+                        stats.put(airline, airlineStats);
+                    }
+                });
+        return stats;
+    }
 
-        return true;
+    // The log of an airline is kept even while it has no registered stream
+    private AirlineEvents airlineEvents(String airline) {
+        return airlines.computeIfAbsent(airline, key -> new AirlineEvents(replayCapacity));
     }
 }
@@ -0,0 +1,34 @@
+package ar.edu.itba.pod.server.events;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the callbacks recorded inside a critical section until the lock is released. Callbacks
+ * run in the order they were published and never concurrently: whoever drains runs everything
+ * pending, including callbacks published by other threads meanwhile.
+ */
+public class EventOutbox {
+
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    public void publish(Runnable callback) {
+        pending.add(callback);
+    }
+
+    // Must be called without holding the lock the callbacks were published under
+    public void drain() {
+        while (!pending.isEmpty() && draining.compareAndSet(false, true)) {
+            try {
+                Runnable callback;
+                while ((callback = pending.poll()) != null) {
+                    callback.run();
+                }
+            } finally {
+                draining.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ar.edu.itba.pod.server.events;
+
+/**
+ * What a dispatcher does with a new event when the buffer of its airline is full.
+ */
+public enum OverflowPolicy {
+    // The oldest buffered event is discarded
+    DROP_OLDEST,
+    // A buffered event superseded by the new one is replaced, otherwise the oldest is discarded
+    COALESCE,
+    // The stream is closed with RESOURCE_EXHAUSTED and the airline unregistered
+    DISCONNECT
+}
@@ -0,0 +1,59 @@
+package ar.edu.itba.pod.server.events;
+
+import ar.edu.itba.pod.grpc.events.RegisterResponse;
+
+import io.grpc.stub.StreamObserver;
+
+/**
+ * An event as it was published to the streams of an airline. The same instance is buffered by
+ * every stream that takes the event, so the first one to write it serializes it and the rest write
+ * the same bytes.
+ *
+ * <p>The response marshaller of a stream gets the message, not this object. It is called by onNext
+ * on the thread writing the event, so writeTo leaves the event being written in a thread local
+ * where the marshaller finds it with {@link #serialized}.
+ */
+public final class PublishedEvent {
+
+    private static final ThreadLocal<PublishedEvent> WRITING = new ThreadLocal<>();
+
+    private final RegisterResponse event;
+
+    // Serializing twice gives the same bytes, so racing writers need no lock
+    private volatile byte[] bytes;
+
+    public PublishedEvent(RegisterResponse event) {
+        this.event = event;
+    }
+
+    public RegisterResponse event() {
+        return event;
+    }
+
+    public void writeTo(StreamObserver<RegisterResponse> stream) {
+        WRITING.set(this);
+        try {
+            stream.onNext(event);
+        } finally {
+            WRITING.remove();
+        }
+    }
+
+    /**
+     * The bytes of the message, shared with every stream that writes the same published event when
+     * it is the one being written by this thread.
+     */
+    public static byte[] serialized(RegisterResponse message) {
+        PublishedEvent writing = WRITING.get();
+        if (writing == null || writing.event != message) {
+            return message.toByteArray();
+        }
+
+        byte[] serialized = writing.bytes;
+        if (serialized == null) {
+            serialized = message.toByteArray();
+            writing.bytes = serialized;
+        }
+        return serialized;
+    }
+}
@@ -0,0 +1,19 @@
+package ar.edu.itba.pod.server.events;
+
+import java.time.Duration;
+
+/**
+ * How the events of a registration are delivered. With a positive coalesce window, passenger
+ * arrivals and assignation queue moves that happen within the window travel in a single batch.
+ * A resumeFromSequence other than 0 replays the logged events from that sequence on. Only the
+ * events that match the filter are sent.
+ */
+public record SubscriptionOptions(Duration coalesceWindow, long resumeFromSequence, EventFilter filter) {
+
+    public static final SubscriptionOptions DEFAULT =
+            new SubscriptionOptions(Duration.ZERO, 0, EventFilter.ALL);
+
+    public boolean coalesces() {
+        return !coalesceWindow.isNegative() && !coalesceWindow.isZero();
+    }
+}
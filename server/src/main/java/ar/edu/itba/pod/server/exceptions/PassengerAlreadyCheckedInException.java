@@ -0,0 +1,7 @@
+package ar.edu.itba.pod.server.exceptions;
+
+public class PassengerAlreadyCheckedInException extends Exception{
+    public PassengerAlreadyCheckedInException(String message) {
+        super(message);
+    }
+}
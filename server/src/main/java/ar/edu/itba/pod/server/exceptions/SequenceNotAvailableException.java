@@ -0,0 +1,7 @@
+package ar.edu.itba.pod.server.exceptions;
+
+public class SequenceNotAvailableException extends Exception {
+    public SequenceNotAvailableException(String message) {
+        super(message);
+    }
+}
@@ -4,16 +4,24 @@ package ar.edu.itba.pod.server.models;
 import java.util.List;
 import java.util.function.Consumer;
 
-public record Assignment(String airline, List<String> flights, int counterCount, Consumer<Integer> onMoved, Consumer<Range> onAssigned) {
+public record Assignment(String airline, List<String> flights, int counterCount, Consumer<Integer> onMoved, Consumer<Range> onAssigned, Runnable onDiscarded) {
 
     public Assignment(String airline, List<String> flights, int counterCount) {
         this(airline, flights, counterCount, (a) -> {}, (a) -> {});
     }
 
+    public Assignment(String airline, List<String> flights, int counterCount, Consumer<Integer> onMoved, Consumer<Range> onAssigned) {
+        this(airline, flights, counterCount, onMoved, onAssigned, () -> {});
+    }
+
     public Consumer<Integer> getOnMoved() {
         return onMoved;
     }
     public Consumer<Range> getOnAssigned() {
         return onAssigned;
     }
+    // Run if the assignment leaves the queue without counters
+    public Runnable getOnDiscarded() {
+        return onDiscarded;
+    }
 }
@@ -0,0 +1,55 @@
+package ar.edu.itba.pod.server.models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in the counter ranges of the airport, ordered by sector name and then by first
+ * counter. A page continues with the ranges after the cursor, so ranges added or freed between
+ * pages never make a page repeat or skip a range that did not change.
+ */
+public record CounterCursor(String sector, int counter) {
+
+    public static final CounterCursor START = new CounterCursor("", 0);
+
+    // Larger page sizes are lowered to this one
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    public static CounterCursor after(String sector, CountersRange countersRange) {
+        return new CounterCursor(sector, countersRange.range().from());
+    }
+
+    // Ranges of this sector that start after counter, and every range of a later sector
+    public boolean isBefore(String sector, CountersRange countersRange) {
+        int comparison = this.sector.compareTo(sector);
+        return comparison < 0 || (comparison == 0 && counter < countersRange.range().from());
+    }
+
+    // Opaque to clients, they only send back what they were given
+    public String toPageToken() {
+        return Base64.getUrlEncoder()
+                .withoutPadding()
+                .encodeToString((counter + ":" + sector).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token was not built by toPageToken
+     */
+    public static CounterCursor fromPageToken(String pageToken) {
+        if (pageToken.isEmpty()) {
+            return START;
+        }
+
+        String decoded = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8);
+        int separator = decoded.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Malformed page token");
+        }
+
+        int counter = Integer.parseInt(decoded.substring(0, separator));
+        if (counter < 0) {
+            throw new IllegalArgumentException("Malformed page token");
+        }
+        return new CounterCursor(decoded.substring(separator + 1), counter);
+    }
+}
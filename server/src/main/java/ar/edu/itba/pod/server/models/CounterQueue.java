@@ -0,0 +1,90 @@
+package ar.edu.itba.pod.server.models;
+
+import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passenger queue of an assigned counter range. Any number of threads can enqueue without locking,
+ * while a single consumer (the holder of the sector lock) checks passengers in.
+ */
+public final class CounterQueue {
+
+    private static final int CLOSED = -1;
+
+    private final Queue<String> bookings = new ConcurrentLinkedQueue<>();
+    private final Set<String> queuedBookings = ConcurrentHashMap.newKeySet();
+
+    // Reserved places in the queue, CLOSED once the counters are freed
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @return the passengers in the queue including the new one, or empty if the queue was closed
+     */
+    public Optional<Integer> enqueue(String booking) throws AlreadyExistsException {
+        if (!queuedBookings.add(booking)) {
+            throw new AlreadyExistsException("Passenger already in queue");
+        }
+
+        // The place is reserved before the booking is visible, so the queue can not be closed
+        // with a passenger about to join it
+        int current;
+        do {
+            current = size.get();
+            if (current == CLOSED) {
+                queuedBookings.remove(booking);
+                return Optional.empty();
+            }
+        } while (!size.compareAndSet(current, current + 1));
+
+        bookings.add(booking);
+        return Optional.of(current + 1);
+    }
+
+    public Optional<String> poll() {
+        String booking = bookings.poll();
+        if (booking == null) {
+            return Optional.empty();
+        }
+
+        queuedBookings.remove(booking);
+        size.decrementAndGet();
+        return Optional.of(booking);
+    }
+
+    /**
+     * The next count bookings without taking them, empty for the places nobody is waiting in. Only
+     * for the consumer, as nobody else takes passengers out they are the ones poll returns next.
+     */
+    public List<Optional<String>> peek(int count) {
+        List<Optional<String>> next = new ArrayList<>(count);
+        Iterator<String> queued = bookings.iterator();
+        for (int i = 0; i < count; i++) {
+            next.add(queued.hasNext() ? Optional.of(queued.next()) : Optional.empty());
+        }
+        return next;
+    }
+
+    public boolean contains(String booking) {
+        return queuedBookings.contains(booking);
+    }
+
+    public int size() {
+        return Math.max(0, size.get());
+    }
+
+    /**
+     * @return false if there are passengers waiting, in which case the queue stays open
+     */
+    public boolean close() {
+        return size.compareAndSet(0, CLOSED) || size.get() == CLOSED;
+    }
+}
@@ -0,0 +1,12 @@
+package ar.edu.itba.pod.server.repositories;
+
+import ar.edu.itba.pod.server.models.CounterQueue;
+import ar.edu.itba.pod.server.models.CountersRange;
+
+/**
+ * Entry of the flight index of CounterRepositorySectorLocked. It carries the queue created for
+ * this assignment of the range, so a passenger that looked the flight up joins that queue even if
+ * the range is freed and assigned again before it is enqueued, in which case the queue is closed
+ * and the passenger is not enqueued.
+ */
+record AssignedCounters(CountersRange countersRange, String sector, CounterQueue queue) {}
@@ -2,7 +2,10 @@ package ar.edu.itba.pod.server.repositories;
 
 import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
 import ar.edu.itba.pod.server.models.Checkin;
+import ar.edu.itba.pod.server.models.Passenger;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Predicate;
@@ -11,10 +14,55 @@ public interface CheckinRepository {
 
     void addCheckin(Checkin checkin) throws AlreadyExistsException;
 
+    // All or nothing, none of the checkins is added if any booking already has one
+    void addCheckins(List<Checkin> checkins) throws AlreadyExistsException;
+
     List<Checkin> getCheckins();
     List<Checkin> getCheckins(Predicate<Checkin> predicate);
     Optional<Checkin> getCheckin(String booking);
 
+    // Indexed queries, they cost O(result) instead of scanning every checkin
+    List<Checkin> getCheckinsBySector(String sector);
+    List<Checkin> getCheckinsByAirline(String airline);
+    List<Checkin> getCheckinsBySectorAndAirline(String sector, String airline);
+
+    // Same queries without copying the result. The iterators are weakly consistent, they may
+    // include checkins added while iterating
+    Iterator<Checkin> iterateCheckins();
+    Iterator<Checkin> iterateCheckinsBySector(String sector);
+    Iterator<Checkin> iterateCheckinsByAirline(String airline);
+    Iterator<Checkin> iterateCheckinsBySectorAndAirline(String sector, String airline);
+
     boolean hasCheckins();
     boolean hasCheckin(String booking);
+
+    /**
+     * Checkins of the bookings polled by a checkinCounters from the counters starting at
+     * counterFrom, each one at the counter it was polled from. Idle counters are skipped, and so
+     * are bookings checkinRepository already has a checkin for: they were queued again after
+     * checking in, they only leave the queue instead of failing the whole batch.
+     *
+     * @throws IllegalStateException if a polled booking has no passenger
+     */
+    static List<Checkin> checkinsOf(
+            String sector,
+            int counterFrom,
+            String airline,
+            List<Optional<String>> bookings,
+            PassengerRepository passengerRepository,
+            CheckinRepository checkinRepository) {
+        List<Checkin> checkins = new ArrayList<>(bookings.size());
+        for (int i = 0; i < bookings.size(); i++) {
+            Optional<String> maybeBooking = bookings.get(i);
+            if (maybeBooking.isEmpty() || checkinRepository.hasCheckin(maybeBooking.get())) {
+                continue;
+            }
+
+            String booking = maybeBooking.get();
+            Passenger passenger =
+                    passengerRepository.getPassenger(booking).orElseThrow(IllegalStateException::new);
+            checkins.add(new Checkin(sector, counterFrom + i, airline, passenger.flight(), booking));
+        }
+        return checkins;
+    }
 }
@@ -4,26 +4,94 @@ import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
 import ar.edu.itba.pod.server.models.Checkin;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Predicate;
 
 public class CheckinRepositoryImpl implements CheckinRepository {
 
+    // Keeps the arrival order of the checkins
     private final Collection<Checkin> checkins;
 
+    // Index by booking, used to check for duplicates and to look up a single checkin
+    private final Map<String, Checkin> checkinsByBooking;
+
+    // Append-only secondary indexes, each queue keeps the arrival order of its checkins
+    private final Map<String, Queue<Checkin>> checkinsBySector;
+    private final Map<String, Queue<Checkin>> checkinsByAirline;
+    private final Map<String, Map<String, Queue<Checkin>>> checkinsBySectorAndAirline;
+
     public CheckinRepositoryImpl() {
         this.checkins = new ConcurrentLinkedQueue<>();
+        this.checkinsByBooking = new ConcurrentHashMap<>();
+        this.checkinsBySector = new ConcurrentHashMap<>();
+        this.checkinsByAirline = new ConcurrentHashMap<>();
+        this.checkinsBySectorAndAirline = new ConcurrentHashMap<>();
     }
 
     @Override
     public void addCheckin(Checkin checkin) throws AlreadyExistsException {
 
-        if (hasCheckin(checkin.booking())) {
+        // The index is the source of truth for duplicates, only the thread that wins the
+        // insertion appends the checkin to the queue
+        if (checkinsByBooking.putIfAbsent(checkin.booking(), checkin) != null) {
             throw new AlreadyExistsException(
                     "A passenger with the given booking has already checkin");
         }
 
         checkins.add(checkin);
+
+        checkinsBySector
+                .computeIfAbsent(checkin.sector(), sector -> new ConcurrentLinkedQueue<>())
+                .add(checkin);
+        checkinsByAirline
+                .computeIfAbsent(checkin.airline(), airline -> new ConcurrentLinkedQueue<>())
+                .add(checkin);
+        checkinsBySectorAndAirline
+                .computeIfAbsent(checkin.sector(), sector -> new ConcurrentHashMap<>())
+                .computeIfAbsent(checkin.airline(), airline -> new ConcurrentLinkedQueue<>())
+                .add(checkin);
+    }
+
+    @Override
+    public void addCheckins(List<Checkin> checkins) throws AlreadyExistsException {
+        for (int i = 0; i < checkins.size(); i++) {
+            Checkin checkin = checkins.get(i);
+            if (checkinsByBooking.putIfAbsent(checkin.booking(), checkin) != null) {
+                // Releases the bookings this call already claimed
+                checkins.subList(0, i).forEach(claimed -> checkinsByBooking.remove(claimed.booking()));
+                throw new AlreadyExistsException(
+                        "A passenger with the given booking has already checkin");
+            }
+        }
+
+        this.checkins.addAll(checkins);
+
+        // A batch usually comes from the counters of one airline in one sector, so each index
+        // is looked up once per group instead of once per checkin
+        Map<String, Map<String, List<Checkin>>> bySectorAndAirline = new HashMap<>();
+        for (Checkin checkin : checkins) {
+            bySectorAndAirline
+                    .computeIfAbsent(checkin.sector(), sector -> new HashMap<>())
+                    .computeIfAbsent(checkin.airline(), airline -> new ArrayList<>())
+                    .add(checkin);
+        }
+
+        bySectorAndAirline.forEach(
+                (sector, byAirline) ->
+                        byAirline.forEach(
+                                (airline, group) -> {
+                                    checkinsBySector
+                                            .computeIfAbsent(sector, key -> new ConcurrentLinkedQueue<>())
+                                            .addAll(group);
+                                    checkinsByAirline
+                                            .computeIfAbsent(airline, key -> new ConcurrentLinkedQueue<>())
+                                            .addAll(group);
+                                    checkinsBySectorAndAirline
+                                            .computeIfAbsent(sector, key -> new ConcurrentHashMap<>())
+                                            .computeIfAbsent(airline, key -> new ConcurrentLinkedQueue<>())
+                                            .addAll(group);
+                                }));
     }
 
     @Override
@@ -39,16 +107,79 @@ public class CheckinRepositoryImpl implements CheckinRepository {
 
     @Override
     public Optional<Checkin> getCheckin(String booking) {
-        return checkins.stream().filter(checkin -> checkin.booking().equals(booking)).findFirst();
+        return Optional.ofNullable(checkinsByBooking.get(booking));
+    }
+
+    @Override
+    public List<Checkin> getCheckinsBySector(String sector) {
+        return copyOf(checkinsBySector.get(sector));
+    }
+
+    @Override
+    public List<Checkin> getCheckinsByAirline(String airline) {
+        return copyOf(checkinsByAirline.get(airline));
+    }
+
+    @Override
+    public List<Checkin> getCheckinsBySectorAndAirline(String sector, String airline) {
+        Map<String, Queue<Checkin>> sectorCheckins = checkinsBySectorAndAirline.get(sector);
+
+        if (sectorCheckins == null) {
+            return List.of();
+        }
+
+        return copyOf(sectorCheckins.get(airline));
+    }
+
+    @Override
+    public Iterator<Checkin> iterateCheckins() {
+        return Collections.unmodifiableCollection(checkins).iterator();
+    }
+
+    @Override
+    public Iterator<Checkin> iterateCheckinsBySector(String sector) {
+        return iteratorOf(checkinsBySector.get(sector));
+    }
+
+    @Override
+    public Iterator<Checkin> iterateCheckinsByAirline(String airline) {
+        return iteratorOf(checkinsByAirline.get(airline));
+    }
+
+    @Override
+    public Iterator<Checkin> iterateCheckinsBySectorAndAirline(String sector, String airline) {
+        Map<String, Queue<Checkin>> sectorCheckins = checkinsBySectorAndAirline.get(sector);
+
+        if (sectorCheckins == null) {
+            return Collections.emptyIterator();
+        }
+
+        return iteratorOf(sectorCheckins.get(airline));
     }
 
     @Override
     public boolean hasCheckins() {
-        return !checkins.isEmpty();
+        return !checkinsByBooking.isEmpty();
     }
 
     @Override
     public boolean hasCheckin(String booking) {
-        return getCheckin(booking).isPresent();
+        return checkinsByBooking.containsKey(booking);
+    }
+
+    private static Iterator<Checkin> iteratorOf(Queue<Checkin> indexedCheckins) {
+        if (indexedCheckins == null) {
+            return Collections.emptyIterator();
+        }
+
+        return Collections.unmodifiableCollection(indexedCheckins).iterator();
+    }
+
+    private static List<Checkin> copyOf(Queue<Checkin> indexedCheckins) {
+        if (indexedCheckins == null) {
+            return List.of();
+        }
+
+        return List.copyOf(indexedCheckins);
     }
 }
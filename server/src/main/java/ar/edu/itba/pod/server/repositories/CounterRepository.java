@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.function.Predicate;
 
 public interface CounterRepository {
     // ----- Sectors -----
@@ -15,6 +16,10 @@ public interface CounterRepository {
     List<Sector> getSectors();
     Optional<Sector> getSector(String sectorName);
 
+    // Up to limit ranges after the cursor, by sector name and then by counter, paired with their
+    // sector. Only ranges ending by toCounter are included, and only of sectorName if present
+    List<Pair<CountersRange, String>> getCountersPage(Optional<String> sectorName, CounterCursor after, int toCounter, int limit);
+
     // ----- Counters -----
 
     Range addCounters(String sector, int counterCount) throws NoSuchElementException;
@@ -32,6 +37,26 @@ public interface CounterRepository {
 
     // ----- Queues - Passengers -----
     boolean hasPassengerInCounter(Range counterRange, String booking);
-    int addPassengerToQueue(Range counterRange, String booking) throws AlreadyExistsException, NoSuchElementException;
-    List<Optional<String>> checkinCounters(String sector, int counterFrom, String airline) throws NoSuchElementException, UnauthorizedException;
+    int addPassengerToQueue(String sector, Range counterRange, String booking) throws AlreadyExistsException, NoSuchElementException;
+    // Validates that the flight has the counters starting at firstCounter in the sector and that
+    // the booking is not checked in, and enqueues it, all at once. Empty if the counters do not match
+    Optional<Pair<Range, Integer>> arrivePassenger(String sector, int firstCounter, String flight, String booking, Predicate<String> checkedIn) throws NoSuchElementException, AlreadyExistsException, PassengerAlreadyCheckedInException;
+    // Takes the next passenger of the queue for each counter of the range. They are handed to store
+    // before they leave the queue, and if store throws they stay queued
+    List<Optional<String>> checkinCounters(String sector, int counterFrom, String airline, CheckinStore store) throws NoSuchElementException, UnauthorizedException, AlreadyExistsException;
+
+    default List<Optional<String>> checkinCounters(String sector, int counterFrom, String airline) throws NoSuchElementException, UnauthorizedException {
+        try {
+            return checkinCounters(sector, counterFrom, airline, bookings -> {});
+        } catch (AlreadyExistsException e) {
+            // Nothing is stored
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @FunctionalInterface
+    interface CheckinStore {
+        // One entry per counter of the range, empty if nobody was waiting for it
+        void store(List<Optional<String>> bookings) throws AlreadyExistsException;
+    }
 }
@@ -1,23 +1,45 @@
 package ar.edu.itba.pod.server.repositories;
 
+import ar.edu.itba.pod.server.events.EventOutbox;
 import ar.edu.itba.pod.server.exceptions.*;
 import ar.edu.itba.pod.server.models.*;
+import ar.edu.itba.pod.server.utils.FreeRangeIndex;
+import ar.edu.itba.pod.server.utils.InstrumentedLock;
+import ar.edu.itba.pod.server.utils.InstrumentedReadWriteLock;
+import ar.edu.itba.pod.server.utils.InstrumentedStampedLock;
 import ar.edu.itba.pod.server.utils.Pair;
 
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 public class CounterRepositoryImpl implements CounterRepository {
 
-    private final Map<String, Queue<Assignment>> assignmentQueue = new HashMap<>();
-    private final Map<String, TreeSet<CountersRange>> sectorCounters = new HashMap<>();
+    private final Map<String, PendingAssignments> assignmentQueue = new HashMap<>();
+    // Concurrent, hasSector reads its keys optimistically while addSector may be writing them
+    private final Map<String, TreeSet<CountersRange>> sectorCounters = new ConcurrentHashMap<>();
+    // Unassigned ranges of every sector, always in sync with sectorCounters and guarded by its lock
+    private final Map<String, FreeRangeIndex> freeRanges = new HashMap<>();
     private final Set<String> assignedFlights = new HashSet<>();
     private final Map<Range, Queue<String>> passengerCounters = new HashMap<>();
-    private final ReadWriteLock sectorCountersLock = new ReentrantReadWriteLock(true);
-    private final ReadWriteLock assignmentQueueLock = new ReentrantReadWriteLock(true);
-    private final ReadWriteLock assignedFlightsLock = new ReentrantReadWriteLock(true);
-    private final ReadWriteLock passengerCountersLock = new ReentrantReadWriteLock(true);
+    // Bookings in each queue of passengerCounters, kept with it. Concurrent, as
+    // hasPassengerInCounter reads them optimistically while passengers are enqueued and checked in
+    private final Map<Range, Set<String>> queuedBookings = new ConcurrentHashMap<>();
+
+    // Indexes over the assigned ranges of sectorCounters, only written holding its write lock
+    private final Map<String, Pair<CountersRange, String>> flightCounters = new ConcurrentHashMap<>();
+    private final Map<Range, String> rangeSectors = new ConcurrentHashMap<>();
+
+    private final Map<String, EventOutbox> outboxes = new ConcurrentHashMap<>();
+
+    // Locks must always be acquired in this order: assignmentQueue, sectorCounters,
+    // assignedFlights, passengerCounters. Any subset can be taken as long as the order is kept.
+    // The sectorCounters and passengerCounters locks are read on every passenger request, so they
+    // are stamped locks read optimistically. They are not reentrant.
+    private final InstrumentedReadWriteLock assignmentQueueLock = new InstrumentedReadWriteLock(true);
+    private final InstrumentedStampedLock sectorCountersLock = new InstrumentedStampedLock();
+    private final InstrumentedReadWriteLock assignedFlightsLock = new InstrumentedReadWriteLock(true);
+    private final InstrumentedStampedLock passengerCountersLock = new InstrumentedStampedLock();
     int lastCounter = 0;
 
     @Override
@@ -33,6 +55,7 @@ public class CounterRepositoryImpl implements CounterRepository {
         sectorCountersLock.writeLock().lock();
         try {
             sectorCounters.put(sector, new TreeSet<>());
+            freeRanges.put(sector, new FreeRangeIndex());
         } finally {
             sectorCountersLock.writeLock().unlock();
         }
@@ -40,14 +63,7 @@ public class CounterRepositoryImpl implements CounterRepository {
 
     @Override
     public boolean hasSector(String sector) {
-        boolean result;
-        sectorCountersLock.readLock().lock();
-        try {
-            result = sectorCounters.containsKey(sector);
-        } finally {
-            sectorCountersLock.readLock().unlock();
-        }
-        return result;
+        return sectorCountersLock.optimisticRead(() -> sectorCounters.containsKey(sector));
     }
 
     @Override
@@ -64,19 +80,76 @@ public class CounterRepositoryImpl implements CounterRepository {
 
     @Override
     public Optional<Sector> getSector(String sectorName) {
+        // Copying the ranges walks the set, which is only safe holding the lock
         sectorCountersLock.readLock().lock();
-        Optional<Sector> result = Optional.empty();
         try {
-            if (sectorCounters.containsKey(sectorName)) {
-                result = Optional.of(new Sector(sectorName, sectorCounters.get(sectorName).stream().toList()));
+            TreeSet<CountersRange> counters = sectorCounters.get(sectorName);
+            if (counters == null) {
+                return Optional.empty();
             }
+            return Optional.of(new Sector(sectorName, counters.stream().toList()));
         } finally {
             sectorCountersLock.readLock().unlock();
         }
-        return result;
     }
 
-    private Range assignInfoToAvailableCounterRange(Assignment counterAssignment, CountersRange freeRange, TreeSet<CountersRange> set) {
+    @Override
+    public List<Pair<CountersRange, String>> getCountersPage(
+            Optional<String> sectorName, CounterCursor after, int toCounter, int limit) {
+        List<Pair<CountersRange, String>> page = new ArrayList<>();
+        sectorCountersLock.readLock().lock();
+        try {
+            SortedSet<String> sectorNames =
+                    sectorName.isPresent()
+                            ? new TreeSet<>(sectorName.stream().filter(sectorCounters::containsKey).toList())
+                            : new TreeSet<>(sectorCounters.keySet());
+
+            for (String sector : sectorNames.tailSet(after.sector())) {
+                // Ranges compare by their first counter, the walk starts at most one range before the cursor
+                int afterCounter = sector.equals(after.sector()) ? after.counter() : 0;
+                CountersRange probe = new CountersRange(new Range(afterCounter, afterCounter));
+                for (CountersRange countersRange : sectorCounters.get(sector).tailSet(probe, true)) {
+                    if (!after.isBefore(sector, countersRange)) {
+                        continue;
+                    }
+                    if (page.size() == limit || countersRange.range().to() > toCounter) {
+                        break;
+                    }
+                    page.add(new Pair<>(countersRange, sector));
+                }
+
+                if (page.size() == limit) {
+                    break;
+                }
+            }
+        } finally {
+            sectorCountersLock.readLock().unlock();
+        }
+        return page;
+    }
+
+    private void indexAssignedRange(String sector, CountersRange countersRange) {
+        Pair<CountersRange, String> entry = new Pair<>(countersRange, sector);
+        for (String flight : countersRange.assignedInfo().orElseThrow().flights()) {
+            flightCounters.put(flight, entry);
+        }
+        rangeSectors.put(countersRange.range(), sector);
+    }
+
+    private void unindexAssignedRange(CountersRange countersRange) {
+        for (String flight : countersRange.assignedInfo().orElseThrow().flights()) {
+            flightCounters.remove(flight);
+        }
+        rangeSectors.remove(countersRange.range());
+    }
+
+    private void replaceAssignedRange(String sector, TreeSet<CountersRange> set, CountersRange oldRange, CountersRange newRange) {
+        set.remove(oldRange);
+        set.add(newRange);
+        indexAssignedRange(sector, newRange);
+    }
+
+    private Range assignInfoToAvailableCounterRange(String sector, Assignment counterAssignment, CountersRange freeRange, TreeSet<CountersRange> set) {
         int assignedFrom = freeRange.range().from();
         int assignedTo = assignedFrom + counterAssignment.counterCount() - 1;
 
@@ -91,92 +164,81 @@ public class CounterRepositoryImpl implements CounterRepository {
                                 counterAssignment.flights(),
                                 0)
                 );
-        set.remove(freeRange);
+        removeFreeRange(sector, set, freeRange);
         set.add(assignedRange);
+        indexAssignedRange(sector, assignedRange);
         if (remainingFrom <= remainingTo) {
-            CountersRange remainingRange =
-                    new CountersRange(
-                            new Range(remainingFrom, remainingTo)
-                    );
-            set.add(remainingRange);
+            addFreeRange(sector, set, new Range(remainingFrom, remainingTo));
         }
         return assignedRange.range();
     }
 
-    private void tryPendingAssignments(String sectorName) {
-        List<String> newlyAssignedFlights = new ArrayList<>();
-        assignmentQueueLock.writeLock().lock();
-        while (!sectorCountersLock.writeLock().tryLock()) {
-            assignmentQueueLock.writeLock().unlock();
-            assignmentQueueLock.writeLock().lock();
-        }
-        try {
-            if (!assignmentQueue.containsKey(sectorName)) {
-                return;
-            }
-            List<Assignment> assignments = (List<Assignment>) assignmentQueue.get(sectorName);
-            if (assignments.isEmpty()) {
-                return;
-            }
-            int assignmentsSize = assignments.size();
-            List<Integer> toRemove = new ArrayList<>();
-            for (int i = 0; i < assignmentsSize; i++) {
-                Assignment assignment = assignments.get(i);
-                TreeSet<CountersRange> set = sectorCounters.get(sectorName);
-                Optional<CountersRange> maybeFreeCounterRange =
-                        set.stream().filter(
-                                range -> range.assignedInfo().isEmpty() && (range.range().to() - range.range().from() + 1) >= assignment.counterCount()
-                        ).findFirst();
-
-                // Si el primero no se pudo asignar, probamos con el siguiente
-                if (maybeFreeCounterRange.isEmpty()) {
-                    continue;
-                }
-
-                Range assignedRange = assignInfoToAvailableCounterRange(assignment, maybeFreeCounterRange.get(), set);
-                newlyAssignedFlights.addAll(assignment.flights());
-
-                passengerCountersLock.writeLock().lock();
-                try {
-                    passengerCounters.putIfAbsent(assignedRange, new LinkedList<>());
-                } finally {
-                    passengerCountersLock.writeLock().unlock();
-                }
-
-                toRemove.add(i);
-                assignment.getOnAssigned().accept(assignedRange);
+    // Caller must hold the sectorCounters write lock
+    private void addFreeRange(String sector, TreeSet<CountersRange> set, Range range) {
+        set.add(new CountersRange(range));
+        freeRanges.get(sector).add(range);
+    }
 
-                int pendingAhead = 0;
+    // Caller must hold the sectorCounters write lock
+    private void removeFreeRange(String sector, TreeSet<CountersRange> set, CountersRange freeRange) {
+        set.remove(freeRange);
+        freeRanges.get(sector).remove(freeRange.range());
+    }
 
-                for (int j = 0; j < assignments.size(); j++) {
-                    Assignment pendingAssignment = assignments.get(j);
+    // First free range of the sector with at least counterCount counters
+    private Optional<CountersRange> findFreeCounterRange(String sector, TreeSet<CountersRange> set, int counterCount) {
+        return freeRanges.get(sector).firstFit(counterCount).map(range -> set.floor(new CountersRange(range)));
+    }
 
-                    if (toRemove.contains(j)) {
-                        continue;
-                    }
+    // Ranges are ordered by their first counter, and a one counter probe sorts after a range
+    // starting at the same counter, so the floor of the probe is the range starting at or before it
+    private static Optional<CountersRange> rangeStartingAt(TreeSet<CountersRange> set, int from) {
+        CountersRange floor = set.floor(new CountersRange(new Range(from, from)));
+        if (floor == null || floor.range().from() != from) {
+            return Optional.empty();
+        }
+        return Optional.of(floor);
+    }
 
-                    pendingAssignment.getOnMoved().accept(pendingAhead);
-                    pendingAhead++;
-                }
-            }
+    private void tryPendingAssignments(String sectorName) {
+        // Callbacks are recorded while the locks are held and delivered once they are released
+        EventOutbox outbox = outboxes.computeIfAbsent(sectorName, sector -> new EventOutbox());
 
-            // Remove the assigned assignments
-            for (int i = toRemove.size() - 1; i >= 0; i--) {
-                assignments.remove(toRemove.get(i).intValue());
+        // The passenger queue of the range is created by its first passenger, so passengerCounters
+        // is not locked
+        assignmentQueueLock.writeLock().lock();
+        sectorCountersLock.writeLock().lock();
+        assignedFlightsLock.writeLock().lock();
+        try {
+            PendingAssignments pending = assignmentQueue.get(sectorName);
+            if (pending == null) {
+                return;
             }
 
-
+            TreeSet<CountersRange> set = sectorCounters.get(sectorName);
+            pending.assignPending(
+                    freeRanges.get(sectorName),
+                    assignment -> {
+                        Optional<CountersRange> maybeFreeCounterRange =
+                                findFreeCounterRange(sectorName, set, assignment.counterCount());
+                        // Si no se pudo asignar, probamos con el siguiente
+                        if (maybeFreeCounterRange.isEmpty()) {
+                            return false;
+                        }
+
+                        Range assignedRange = assignInfoToAvailableCounterRange(sectorName, assignment, maybeFreeCounterRange.get(), set);
+                        assignedFlights.addAll(assignment.flights());
+                        outbox.publish(() -> assignment.getOnAssigned().accept(assignedRange));
+                        return true;
+                    },
+                    outbox);
         } finally {
-            assignmentQueueLock.writeLock().unlock();
+            assignedFlightsLock.writeLock().unlock();
             sectorCountersLock.writeLock().unlock();
-        }
-
-        assignmentQueueLock.writeLock().lock();
-        try {
-            assignedFlights.addAll(newlyAssignedFlights);
-        } finally {
             assignmentQueueLock.writeLock().unlock();
         }
+
+        outbox.drain();
     }
 
     @Override
@@ -192,18 +254,18 @@ public class CounterRepositoryImpl implements CounterRepository {
         sectorCountersLock.writeLock().lock();
         try {
             TreeSet<CountersRange> set = sectorCounters.get(sector);
-            CountersRange newRange;
-            Optional<CountersRange> maybeLastCounter = set.stream().filter(range -> range.range().to() == lastCounter).findFirst();
+            // Only the last range of the sector can end at the last counter
+            CountersRange maybeLastCounter = set.isEmpty() ? null : set.last();
             // si no es el ultimo o si tiene assignedInfo
             //   -> creo uno nuevo
-            if (maybeLastCounter.isEmpty() || maybeLastCounter.get().assignedInfo().isPresent()) {
-                newRange = new CountersRange(new Range(lastCounter + 1, lastCounter + counterCount));
+            if (maybeLastCounter == null
+                    || maybeLastCounter.range().to() != lastCounter
+                    || maybeLastCounter.assignedInfo().isPresent()) {
+                addFreeRange(sector, set, new Range(lastCounter + 1, lastCounter + counterCount));
             } else {
-                CountersRange lastCounter = maybeLastCounter.get();
-                set.remove(lastCounter);
-                newRange = new CountersRange(new Range(lastCounter.range().from(), this.lastCounter + counterCount));
+                removeFreeRange(sector, set, maybeLastCounter);
+                addFreeRange(sector, set, new Range(maybeLastCounter.range().from(), lastCounter + counterCount));
             }
-            set.add(newRange);
             lastCounter = lastCounter + counterCount;
         } finally {
             sectorCountersLock.writeLock().unlock();
@@ -229,46 +291,19 @@ public class CounterRepositoryImpl implements CounterRepository {
 
     @Override
     public Optional<CountersRange> getFlightCounters(String flight) {
-        sectorCountersLock.readLock().lock();
-        try {
-            for (TreeSet<CountersRange> set : sectorCounters.values()) {
-                for (CountersRange range : set) {
-                    if (range.assignedInfo().isPresent()
-                            && range.assignedInfo().get().flights().contains(flight)) {
-                        return Optional.of(range);
-                    }
-                }
-            }
-        } finally {
-            sectorCountersLock.readLock().unlock();
-        }
-        return Optional.empty();
+        return getFlightCountersAndSector(flight).map(Pair::first);
     }
 
     @Override
     public Optional<Pair<CountersRange, String>> getFlightCountersAndSector(String flight) {
-        sectorCountersLock.readLock().lock();
-        try {
-            for (Map.Entry<String, TreeSet<CountersRange>> entry : sectorCounters.entrySet()) {
-                for (CountersRange range : entry.getValue()) {
-                    if (range.assignedInfo().isPresent()
-                            && range.assignedInfo().get().flights().contains(flight)) {
-                        return Optional.of(new Pair<>(range, entry.getKey()));
-                    }
-                }
-            }
-        } finally {
-            sectorCountersLock.readLock().unlock();
-        }
-        return Optional.empty();
+        return Optional.ofNullable(flightCounters.get(flight));
     }
 
-
     private boolean isQueued(String sectorName, Assignment assignment) {
         assignmentQueueLock.readLock().lock();
         try {
-            Queue<Assignment> queue = assignmentQueue.get(sectorName);
-            if (queue == null || !queue.contains(assignment)) {
+            PendingAssignments pending = assignmentQueue.get(sectorName);
+            if (pending == null || !pending.assignments().contains(assignment)) {
                 return false;
             }
         } finally {
@@ -283,85 +318,55 @@ public class CounterRepositoryImpl implements CounterRepository {
             throw new NoSuchElementException("Sector does not exist");
         }
 
-        boolean hasFlightAssigned;
-        sectorCountersLock.readLock().lock();
+        // The passenger queue of the range is created by its first passenger, so passengerCounters
+        // is not locked
+        assignmentQueueLock.writeLock().lock();
+        sectorCountersLock.writeLock().lock();
+        assignedFlightsLock.writeLock().lock();
         try {
-            TreeSet<CountersRange> set = sectorCounters.get(sectorName);
-
             // Check if there is a flight from the CounterAssignment
             // that is already assigned to an existing CountersRange
-            hasFlightAssigned =
-                    set.stream()
-                            .filter(countersRange -> countersRange.assignedInfo().isPresent())
-                            .anyMatch(
-                                    countersRange ->
-                                            counterAssignment.flights().stream()
-                                                    .anyMatch(
-                                                            countersRange.assignedInfo().get().flights()
-                                                                    ::contains));
-        } finally {
-            sectorCountersLock.readLock().unlock();
-        }
+            boolean hasFlightAssigned =
+                    counterAssignment.flights().stream()
+                            .map(flightCounters::get)
+                            .anyMatch(entry -> entry != null && entry.second().equals(sectorName));
 
+            if (hasFlightAssigned) {
+                throw new FlightAlreadyAssignedException("Flight already assigned to a counter");
+            }
 
-        if (hasFlightAssigned) {
-            throw new FlightAlreadyAssignedException("Flight already assigned to a counter");
-        }
+            if (isQueued(sectorName, counterAssignment)) {
+                throw new FlightAlreadyQueuedException("Flight already queued");
+            }
 
-        if (isQueued(sectorName, counterAssignment)) {
-            throw new FlightAlreadyQueuedException("Flight already queued");
-        }
-        assignedFlightsLock.readLock().lock();
-        try {
             if (counterAssignment.flights().stream().anyMatch(assignedFlights::contains)) {
                 throw new FlightAlreadyCheckedInException("Flight already checked in");
             }
-        } finally {
-            assignedFlightsLock.readLock().unlock();
-        }
 
-        sectorCountersLock.writeLock().lock();
-        while (!assignedFlightsLock.writeLock().tryLock()) {
-            sectorCountersLock.writeLock().unlock();
-            sectorCountersLock.writeLock().lock();
-        }
-        Range range;
-        try {
             TreeSet<CountersRange> set = sectorCounters.get(sectorName);
             Optional<CountersRange> maybeFreeCounterRange =
-                    set.stream().filter(
-                            r -> r.assignedInfo().isEmpty() && (r.range().to() - r.range().from() + 1) >= counterAssignment.counterCount()
-                    ).findFirst();
+                    findFreeCounterRange(sectorName, set, counterAssignment.counterCount());
             if (maybeFreeCounterRange.isEmpty()) {
                 int pending = addAssignmentToQueue(sectorName, counterAssignment);
                 return new Pair<>(null, pending);
             }
-            range = assignInfoToAvailableCounterRange(counterAssignment, maybeFreeCounterRange.get(), set);
+            Range range = assignInfoToAvailableCounterRange(sectorName, counterAssignment, maybeFreeCounterRange.get(), set);
             assignedFlights.addAll(counterAssignment.flights());
+
+            return new Pair<>(range, 0);
         } finally {
             assignedFlightsLock.writeLock().unlock();
             sectorCountersLock.writeLock().unlock();
+            assignmentQueueLock.writeLock().unlock();
         }
-
-        passengerCountersLock.writeLock().lock();
-        try {
-            passengerCounters.putIfAbsent(range, new LinkedList<>());
-        } finally {
-            passengerCountersLock.writeLock().unlock();
-        }
-
-        return new Pair<>(range, 0);
-
     }
 
     private int addAssignmentToQueue(String sectorName, Assignment counterAssignment) {
         assignmentQueueLock.writeLock().lock();
         try {
-            assignmentQueue.putIfAbsent(sectorName, new LinkedList<>());
-            Queue<Assignment> queue = assignmentQueue.get(sectorName);
-            int pending = queue.size();
-            queue.add(counterAssignment);
-            return pending;
+            return assignmentQueue
+                    .computeIfAbsent(sectorName, sector -> new PendingAssignments())
+                    .add(counterAssignment);
         } finally {
             assignmentQueueLock.writeLock().unlock();
         }
@@ -382,14 +387,12 @@ public class CounterRepositoryImpl implements CounterRepository {
         if (!hasSector(sectorName)) {
             throw new NoSuchElementException("Sector does not exist");
         }
-        Optional<CountersRange> maybeToFreeCounterRange;
-        sectorCountersLock.readLock().lock();
+        CountersRange toFree;
+        sectorCountersLock.writeLock().lock();
+        passengerCountersLock.readLock().lock();
         try {
             TreeSet<CountersRange> set = sectorCounters.get(sectorName);
-            maybeToFreeCounterRange =
-                    set.stream().filter(
-                            range -> range.range().from() == counterFrom && range.assignedInfo().isPresent()
-                    ).findFirst();
+            Optional<CountersRange> maybeToFreeCounterRange = rangeStartingAt(set, counterFrom);
             if (maybeToFreeCounterRange.isEmpty() || maybeToFreeCounterRange.get().assignedInfo().isEmpty()) {
                 throw new NoSuchElementException("Counter does not exist or not assigned");
             }
@@ -398,46 +401,31 @@ public class CounterRepositoryImpl implements CounterRepository {
                 throw new UnauthorizedException("Counter is not assigned to the airline");
             }
 
-        } finally {
-            sectorCountersLock.readLock().unlock();
-        }
-
-        passengerCountersLock.readLock().lock();
-        try {
             if (!passengerCounters.getOrDefault(maybeToFreeCounterRange.get().range(), new LinkedList<>()).isEmpty()) {
                 throw new HasPendingPassengersException("Counter has pending passengers");
             }
-        } finally {
-            passengerCountersLock.readLock().unlock();
-        }
-        CountersRange toFree;
-        sectorCountersLock.writeLock().lock();
-        try {
-            TreeSet<CountersRange> set = sectorCounters.get(sectorName);
+
             toFree = maybeToFreeCounterRange.get();
 
             set.remove(toFree);
+            unindexAssignedRange(toFree);
             int newFrom = toFree.range().from();
             int newTo = toFree.range().to();
 
-            Optional<CountersRange> maybeBefore =
-                    set.stream().filter(
-                            range -> range.range().to() == (toFree.range().from() - 1) && range.assignedInfo().isEmpty()
-                    ).findFirst();
-            Optional<CountersRange> maybeAfter =
-                    set.stream().filter(
-                            range -> range.range().from() == (toFree.range().to() + 1) && range.assignedInfo().isEmpty()
-                    ).findFirst();
-            if (maybeBefore.isPresent()) {
-                set.remove(maybeBefore.get());
-                newFrom = maybeBefore.get().range().from();
+            // toFree already left the set, so the floor of its first counter is the range before it
+            CountersRange before = set.floor(new CountersRange(new Range(newFrom, newFrom)));
+            if (before != null && before.range().to() == newFrom - 1 && before.assignedInfo().isEmpty()) {
+                removeFreeRange(sectorName, set, before);
+                newFrom = before.range().from();
             }
-            if (maybeAfter.isPresent()) {
-                set.remove(maybeAfter.get());
+            Optional<CountersRange> maybeAfter = rangeStartingAt(set, newTo + 1);
+            if (maybeAfter.isPresent() && maybeAfter.get().assignedInfo().isEmpty()) {
+                removeFreeRange(sectorName, set, maybeAfter.get());
                 newTo = maybeAfter.get().range().to();
             }
-            set.add(new CountersRange(new Range(newFrom, newTo)));
+            addFreeRange(sectorName, set, new Range(newFrom, newTo));
         } finally {
+            passengerCountersLock.readLock().unlock();
             sectorCountersLock.writeLock().unlock();
         }
         tryPendingAssignments(sectorName);
@@ -446,88 +434,103 @@ public class CounterRepositoryImpl implements CounterRepository {
 
     @Override
     public Queue<Assignment> getQueuedAssignments(String sector) {
-        assignedFlightsLock.readLock().lock();
+        assignmentQueueLock.readLock().lock();
         try {
-            return assignmentQueue.getOrDefault(sector, new LinkedList<>());
+            PendingAssignments pending = assignmentQueue.get(sector);
+            return pending == null ? new LinkedList<>() : new LinkedList<>(pending.assignments());
         } finally {
-            assignedFlightsLock.readLock().unlock();
+            assignmentQueueLock.readLock().unlock();
         }
     }
 
     @Override
     public boolean hasPassengerInCounter(Range counterRange, String booking) {
-        passengerCountersLock.readLock().lock();
-        try {
-            return passengerCounters.getOrDefault(counterRange, new LinkedList<>()).contains(booking);
-        } finally {
-            passengerCountersLock.readLock().unlock();
-        }
+        return passengerCountersLock.optimisticRead(
+                () -> {
+                    Set<String> bookings = queuedBookings.get(counterRange);
+                    return bookings != null && bookings.contains(booking);
+                });
     }
 
     @Override
-    public int addPassengerToQueue(Range range, String booking) throws AlreadyExistsException, NoSuchElementException {
-        if (hasPassengerInCounter(range, booking)) {
-            throw new AlreadyExistsException("Passenger already in queue");
-        }
+    public Optional<Pair<Range, Integer>> arrivePassenger(String sector, int firstCounter, String flight, String booking, Predicate<String> checkedIn)
+            throws NoSuchElementException, AlreadyExistsException, PassengerAlreadyCheckedInException {
+        // The same locks addPassengerToQueue takes, held for the validation as well
+        sectorCountersLock.writeLock().lock();
         passengerCountersLock.writeLock().lock();
-        while (!sectorCountersLock.writeLock().tryLock()) {
-            passengerCountersLock.writeLock().unlock();
-            passengerCountersLock.writeLock().lock();
-        }
         try {
-            Queue<String> passengers = passengerCounters.getOrDefault(range, null);
-            if (passengers == null) {
-                throw new NoSuchElementException("Counter does not exist");
-            }
-            passengers.add(booking);
-
-            CountersRange counterRange = null;
-            TreeSet<CountersRange> set = new TreeSet<>();
-            for (TreeSet<CountersRange> setAux : sectorCounters.values()) {
-                for (CountersRange rangeAux : setAux) {
-                    if (rangeAux.range().equals(range)) {
-                        counterRange = rangeAux;
-                        set = setAux;
-                        break;
-                    }
-                }
+            if (!sectorCounters.containsKey(sector)) {
+                throw new NoSuchElementException("Sector does not exist");
             }
-            if (set.isEmpty()) {
-                throw new NoSuchElementException("Counter does not exist");
+
+            Pair<CountersRange, String> assigned = flightCounters.get(flight);
+            if (assigned == null
+                    || !assigned.second().equals(sector)
+                    || assigned.first().range().from() != firstCounter) {
+                return Optional.empty();
             }
 
-            set.remove(counterRange);
-            AssignedInfo assignedInfo = new AssignedInfo(
-                    counterRange.assignedInfo().orElseThrow().airline(),
-                    counterRange.assignedInfo().orElseThrow().flights(),
-                    passengers.size()
-            );
-            set.add(new CountersRange(counterRange.range(), assignedInfo));
+            if (checkedIn.test(booking)) {
+                throw new PassengerAlreadyCheckedInException("Passenger already checked in");
+            }
 
-            return passengers.size();
+            Range range = assigned.first().range();
+            return Optional.of(new Pair<>(range, enqueuePassenger(sector, range, booking)));
         } finally {
+            passengerCountersLock.writeLock().unlock();
             sectorCountersLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int addPassengerToQueue(String sector, Range range, String booking) throws AlreadyExistsException, NoSuchElementException {
+        sectorCountersLock.writeLock().lock();
+        passengerCountersLock.writeLock().lock();
+        try {
+            return enqueuePassenger(sector, range, booking);
+        } finally {
             passengerCountersLock.writeLock().unlock();
+            sectorCountersLock.writeLock().unlock();
+        }
+    }
+
+    // Caller must hold the sectorCounters and passengerCounters write locks
+    private int enqueuePassenger(String sector, Range range, String booking) throws AlreadyExistsException, NoSuchElementException {
+        if (!sector.equals(rangeSectors.get(range))) {
+            throw new NoSuchElementException("Counter does not exist");
+        }
+
+        Queue<String> passengers = passengerCounters.computeIfAbsent(range, r -> new LinkedList<>());
+        if (!queuedBookings.computeIfAbsent(range, r -> ConcurrentHashMap.newKeySet()).add(booking)) {
+            throw new AlreadyExistsException("Passenger already in queue");
         }
+        passengers.add(booking);
+
+        TreeSet<CountersRange> set = sectorCounters.get(sector);
+        CountersRange counterRange = set.ceiling(new CountersRange(range));
+
+        AssignedInfo assignedInfo = new AssignedInfo(
+                counterRange.assignedInfo().orElseThrow().airline(),
+                counterRange.assignedInfo().orElseThrow().flights(),
+                passengers.size()
+        );
+        replaceAssignedRange(sector, set, counterRange, new CountersRange(counterRange.range(), assignedInfo));
+
+        return passengers.size();
     }
 
     @Override
-    public List<Optional<String>> checkinCounters(String sector, int counterFrom, String airline) throws NoSuchElementException, UnauthorizedException {
+    public List<Optional<String>> checkinCounters(String sector, int counterFrom, String airline, CheckinStore store) throws NoSuchElementException, UnauthorizedException, AlreadyExistsException {
         if (!hasSector(sector)) {
             throw new NoSuchElementException("Sector does not exist");
         }
 
-        sectorCountersLock.readLock().lock();
-        while (!passengerCountersLock.writeLock().tryLock()) {
-            sectorCountersLock.readLock().unlock();
-            sectorCountersLock.readLock().lock();
-        }
+        // The queue size of the range changes, so the sector counters are written too
+        sectorCountersLock.writeLock().lock();
+        passengerCountersLock.writeLock().lock();
         try {
             TreeSet<CountersRange> set = sectorCounters.get(sector);
-            Optional<CountersRange> maybeCounter =
-                    set.stream().filter(
-                            range -> range.range().from() == counterFrom
-                    ).findFirst();
+            Optional<CountersRange> maybeCounter = rangeStartingAt(set, counterFrom);
             if (maybeCounter.isEmpty() || maybeCounter.get().assignedInfo().isEmpty()) {
                 throw new NoSuchElementException("Counter does not exist or not assigned");
             }
@@ -541,21 +544,46 @@ public class CounterRepositoryImpl implements CounterRepository {
             List<Optional<String>> result = new ArrayList<>();
             Queue<String> passengers = passengerCounters.getOrDefault(counterRange.range(), new LinkedList<>());
 
+            Iterator<String> queued = passengers.iterator();
             for (int i = 0; i < counterRange.range().to() - counterRange.range().from() + 1; i++) {
-                result.add(Optional.ofNullable(passengers.poll()));
+                result.add(queued.hasNext() ? Optional.of(queued.next()) : Optional.empty());
+            }
+
+            // They only leave the queue once they are stored
+            store.store(result);
+            for (Optional<String> booking : result) {
+                booking.ifPresent(
+                        checkedIn -> {
+                            passengers.poll();
+                            queuedBookings.get(counterRange.range()).remove(checkedIn);
+                        });
             }
 
-            set.remove(counterRange);
             AssignedInfo assignedInfo = new AssignedInfo(
                     counterRange.assignedInfo().orElseThrow().airline(),
                     counterRange.assignedInfo().orElseThrow().flights(),
                     passengers.size()
             );
-            set.add(new CountersRange(counterRange.range(), assignedInfo));
+            replaceAssignedRange(sector, set, counterRange, new CountersRange(counterRange.range(), assignedInfo));
             return result;
         } finally {
             passengerCountersLock.writeLock().unlock();
-            sectorCountersLock.readLock().unlock();
+            sectorCountersLock.writeLock().unlock();
         }
     }
-}
\ No newline at end of file
+
+    public Map<String, InstrumentedLock.Stats> getLockStats() {
+        Map<String, InstrumentedLock.Stats> stats = new LinkedHashMap<>();
+        stats.put("assignmentQueue.read", assignmentQueueLock.readLock().stats());
+        stats.put("assignmentQueue.write", assignmentQueueLock.writeLock().stats());
+        stats.put("sectorCounters.read", sectorCountersLock.readLock().stats());
+        stats.put("sectorCounters.write", sectorCountersLock.writeLock().stats());
+        stats.put("sectorCounters.optimistic", sectorCountersLock.optimisticStats());
+        stats.put("assignedFlights.read", assignedFlightsLock.readLock().stats());
+        stats.put("assignedFlights.write", assignedFlightsLock.writeLock().stats());
+        stats.put("passengerCounters.read", passengerCountersLock.readLock().stats());
+        stats.put("passengerCounters.write", passengerCountersLock.writeLock().stats());
+        stats.put("passengerCounters.optimistic", passengerCountersLock.optimisticStats());
+        return stats;
+    }
+}
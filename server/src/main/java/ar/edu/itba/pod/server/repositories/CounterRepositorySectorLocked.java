@@ -0,0 +1,513 @@
+package ar.edu.itba.pod.server.repositories;
+
+import ar.edu.itba.pod.server.events.EventOutbox;
+import ar.edu.itba.pod.server.exceptions.*;
+import ar.edu.itba.pod.server.models.*;
+import ar.edu.itba.pod.server.utils.FreeRangeIndex;
+import ar.edu.itba.pod.server.utils.Pair;
+import ar.edu.itba.pod.server.utils.PersistentIntMap;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Every sector keeps its own counters, queues and lock, so operations on different sectors never
+ * wait on each other. The only shared state are the counter ids and concurrent indexes.
+ *
+ * <p>The counters of a sector are a persistent map, every change makes a new version that shares
+ * all but O(log n) nodes with the previous one. Each mutation publishes the version it ends with
+ * before releasing the sector lock. Queries read the last version published and never take the
+ * lock, so they do not wait for mutations, not even a long checkin, and never see one halfway.
+ */
+public class CounterRepositorySectorLocked implements CounterRepository {
+
+    private static final class SectorState {
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // Counter ranges by their first counter, the queue size of assigned ranges is read from
+        // their CounterQueue instead. Guarded by the lock
+        private PersistentIntMap<CountersRange> counters = PersistentIntMap.empty();
+
+        // Version of counters left by the last mutation, read without the lock
+        private volatile PersistentIntMap<CountersRange> published = PersistentIntMap.empty();
+        private final PendingAssignments pendingAssignments = new PendingAssignments();
+
+        // Copy of the pending assignments published after every change of the queue, for queries
+        private volatile List<Assignment> queuedAssignments = List.of();
+
+        // Unassigned ranges of counters, always in sync with the free entries of counters
+        private final FreeRangeIndex freeRanges = new FreeRangeIndex();
+
+        // Assignment callbacks, delivered after the lock is released
+        private final EventOutbox outbox = new EventOutbox();
+
+        private SectorState(String name) {
+            this.name = name;
+        }
+    }
+
+    private final ConcurrentNavigableMap<String, SectorState> sectors = new ConcurrentSkipListMap<>();
+    private final AtomicInteger lastCounter = new AtomicInteger();
+
+    // Indexes over the assigned ranges, only written holding the lock of their sector
+    private final Map<String, AssignedCounters> flightCounters = new ConcurrentHashMap<>();
+    private final Map<Range, CounterQueue> counterQueues = new ConcurrentHashMap<>();
+
+    private final Set<String> assignedFlights = ConcurrentHashMap.newKeySet();
+
+    // -------- Sectors --------
+
+    @Override
+    public void addSector(String sector) throws AlreadyExistsException {
+        if (sectors.putIfAbsent(sector, new SectorState(sector)) != null) {
+            throw new AlreadyExistsException("Sector already exists");
+        }
+    }
+
+    @Override
+    public boolean hasSector(String sector) {
+        return sectors.containsKey(sector);
+    }
+
+    @Override
+    public List<Sector> getSectors() {
+        List<Sector> result = new ArrayList<>();
+        for (SectorState state : sectors.values()) {
+            result.add(toSector(state));
+        }
+        return result;
+    }
+
+    @Override
+    public Optional<Sector> getSector(String sectorName) {
+        return Optional.ofNullable(sectors.get(sectorName)).map(this::toSector);
+    }
+
+    @Override
+    public List<Pair<CountersRange, String>> getCountersPage(
+            Optional<String> sectorName, CounterCursor after, int toCounter, int limit) {
+        Collection<SectorState> states =
+                sectorName.isPresent()
+                        ? Optional.ofNullable(sectors.get(sectorName.get())).stream().toList()
+                        : sectors.tailMap(after.sector(), true).values();
+
+        // Each sector is walked on the version of its counters published last, only until the page is full
+        List<Pair<CountersRange, String>> page = new ArrayList<>();
+        for (SectorState state : states) {
+            int comparison = state.name.compareTo(after.sector());
+            if (comparison < 0) {
+                continue;
+            }
+
+            int afterCounter = comparison == 0 ? after.counter() : 0;
+            for (CountersRange countersRange : state.published.valuesAfter(afterCounter)) {
+                if (page.size() == limit || countersRange.range().to() > toCounter) {
+                    break;
+                }
+                page.add(new Pair<>(withQueueSize(countersRange), state.name));
+            }
+
+            if (page.size() == limit) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    // -------- Counters --------
+
+    @Override
+    public Range addCounters(String sector, int counterCount) throws NoSuchElementException {
+        SectorState state = getSectorState(sector);
+
+        state.lock.lock();
+        try {
+            // The ids are reserved while holding the sector lock, so the last range of the sector
+            // can only be extended if no other sector took ids in between
+            int from = lastCounter.getAndAdd(counterCount) + 1;
+            int to = from + counterCount - 1;
+
+            CountersRange last = state.counters.last();
+            if (last != null && last.range().to() == from - 1 && last.assignedInfo().isEmpty()) {
+                removeFreeRange(state, last.range());
+                putFreeRange(state, new Range(last.range().from(), to));
+            } else {
+                putFreeRange(state, new Range(from, to));
+            }
+
+            tryPendingAssignments(state);
+
+            return new Range(from, to);
+        } finally {
+            state.published = state.counters;
+            state.lock.unlock();
+            state.outbox.drain();
+        }
+    }
+
+    @Override
+    public boolean hasCounters() {
+        // Counters can only be added to existing sectors
+        return lastCounter.get() > 0;
+    }
+
+    @Override
+    public Optional<CountersRange> getFlightCounters(String flight) {
+        return getFlightCountersAndSector(flight).map(Pair::first);
+    }
+
+    @Override
+    public Optional<Pair<CountersRange, String>> getFlightCountersAndSector(String flight) {
+        return Optional.ofNullable(flightCounters.get(flight))
+                .map(entry -> new Pair<>(withQueueSize(entry.countersRange(), entry.queue()), entry.sector()));
+    }
+
+    // -------- Assignments --------
+
+    @Override
+    public Pair<Range, Integer> assignCounterAssignment(String sectorName, Assignment counterAssignment)
+            throws FlightAlreadyAssignedException,
+                    FlightAlreadyQueuedException,
+                    FlightAlreadyCheckedInException {
+        SectorState state = getSectorState(sectorName);
+
+        state.lock.lock();
+        try {
+            // Check if there is a flight from the CounterAssignment
+            // that is already assigned to an existing CountersRange
+            boolean hasFlightAssigned =
+                    counterAssignment.flights().stream()
+                            .map(flightCounters::get)
+                            .anyMatch(entry -> entry != null && entry.sector().equals(sectorName));
+            if (hasFlightAssigned) {
+                throw new FlightAlreadyAssignedException("Flight already assigned to a counter");
+            }
+
+            // Check if there is a pending assignment that has at least one of the flights as the
+            // current assignment
+            if (state.pendingAssignments.containsAnyFlight(counterAssignment.flights())) {
+                throw new FlightAlreadyQueuedException("Flight already queued");
+            }
+
+            if (counterAssignment.flights().stream().anyMatch(assignedFlights::contains)) {
+                throw new FlightAlreadyCheckedInException("Flight already checked in");
+            }
+
+            Optional<CountersRange> maybeFreeCounterRange =
+                    findFreeCounterRange(state, counterAssignment.counterCount());
+            if (maybeFreeCounterRange.isEmpty()) {
+                int pendingAhead = state.pendingAssignments.add(counterAssignment);
+                publishQueuedAssignments(state);
+                return new Pair<>(null, pendingAhead);
+            }
+
+            claimFlights(counterAssignment.flights());
+
+            Range assignedRange =
+                    assignInfoToAvailableCounterRange(
+                            state, counterAssignment, maybeFreeCounterRange.get());
+            return new Pair<>(assignedRange, 0);
+        } finally {
+            state.published = state.counters;
+            state.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> getPreviouslyAssignedFlights() {
+        return List.copyOf(assignedFlights);
+    }
+
+    @Override
+    public CountersRange freeCounters(String sector, int counterFrom, String airline)
+            throws NoSuchElementException, HasPendingPassengersException, UnauthorizedException {
+        SectorState state = getSectorState(sector);
+
+        state.lock.lock();
+        try {
+            CountersRange toFree = state.counters.get(counterFrom);
+            if (toFree == null || toFree.assignedInfo().isEmpty()) {
+                throw new NoSuchElementException("Counter does not exist or not assigned");
+            }
+
+            if (!toFree.assignedInfo().get().airline().equals(airline)) {
+                throw new UnauthorizedException("Counter is not assigned to the airline");
+            }
+
+            // Once closed no passenger can join the queue
+            if (!counterQueues.get(toFree.range()).close()) {
+                throw new HasPendingPassengersException("Counter has pending passengers");
+            }
+
+            state.counters = state.counters.remove(counterFrom);
+            unindexAssignedRange(toFree);
+
+            // Non assigned counters must be merged
+            int newFrom = toFree.range().from();
+            int newTo = toFree.range().to();
+
+            CountersRange before = state.counters.lower(newFrom);
+            if (before != null && before.range().to() == newFrom - 1 && before.assignedInfo().isEmpty()) {
+                removeFreeRange(state, before.range());
+                newFrom = before.range().from();
+            }
+
+            CountersRange after = state.counters.get(newTo + 1);
+            if (after != null && after.assignedInfo().isEmpty()) {
+                removeFreeRange(state, after.range());
+                newTo = after.range().to();
+            }
+
+            putFreeRange(state, new Range(newFrom, newTo));
+
+            tryPendingAssignments(state);
+
+            return toFree;
+        } finally {
+            state.published = state.counters;
+            state.lock.unlock();
+            state.outbox.drain();
+        }
+    }
+
+    // -------- Queues - Assignments --------
+
+    @Override
+    public Queue<Assignment> getQueuedAssignments(String sector) {
+        SectorState state = sectors.get(sector);
+        if (state == null) {
+            return new LinkedList<>();
+        }
+
+        return new LinkedList<>(state.queuedAssignments);
+    }
+
+    // -------- Queues - Passengers --------
+
+    @Override
+    public boolean hasPassengerInCounter(Range counterRange, String booking) {
+        CounterQueue queue = counterQueues.get(counterRange);
+        return queue != null && queue.contains(booking);
+    }
+
+    @Override
+    public int addPassengerToQueue(String sector, Range counterRange, String booking)
+            throws AlreadyExistsException, NoSuchElementException {
+        // Read on the published version, a range never moves to another sector
+        CountersRange countersRange = getSectorState(sector).published.get(counterRange.from());
+        CounterQueue queue = counterQueues.get(counterRange);
+        if (countersRange == null || !countersRange.range().equals(counterRange) || queue == null) {
+            throw new NoSuchElementException("Counter does not exist");
+        }
+
+        // The queue is closed if the range was freed after it was looked up
+        return queue.enqueue(booking)
+                .orElseThrow(() -> new NoSuchElementException("Counter does not exist"));
+    }
+
+    @Override
+    public Optional<Pair<Range, Integer>> arrivePassenger(
+            String sector, int firstCounter, String flight, String booking, Predicate<String> checkedIn)
+            throws NoSuchElementException, AlreadyExistsException, PassengerAlreadyCheckedInException {
+        SectorState state = getSectorState(sector);
+
+        // The validation and the enqueue are one critical section, so a checkin of the sector can
+        // not store the passenger in between and leave it queued again
+        state.lock.lock();
+        try {
+            AssignedCounters assigned = flightCounters.get(flight);
+            if (assigned == null
+                    || !assigned.sector().equals(sector)
+                    || assigned.countersRange().range().from() != firstCounter) {
+                return Optional.empty();
+            }
+
+            if (checkedIn.test(booking)) {
+                throw new PassengerAlreadyCheckedInException("Passenger already checked in");
+            }
+
+            // The queue of the looked up assignment, which is closed if the predicate freed it
+            Range range = assigned.countersRange().range();
+            return assigned.queue()
+                    .enqueue(booking)
+                    .map(passengersInQueue -> new Pair<>(range, passengersInQueue));
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Optional<String>> checkinCounters(
+            String sector, int counterFrom, String airline, CheckinStore store)
+            throws NoSuchElementException, UnauthorizedException, AlreadyExistsException {
+        SectorState state = getSectorState(sector);
+
+        state.lock.lock();
+        try {
+            CountersRange counter = state.counters.get(counterFrom);
+            if (counter == null || counter.assignedInfo().isEmpty()) {
+                throw new NoSuchElementException("Counter does not exist or not assigned");
+            }
+
+            if (!counter.assignedInfo().get().airline().equals(airline)) {
+                throw new UnauthorizedException("Counter is not assigned to the airline");
+            }
+
+            // Holding the sector lock makes this thread the only consumer of the queue, so the
+            // passengers peeked are the ones polled once they are stored
+            CounterQueue queue = counterQueues.get(counter.range());
+
+            List<Optional<String>> result = queue.peek(counter.range().to() - counter.range().from() + 1);
+            store.store(result);
+            for (Optional<String> booking : result) {
+                booking.ifPresent(checkedIn -> queue.poll());
+            }
+
+            return result;
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    // -------- Private methods, all of them expect the sector lock to be held --------
+
+    private SectorState getSectorState(String sector) {
+        SectorState state = sectors.get(sector);
+        if (state == null) {
+            throw new NoSuchElementException("Sector does not exist");
+        }
+        return state;
+    }
+
+    // Does not need the sector lock
+    private Sector toSector(SectorState state) {
+        PersistentIntMap<CountersRange> published = state.published;
+        List<CountersRange> counters = new ArrayList<>(published.size());
+        for (CountersRange countersRange : published.values()) {
+            counters.add(withQueueSize(countersRange));
+        }
+        return new Sector(state.name, counters);
+    }
+
+    private void publishQueuedAssignments(SectorState state) {
+        state.queuedAssignments = List.copyOf(state.pendingAssignments.assignments());
+    }
+
+    private Optional<CountersRange> findFreeCounterRange(SectorState state, int counterCount) {
+        return state.freeRanges.firstFit(counterCount).map(range -> state.counters.get(range.from()));
+    }
+
+    private void putFreeRange(SectorState state, Range range) {
+        state.counters = state.counters.put(range.from(), new CountersRange(range));
+        state.freeRanges.add(range);
+    }
+
+    private void removeFreeRange(SectorState state, Range range) {
+        state.counters = state.counters.remove(range.from());
+        state.freeRanges.remove(range);
+    }
+
+    // Assignments of different sectors may race for the same flight, only one can claim it
+    private void claimFlights(List<String> flights) throws FlightAlreadyCheckedInException {
+        List<String> claimed = new ArrayList<>();
+        for (String flight : flights) {
+            if (!assignedFlights.add(flight)) {
+                claimed.forEach(assignedFlights::remove);
+                throw new FlightAlreadyCheckedInException("Flight already checked in");
+            }
+            claimed.add(flight);
+        }
+    }
+
+    private Range assignInfoToAvailableCounterRange(
+            SectorState state, Assignment counterAssignment, CountersRange freeRange) {
+        int assignedFrom = freeRange.range().from();
+        int assignedTo = assignedFrom + counterAssignment.counterCount() - 1;
+
+        CountersRange assignedRange =
+                new CountersRange(
+                        new Range(assignedFrom, assignedTo),
+                        new AssignedInfo(counterAssignment.airline(), counterAssignment.flights(), 0));
+
+        removeFreeRange(state, freeRange.range());
+        state.counters = state.counters.put(assignedFrom, assignedRange);
+        if (assignedTo < freeRange.range().to()) {
+            putFreeRange(state, new Range(assignedTo + 1, freeRange.range().to()));
+        }
+
+        CounterQueue queue = new CounterQueue();
+        counterQueues.put(assignedRange.range(), queue);
+        indexAssignedRange(state, assignedRange, queue);
+
+        return assignedRange.range();
+    }
+
+    private CountersRange withQueueSize(CountersRange countersRange) {
+        if (countersRange.assignedInfo().isEmpty()) {
+            return countersRange;
+        }
+
+        return withQueueSize(countersRange, counterQueues.get(countersRange.range()));
+    }
+
+    private CountersRange withQueueSize(CountersRange countersRange, CounterQueue queue) {
+        AssignedInfo assignedInfo = countersRange.assignedInfo().orElseThrow();
+        return new CountersRange(
+                countersRange.range(),
+                new AssignedInfo(
+                        assignedInfo.airline(),
+                        assignedInfo.flights(),
+                        queue == null ? 0 : queue.size()));
+    }
+
+    private void indexAssignedRange(SectorState state, CountersRange countersRange, CounterQueue queue) {
+        AssignedCounters entry = new AssignedCounters(countersRange, state.name, queue);
+        for (String flight : countersRange.assignedInfo().orElseThrow().flights()) {
+            flightCounters.put(flight, entry);
+        }
+    }
+
+    private void unindexAssignedRange(CountersRange countersRange) {
+        for (String flight : countersRange.assignedInfo().orElseThrow().flights()) {
+            flightCounters.remove(flight);
+        }
+        counterQueues.remove(countersRange.range());
+    }
+
+    private void tryPendingAssignments(SectorState state) {
+        boolean assigned = state.pendingAssignments.assignPending(
+                state.freeRanges,
+                assignment -> {
+                    Optional<CountersRange> maybeFreeCounterRange =
+                            findFreeCounterRange(state, assignment.counterCount());
+                    if (maybeFreeCounterRange.isEmpty()) {
+                        return false;
+                    }
+
+                    try {
+                        claimFlights(assignment.flights());
+                    } catch (FlightAlreadyCheckedInException e) {
+                        // Another sector took the flight while it was waiting, it can never be
+                        // assigned here, so it leaves the queue and its airline is told
+                        state.outbox.publish(assignment.getOnDiscarded());
+                        return true;
+                    }
+
+                    Range assignedRange =
+                            assignInfoToAvailableCounterRange(
+                                    state, assignment, maybeFreeCounterRange.get());
+                    state.outbox.publish(() -> assignment.getOnAssigned().accept(assignedRange));
+                    return true;
+                },
+                state.outbox);
+        if (assigned) {
+            publishQueuedAssignments(state);
+        }
+    }
+}
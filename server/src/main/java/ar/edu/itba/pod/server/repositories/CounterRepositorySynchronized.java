@@ -5,6 +5,7 @@ import ar.edu.itba.pod.server.models.*;
 import ar.edu.itba.pod.server.utils.Pair;
 
 import java.util.*;
+import java.util.function.Predicate;
 
 public class CounterRepositorySynchronized implements CounterRepository {
 
@@ -54,6 +55,34 @@ public class CounterRepositorySynchronized implements CounterRepository {
         return Optional.ofNullable(sectors.get(sectorName));
     }
 
+    @Override
+    public synchronized List<Pair<CountersRange, String>> getCountersPage(
+            Optional<String> sectorName, CounterCursor after, int toCounter, int limit) {
+        List<Pair<CountersRange, String>> page = new ArrayList<>();
+        List<String> sectorNames =
+                sectorName.map(List::of).orElseGet(() -> sectors.keySet().stream().sorted().toList());
+
+        for (String name : sectorNames) {
+            Sector sector = sectors.get(name);
+            if (sector == null) {
+                continue;
+            }
+
+            List<CountersRange> countersRanges =
+                    sector.countersRangeList().stream()
+                            .filter(countersRange -> after.isBefore(name, countersRange))
+                            .sorted()
+                            .toList();
+            for (CountersRange countersRange : countersRanges) {
+                if (page.size() == limit || countersRange.range().to() > toCounter) {
+                    return page;
+                }
+                page.add(new Pair<>(countersRange, name));
+            }
+        }
+        return page;
+    }
+
     // -------- Counters --------
 
     @Override
@@ -298,10 +327,14 @@ public class CounterRepositorySynchronized implements CounterRepository {
     }
 
     @Override
-    public int addPassengerToQueue(Range counterRange, String booking)
+    public synchronized int addPassengerToQueue(String sector, Range counterRange, String booking)
             throws AlreadyExistsException, NoSuchElementException {
+        if (!sectors.containsKey(sector)) {
+            throw new NoSuchElementException("Sector does not exist");
+        }
 
-        if (!passengersInCounters.containsKey(counterRange)) {
+        if (!passengersInCounters.containsKey(counterRange)
+                || sectors.get(sector).countersRangeList().stream().noneMatch(c -> c.range().equals(counterRange))) {
             throw new NoSuchElementException("Counter does not exist");
         }
 
@@ -318,10 +351,33 @@ public class CounterRepositorySynchronized implements CounterRepository {
         return passengers.size();
     }
 
+    @Override
+    public synchronized Optional<Pair<Range, Integer>> arrivePassenger(
+            String sector, int firstCounter, String flight, String booking, Predicate<String> checkedIn)
+            throws NoSuchElementException, AlreadyExistsException, PassengerAlreadyCheckedInException {
+        if (!hasSector(sector)) {
+            throw new NoSuchElementException("Sector does not exist");
+        }
+
+        Optional<Pair<CountersRange, String>> assigned = getFlightCountersAndSector(flight);
+        if (assigned.isEmpty()
+                || !assigned.get().second().equals(sector)
+                || assigned.get().first().range().from() != firstCounter) {
+            return Optional.empty();
+        }
+
+        if (checkedIn.test(booking)) {
+            throw new PassengerAlreadyCheckedInException("Passenger already checked in");
+        }
+
+        Range range = assigned.get().first().range();
+        return Optional.of(new Pair<>(range, addPassengerToQueue(sector, range, booking)));
+    }
+
     @Override
     public synchronized List<Optional<String>> checkinCounters(
-            String sector, int counterFrom, String airline)
-            throws NoSuchElementException, UnauthorizedException {
+            String sector, int counterFrom, String airline, CheckinStore store)
+            throws NoSuchElementException, UnauthorizedException, AlreadyExistsException {
 
         if (!hasSector(sector)) {
             throw new NoSuchElementException("Sector does not exist");
@@ -345,14 +401,21 @@ public class CounterRepositorySynchronized implements CounterRepository {
 
         List<Optional<String>> result = new ArrayList<>();
 
+        Iterator<String> queued = passengers.iterator();
         for (int i = 0; i < counter.range().to() + 1 - counter.range().from(); i++) {
-            if (passengers.isEmpty()) {
+            if (!queued.hasNext()) {
                 result.add(Optional.empty());
             } else {
-                result.add(Optional.of(passengers.poll()));
+                result.add(Optional.of(queued.next()));
             }
         }
 
+        // They only leave the queue once they are stored
+        store.store(result);
+        for (Optional<String> booking : result) {
+            booking.ifPresent(checkedIn -> passengers.poll());
+        }
+
         // Set new CountersRange with the updated queue size
         updateCounterRange(counter.range(), passengers.size());
 
@@ -3,6 +3,7 @@ package ar.edu.itba.pod.server.repositories;
 import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
 import ar.edu.itba.pod.server.exceptions.FlightBelongsToOtherAirlineException;
 import ar.edu.itba.pod.server.models.Passenger;
+import ar.edu.itba.pod.server.utils.Pair;
 
 import java.util.List;
 import java.util.Optional;
@@ -16,4 +17,8 @@ public interface PassengerRepository {
     List<Passenger> getPassengers();
 
     void addPassenger(Passenger passenger) throws AlreadyExistsException, FlightBelongsToOtherAirlineException;
+
+    // Adds them one by one, each as addPassenger would. Returns the index in passengers of the ones
+    // that could not be added along with the reason, in insertion order
+    List<Pair<Integer, Exception>> addPassengers(List<Passenger> passengers);
 }
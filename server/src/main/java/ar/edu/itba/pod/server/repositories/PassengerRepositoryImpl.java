@@ -3,24 +3,33 @@ package ar.edu.itba.pod.server.repositories;
 import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
 import ar.edu.itba.pod.server.exceptions.FlightBelongsToOtherAirlineException;
 import ar.edu.itba.pod.server.models.Passenger;
+import ar.edu.itba.pod.server.utils.Pair;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class PassengerRepositoryImpl implements PassengerRepository {
 
     private final Map<String, Passenger> expectedPassengers;
 
+    // A flight belongs to the airline of its first passenger
+    private final Map<String, String> flightAirlines;
+    private final Map<String, LongAdder> airlinePassengerCount;
+
     public PassengerRepositoryImpl() {
         this.expectedPassengers = new ConcurrentHashMap<>();
+        this.flightAirlines = new ConcurrentHashMap<>();
+        this.airlinePassengerCount = new ConcurrentHashMap<>();
     }
 
     @Override
     public boolean hasAirline(String airline) {
-        return expectedPassengers.values().stream()
-                .anyMatch(passenger -> passenger.airline().equals(airline));
+        LongAdder passengerCount = airlinePassengerCount.get(airline);
+        return passengerCount != null && passengerCount.sum() > 0;
     }
 
     @Override
@@ -44,18 +53,48 @@ public class PassengerRepositoryImpl implements PassengerRepository {
             throw new AlreadyExistsException("Passenger already exists");
         }
 
-        if (!flightMatchesAirline(passenger.flight(), passenger.airline())) {
+        // The flight entry is locked while the passenger is inserted, so two airlines can not
+        // claim the same flight and a flight is never claimed without a passenger
+        Passenger[] previousPassenger = new Passenger[1];
+        String flightAirline =
+                flightAirlines.compute(
+                        passenger.flight(),
+                        (flight, currentAirline) -> {
+                            if (currentAirline != null && !currentAirline.equals(passenger.airline())) {
+                                return currentAirline;
+                            }
+
+                            previousPassenger[0] =
+                                    expectedPassengers.putIfAbsent(passenger.booking(), passenger);
+
+                            return previousPassenger[0] == null ? passenger.airline() : currentAirline;
+                        });
+
+        if (previousPassenger[0] != null) {
+            throw new AlreadyExistsException("Passenger already exists");
+        }
+
+        if (!passenger.airline().equals(flightAirline)) {
             throw new FlightBelongsToOtherAirlineException("Flight belongs to another airline");
         }
 
-        expectedPassengers.put(passenger.booking(), passenger);
+        airlinePassengerCount
+                .computeIfAbsent(passenger.airline(), airline -> new LongAdder())
+                .increment();
     }
 
-    // Returns if all passengers that have the same flight as the given airline are from the same airline
-    // If there is another airline that has passengers with the same flight, it returns false
-    private boolean flightMatchesAirline(String flight, String airline) {
-        return expectedPassengers.values().stream()
-                .filter(passenger -> passenger.flight().equals(flight))
-                .allMatch(passenger -> passenger.airline().equals(airline));
+    @Override
+    public List<Pair<Integer, Exception>> addPassengers(List<Passenger> passengers) {
+        List<Pair<Integer, Exception>> failures = new ArrayList<>();
+
+        for (int i = 0; i < passengers.size(); i++) {
+            try {
+                addPassenger(passengers.get(i));
+            } catch (AlreadyExistsException | FlightBelongsToOtherAirlineException e) {
+                failures.add(new Pair<>(i, e));
+            }
+        }
+
+        return failures;
     }
 }
@@ -0,0 +1,108 @@
+package ar.edu.itba.pod.server.repositories;
+
+import ar.edu.itba.pod.server.events.EventOutbox;
+import ar.edu.itba.pod.server.models.Assignment;
+import ar.edu.itba.pod.server.utils.FreeRangeIndex;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * FIFO of the assignments waiting for counters in a sector. It keeps the counter counts of the
+ * waiting assignments, so a pass that can not assign anything is skipped without walking the
+ * queue. Not thread safe, it is guarded by the lock of its sector.
+ */
+final class PendingAssignments {
+
+    private static final class Entry {
+        private final Assignment assignment;
+
+        // Last position reported to the assignment
+        private int position;
+
+        private Entry(Assignment assignment, int position) {
+            this.assignment = assignment;
+            this.position = position;
+        }
+    }
+
+    private List<Entry> entries = new ArrayList<>();
+    private final TreeMap<Integer, Integer> counterCounts = new TreeMap<>();
+    private final Set<String> flights = new HashSet<>();
+
+    /**
+     * @return the assignments ahead of the new one
+     */
+    int add(Assignment assignment) {
+        int position = entries.size();
+        entries.add(new Entry(assignment, position));
+        counterCounts.merge(assignment.counterCount(), 1, Integer::sum);
+        flights.addAll(assignment.flights());
+        return position;
+    }
+
+    boolean containsAnyFlight(List<String> flights) {
+        return flights.stream().anyMatch(this.flights::contains);
+    }
+
+    List<Assignment> assignments() {
+        List<Assignment> assignments = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            assignments.add(entry.assignment);
+        }
+        return assignments;
+    }
+
+    /**
+     * Offers, in queue order, every assignment that fits in the free ranges to tryAssign, which
+     * returns whether the assignment leaves the queue. Afterwards only the assignments whose
+     * position changed are notified, once, with their final position. Notifications are published
+     * to the outbox, to be delivered once the sector lock is released.
+     *
+     * @return whether any assignment left the queue
+     */
+    boolean assignPending(
+            FreeRangeIndex freeRanges, Predicate<Assignment> tryAssign, EventOutbox outbox) {
+        if (entries.isEmpty() || counterCounts.firstKey() > freeRanges.maxLength()) {
+            return false;
+        }
+
+        List<Entry> remaining = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+
+            // Once the free space is smaller than every waiting assignment the rest stays queued
+            if (counterCounts.isEmpty() || counterCounts.firstKey() > freeRanges.maxLength()) {
+                remaining.addAll(entries.subList(i, entries.size()));
+                break;
+            }
+
+            if (entry.assignment.counterCount() <= freeRanges.maxLength()
+                    && tryAssign.test(entry.assignment)) {
+                remove(entry.assignment);
+            } else {
+                remaining.add(entry);
+            }
+        }
+
+        if (remaining.size() == entries.size()) {
+            return false;
+        }
+        entries = remaining;
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.position != i) {
+                int position = i;
+                entry.position = position;
+                outbox.publish(() -> entry.assignment.getOnMoved().accept(position));
+            }
+        }
+        return true;
+    }
+
+    private void remove(Assignment assignment) {
+        counterCounts.computeIfPresent(assignment.counterCount(), (count, times) -> times == 1 ? null : times - 1);
+        assignment.flights().forEach(flights::remove);
+    }
+}
@@ -8,6 +8,7 @@ import ar.edu.itba.pod.server.models.Passenger;
 import ar.edu.itba.pod.server.models.Range;
 import ar.edu.itba.pod.server.repositories.CounterRepository;
 import ar.edu.itba.pod.server.repositories.PassengerRepository;
+import ar.edu.itba.pod.server.utils.Pair;
 
 import com.google.protobuf.Empty;
 
@@ -17,6 +18,8 @@ import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 public class AdminService extends AdminServiceGrpc.AdminServiceImplBase {
@@ -180,4 +183,99 @@ public class AdminService extends AdminServiceGrpc.AdminServiceImplBase {
         responseObserver.onNext(Empty.getDefaultInstance());
         responseObserver.onCompleted();
     }
+
+    @Override
+    public StreamObserver<AddPassengersRequest> addPassengers(
+            StreamObserver<AddPassengersResponse> responseObserver) {
+
+        logger.debug("(adminService/addPassengers) received request to add passengers");
+
+        return new StreamObserver<>() {
+            @Override
+            public void onNext(AddPassengersRequest request) {
+                AddPassengersResponse.Builder responseBuilder = AddPassengersResponse.newBuilder();
+                List<Passenger> passengers = new ArrayList<>(request.getPassengersCount());
+                List<Integer> indexes = new ArrayList<>(request.getPassengersCount());
+
+                for (int i = 0; i < request.getPassengersCount(); i++) {
+                    AddPassengerRequest passengerRequest = request.getPassengers(i);
+
+                    if (passengerRequest.getBooking().isEmpty()
+                            || passengerRequest.getAirline().isEmpty()
+                            || passengerRequest.getFlight().isEmpty()) {
+
+                        responseBuilder.addFailures(
+                                AddPassengerFailure.newBuilder()
+                                        .setPassenger(passengerRequest)
+                                        .setIndex(i)
+                                        .setReason(
+                                                AddPassengerFailureReason
+                                                        .ADD_PASSENGER_FAILURE_REASON_INVALID_ARGUMENT)
+                                        .setDescription(
+                                                "Booking, airline and flight must be provided."));
+                        continue;
+                    }
+
+                    passengers.add(
+                            new Passenger(
+                                    passengerRequest.getBooking(),
+                                    passengerRequest.getFlight(),
+                                    passengerRequest.getAirline()));
+                    indexes.add(i);
+                }
+
+                List<Pair<Integer, Exception>> failures =
+                        passengerRepository.addPassengers(passengers);
+
+                for (Pair<Integer, Exception> failure : failures) {
+                    // Index in passengers, which skips the invalid ones of the request
+                    int position = failure.first();
+
+                    AddPassengerFailure.Builder failureBuilder =
+                            AddPassengerFailure.newBuilder()
+                                    .setPassenger(request.getPassengers(indexes.get(position)))
+                                    .setIndex(indexes.get(position));
+
+                    if (failure.second() instanceof FlightBelongsToOtherAirlineException) {
+                        failureBuilder
+                                .setReason(
+                                        AddPassengerFailureReason
+                                                .ADD_PASSENGER_FAILURE_REASON_FLIGHT_BELONGS_TO_OTHER_AIRLINE)
+                                .setDescription("Flight belongs to another airline");
+                    } else {
+                        failureBuilder
+                                .setReason(
+                                        AddPassengerFailureReason
+                                                .ADD_PASSENGER_FAILURE_REASON_ALREADY_EXISTS)
+                                .setDescription("This passenger was already added");
+                    }
+
+                    responseBuilder.addFailures(failureBuilder);
+                }
+
+                responseBuilder.setAddedPassengers(passengers.size() - failures.size());
+
+                logger.debug(
+                        "(adminService/addPassengers) added {} passengers, {} failed",
+                        responseBuilder.getAddedPassengers(),
+                        responseBuilder.getFailuresCount());
+
+                responseObserver.onNext(responseBuilder.build());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                logger.debug(
+                        "(adminService/addPassengers) client cancelled the request: {}",
+                        Status.fromThrowable(throwable).getDescription());
+            }
+
+            @Override
+            public void onCompleted() {
+                responseObserver.onCompleted();
+
+                logger.debug("(adminService/addPassengers) request completed successfully");
+            }
+        };
+    }
 }
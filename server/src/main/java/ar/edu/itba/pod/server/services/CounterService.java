@@ -19,6 +19,7 @@ import io.grpc.stub.StreamObserver;
 import java.util.*;
 import java.util.stream.Collectors;
 
+import static ar.edu.itba.pod.grpc.events.EventType.EVENT_TYPE_ASSIGNATION_DISCARDED;
 import static ar.edu.itba.pod.grpc.events.EventType.EVENT_TYPE_COUNTERS_ASSIGNED;
 import static ar.edu.itba.pod.grpc.events.EventType.EVENT_TYPE_MOVED_IN_ASSIGNATION_QUEUE;
 
@@ -108,9 +109,29 @@ public class CounterService extends CounterServiceGrpc.CounterServiceImplBase {
             return;
         }
 
+        // The whole batch is resolved first and stored at once, before the passengers leave the
+        // queue. If it can not be stored they stay queued. Passengers that were queued again after
+        // checking in are not part of it, they just leave the queue
+        List<Checkin> checkins = new ArrayList<>();
         List<Optional<String>> checkedInBookings;
         try {
-            checkedInBookings = counterRepository.checkinCounters(sectorName, counterFrom, airline);
+            checkedInBookings =
+                    counterRepository.checkinCounters(
+                            sectorName,
+                            counterFrom,
+                            airline,
+                            bookings -> {
+                                List<Checkin> batch =
+                                        CheckinRepository.checkinsOf(
+                                                sectorName,
+                                                counterFrom,
+                                                airline,
+                                                bookings,
+                                                passengerRepository,
+                                                checkinRepository);
+                                checkinRepository.addCheckins(batch);
+                                checkins.addAll(batch);
+                            });
         } catch (NoSuchElementException e) {
             responseObserver.onError(
                     Status.NOT_FOUND
@@ -123,35 +144,15 @@ public class CounterService extends CounterServiceGrpc.CounterServiceImplBase {
                             .withDescription("Counters are not assigned to the given airline")
                             .asRuntimeException());
             return;
+        } catch (AlreadyExistsException e) {
+            responseObserver.onError(
+                    Status.INTERNAL
+                            .withDescription("A passenger in the queue is already checked in")
+                            .asRuntimeException());
+            return;
         }
 
-        List<Checkin> checkins = new ArrayList<>();
-
-        int idleCounters = 0;
-        for (int i = 0; i < checkedInBookings.size(); i++) {
-            Optional<String> maybeBooking = checkedInBookings.get(i);
-            if (maybeBooking.isEmpty()) {
-                idleCounters++;
-                continue;
-            }
-
-            String booking = maybeBooking.get();
-
-            // Get flight from booking
-            Passenger passenger = passengerRepository.getPassenger(booking).orElseThrow(IllegalStateException::new);
-            String flight = passenger.flight();
-
-            checkins.add(new Checkin(sectorName, counterFrom + i, airline, flight, booking));
-        }
-
-        // Add checkins to checkin repository
-        for (Checkin checkin : checkins) {
-            try{
-                checkinRepository.addCheckin(checkin);
-            } catch (AlreadyExistsException e) {
-                throw new IllegalStateException("Checkin already exists");
-            }
-        }
+        int idleCounters = (int) checkedInBookings.stream().filter(Optional::isEmpty).count();
 
         // Notify event manager
         List<RegisterResponse> checkInEvents =
@@ -171,9 +172,7 @@ public class CounterService extends CounterServiceGrpc.CounterServiceImplBase {
                                                 .build())
                         .toList();
 
-        for (RegisterResponse checkInEvent : checkInEvents) {
-            eventManager.notify(airline, checkInEvent);
-        }
+        eventManager.notifyAll(airline, checkInEvents);
 
         CheckinCountersResponse response =
                 CheckinCountersResponse.newBuilder()
@@ -384,6 +383,20 @@ public class CounterService extends CounterServiceGrpc.CounterServiceImplBase {
                                         .setCountersAssignedInfo(countersAssignedInfo)
                                         .build();
                                 eventManager.notify(counterAssignment.getAirline(), response);
+                            },
+                            () -> {
+                                AssignationDiscardedInfo assignationDiscardedInfo = AssignationDiscardedInfo
+                                        .newBuilder()
+                                        .setSectorName(sectorName)
+                                        .addAllFlights(counterAssignment.getFlightsList())
+                                        .setCounterCount(counterAssignment.getCounterCount())
+                                        .build();
+                                RegisterResponse response = RegisterResponse
+                                        .newBuilder()
+                                        .setEventType(EVENT_TYPE_ASSIGNATION_DISCARDED)
+                                        .setAssignationDiscardedInfo(assignationDiscardedInfo)
+                                        .build();
+                                eventManager.notify(counterAssignment.getAirline(), response);
                             }
                     );
             assignedCounterRangeOrQueuedAssignments =
@@ -488,6 +501,11 @@ public class CounterService extends CounterServiceGrpc.CounterServiceImplBase {
             return;
         }
 
+        if (request.getPageSize() != 0) {
+            listCountersPage(request, responseObserver);
+            return;
+        }
+
         Optional<Sector> maybeSector = counterRepository.getSector(sectorName);
 
         if (maybeSector.isEmpty()) {
@@ -530,6 +548,79 @@ public class CounterService extends CounterServiceGrpc.CounterServiceImplBase {
         responseObserver.onCompleted();
     }
 
+    private void listCountersPage(
+            ListCountersRequest request, StreamObserver<ListCountersResponse> responseObserver) {
+
+        String sectorName = request.getSectorName();
+        CounterRange counterRange = request.getCounterRange();
+
+        CounterCursor after;
+        try {
+            after = CounterCursor.fromPageToken(request.getPageToken());
+        } catch (IllegalArgumentException e) {
+            after = null;
+        }
+
+        // A token of another sector was not given for this request
+        if (request.getPageSize() < 0
+                || after == null
+                || !(after.equals(CounterCursor.START) || after.sector().equals(sectorName))) {
+            responseObserver.onError(
+                    io.grpc.Status.INVALID_ARGUMENT
+                            .withDescription("Page size must not be negative and page token must come from a previous page")
+                            .asRuntimeException());
+            return;
+        }
+
+        if (!counterRepository.hasSector(sectorName)) {
+            responseObserver.onError(
+                    io.grpc.Status.NOT_FOUND
+                            .withDescription("Sector not found")
+                            .asRuntimeException());
+            return;
+        }
+
+        // The first page starts right before the range, later ones after the last counter sent
+        CounterCursor from = new CounterCursor(sectorName, Math.max(after.counter(), counterRange.getFrom() - 1));
+        int pageSize = Math.min(request.getPageSize(), CounterCursor.MAX_PAGE_SIZE);
+
+        // One more than the page size, to know whether there is a next page
+        List<Pair<CountersRange, String>> page =
+                counterRepository.getCountersPage(
+                        Optional.of(sectorName), from, counterRange.getTo(), pageSize + 1);
+
+        ListCountersResponse.Builder responseBuilder = ListCountersResponse.newBuilder();
+        for (Pair<CountersRange, String> entry : page.subList(0, Math.min(pageSize, page.size()))) {
+            CountersRange countersRange = entry.first();
+            CounterInfo.Builder counterInfoBuilder =
+                    CounterInfo.newBuilder()
+                            .setCounterRange(
+                                    CounterRange.newBuilder()
+                                            .setFrom(countersRange.range().from())
+                                            .setTo(countersRange.range().to())
+                                            .build());
+
+            countersRange
+                    .assignedInfo()
+                    .ifPresent(
+                            info ->
+                                    counterInfoBuilder
+                                            .setAssignedAirline(info.airline())
+                                            .addAllAssignedFlights(info.flights())
+                                            .setPassengersInQueue(info.passengersInQueue()));
+
+            responseBuilder.addCounters(counterInfoBuilder.build());
+        }
+
+        if (page.size() > pageSize) {
+            Pair<CountersRange, String> last = page.get(pageSize - 1);
+            responseBuilder.setNextPageToken(CounterCursor.after(last.second(), last.first()).toPageToken());
+        }
+
+        responseObserver.onNext(responseBuilder.build());
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void listSectors(Empty request, StreamObserver<ListSectorsResponse> responseObserver) {
         ListSectorsResponse.Builder responseBuilder = ListSectorsResponse.newBuilder();
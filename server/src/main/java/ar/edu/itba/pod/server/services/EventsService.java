@@ -1,23 +1,44 @@
 package ar.edu.itba.pod.server.services;
 
 import ar.edu.itba.pod.grpc.events.*;
+import ar.edu.itba.pod.server.events.EventFilter;
 import ar.edu.itba.pod.server.events.EventManager;
+import ar.edu.itba.pod.server.events.SubscriptionOptions;
 import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
+import ar.edu.itba.pod.server.exceptions.SequenceNotAvailableException;
 import ar.edu.itba.pod.server.repositories.PassengerRepository;
 
 import com.google.protobuf.Empty;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.HashSet;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 public class EventsService extends EventsServiceGrpc.EventsServiceImplBase {
 
     private static final Logger logger = LoggerFactory.getLogger(EventsService.class);
 
+    // Used when coalescing is requested without a window
+    private static final Duration DEFAULT_COALESCE_WINDOW = Duration.ofMillis(100);
+
+    private static final Set<EventType> FILTERABLE_EVENT_TYPES =
+            Set.of(
+                    EventType.EVENT_TYPE_COUNTERS_ASSIGNED,
+                    EventType.EVENT_TYPE_COUNTERS_FREED,
+                    EventType.EVENT_TYPE_PASSENGER_ARRIVED,
+                    EventType.EVENT_TYPE_PASSENGER_CHECKED_IN,
+                    EventType.EVENT_TYPE_ASSIGNATION_PENDING,
+                    EventType.EVENT_TYPE_MOVED_IN_ASSIGNATION_QUEUE,
+                    EventType.EVENT_TYPE_ASSIGNATION_DISCARDED);
+
     private final PassengerRepository passengerRepository;
 
     private final EventManager eventManager;
@@ -27,6 +48,37 @@ public class EventsService extends EventsServiceGrpc.EventsServiceImplBase {
         this.eventManager = eventManager;
     }
 
+    /**
+     * Same as bindService, but the Register streams share the serialization of each event, see
+     * SharedEventMarshaller.
+     */
+    public ServerServiceDefinition bindWithSharedSerialization() {
+        ServerServiceDefinition definition = bindService();
+        ServerServiceDefinition.Builder builder =
+                ServerServiceDefinition.builder(EventsServiceGrpc.SERVICE_NAME);
+
+        for (ServerMethodDefinition<?, ?> method : definition.getMethods()) {
+            if (!method.getMethodDescriptor()
+                    .getFullMethodName()
+                    .equals(EventsServiceGrpc.getRegisterMethod().getFullMethodName())) {
+                builder.addMethod(method);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        ServerMethodDefinition<RegisterRequest, RegisterResponse> register =
+                (ServerMethodDefinition<RegisterRequest, RegisterResponse>)
+                        definition.getMethod(
+                                EventsServiceGrpc.getRegisterMethod().getFullMethodName());
+        builder.addMethod(
+                EventsServiceGrpc.getRegisterMethod().toBuilder()
+                        .setResponseMarshaller(new SharedEventMarshaller())
+                        .build(),
+                register.getServerCallHandler());
+
+        return builder.build();
+    }
+
     @Override
     public void unregister(
             UnregisterRequest request, StreamObserver<Empty> responseObserver) {
@@ -89,6 +141,58 @@ public class EventsService extends EventsServiceGrpc.EventsServiceImplBase {
             return;
         }
 
+        if (request.getCoalesceWindowMillis() < 0) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription("The coalesce window can not be negative")
+                            .asRuntimeException());
+
+            logger.debug("(eventsService/register) request failed: negative coalesce window");
+
+            return;
+        }
+
+        if (request.getResumeFromSequence() < 0) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription("The sequence to resume from can not be negative")
+                            .asRuntimeException());
+
+            logger.debug("(eventsService/register) request failed: negative resume sequence");
+
+            return;
+        }
+
+        Set<EventType> eventTypes = new HashSet<>(request.getEventTypesList());
+        if (!FILTERABLE_EVENT_TYPES.containsAll(eventTypes)) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription("Only notified event types can be filtered")
+                            .asRuntimeException());
+
+            logger.debug("(eventsService/register) request failed: invalid event type filter");
+
+            return;
+        }
+
+        Duration coalesceWindow = Duration.ZERO;
+        if (request.getCoalesce()) {
+            coalesceWindow =
+                    request.getCoalesceWindowMillis() == 0
+                            ? DEFAULT_COALESCE_WINDOW
+                            : Duration.ofMillis(request.getCoalesceWindowMillis());
+        }
+        EventFilter filter =
+                new EventFilter(
+                        eventTypes,
+                        Set.copyOf(request.getFlightsList()),
+                        Set.copyOf(request.getSectorsList()));
+        SubscriptionOptions options =
+                new SubscriptionOptions(
+                        coalesceWindow,
+                        request.getResumeFromSequence(),
+                        filter.equals(EventFilter.ALL) ? EventFilter.ALL : filter);
+
         logger.debug(
                 "(eventsService/register) checking if airline {} has expected passengers", airline);
 
@@ -107,12 +211,8 @@ public class EventsService extends EventsServiceGrpc.EventsServiceImplBase {
         }
 
         try {
-            eventManager.register(airline, responseObserver);
-
-            responseObserver.onNext(
-                    RegisterResponse.newBuilder()
-                            .setEventType(EventType.EVENT_TYPE_AIRLINE_REGISTERED)
-                            .build());
+            // The manager sends EVENT_TYPE_AIRLINE_REGISTERED before any other event
+            eventManager.register(airline, responseObserver, options);
 
             logger.debug("(eventsService/register) registered airline {}", airline);
         } catch (AlreadyExistsException e) {
@@ -125,6 +225,16 @@ public class EventsService extends EventsServiceGrpc.EventsServiceImplBase {
                     "(eventsService/register) request failed: airline {} is already registered",
                     airline);
 
+            return;
+        } catch (SequenceNotAvailableException e) {
+            responseObserver.onError(
+                    Status.OUT_OF_RANGE.withDescription(e.getMessage()).asRuntimeException());
+
+            logger.debug(
+                    "(eventsService/register) request failed: airline {} can not resume from {}",
+                    airline,
+                    request.getResumeFromSequence());
+
             return;
         }
 
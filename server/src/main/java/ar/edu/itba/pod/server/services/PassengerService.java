@@ -7,6 +7,7 @@ import ar.edu.itba.pod.grpc.events.RegisterResponse;
 import ar.edu.itba.pod.grpc.passenger.*;
 import ar.edu.itba.pod.server.events.EventManager;
 import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
+import ar.edu.itba.pod.server.exceptions.PassengerAlreadyCheckedInException;
 import ar.edu.itba.pod.server.models.*;
 import ar.edu.itba.pod.server.repositories.CheckinRepository;
 import ar.edu.itba.pod.server.repositories.CounterRepository;
@@ -19,6 +20,7 @@ import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.NoSuchElementException;
 import java.util.Optional;
 
 public class PassengerService extends PassengerServiceGrpc.PassengerServiceImplBase {
@@ -179,7 +181,18 @@ public class PassengerService extends PassengerServiceGrpc.PassengerServiceImplB
 
         Passenger passenger = possiblePassenger.get();
 
-        if (!counterRepository.hasSector(sector)) {
+        logger.debug(
+                "(passengerService/passengerCheckin) enqueueing passenger {} for flight {}",
+                booking,
+                passenger.flight());
+
+        Optional<Pair<Range, Integer>> possibleArrival;
+
+        try {
+            possibleArrival =
+                    counterRepository.arrivePassenger(
+                            sector, firstCounter, passenger.flight(), booking, checkinRepository::hasCheckin);
+        } catch (NoSuchElementException exception) {
             responseObserver.onError(
                     Status.NOT_FOUND
                             .withDescription("Provided sector does not exist")
@@ -190,60 +203,46 @@ public class PassengerService extends PassengerServiceGrpc.PassengerServiceImplB
                     sector);
 
             return;
-        }
-
-        logger.debug(
-                "(passengerService/passengerCheckin) fetching counters for flight {}",
-                passenger.flight());
-        Optional<CountersRange> possibleAssignedCounters =
-                counterRepository.getFlightCounters(passenger.flight());
-
-        if (possibleAssignedCounters.isEmpty()
-                || possibleAssignedCounters.get().range().from() != firstCounter) {
+        } catch (PassengerAlreadyCheckedInException exception) {
             responseObserver.onError(
-                    Status.NOT_FOUND
-                            .withDescription(
-                                    "The indicated does not exist or it is not accepting checkins for the booking flight")
+                    Status.ALREADY_EXISTS
+                            .withDescription("Passenger has already completed checkin")
                             .asRuntimeException());
 
             logger.debug(
-                    "(passengerService/passengerCheckin) passenger checkin request failed: counter {} does not exist or is not accepting checkins for flight {}",
-                    firstCounter,
-                    passenger.flight());
+                    "(passengerService/passengerCheckin) passenger checkin request failed: passenger has already completed checkin");
 
             return;
-        }
-
-        Range assignedCounters = possibleAssignedCounters.get().range();
-
-        if (checkinRepository.hasCheckin(booking)) {
+        } catch (AlreadyExistsException exception) {
             responseObserver.onError(
                     Status.ALREADY_EXISTS
-                            .withDescription("Passenger has already completed checkin")
+                            .withDescription("Passenger is already waiting in counter queue")
                             .asRuntimeException());
 
             logger.debug(
-                    "(passengerService/passengerCheckin) passenger checkin request failed: passenger has already completed checkin");
+                    "(passengerService/passengerCheckin) passenger checkin request failed: passenger is already waiting in counter queue");
 
             return;
         }
 
-        int passengersInQueue;
-
-        try {
-            passengersInQueue = counterRepository.addPassengerToQueue(assignedCounters, booking);
-        } catch (AlreadyExistsException exception) {
+        if (possibleArrival.isEmpty()) {
             responseObserver.onError(
-                    Status.ALREADY_EXISTS
-                            .withDescription("Passenger is already waiting in counter queue")
+                    Status.NOT_FOUND
+                            .withDescription(
+                                    "The indicated does not exist or it is not accepting checkins for the booking flight")
                             .asRuntimeException());
 
             logger.debug(
-                    "(passengerService/passengerCheckin) passenger checkin request failed: passenger is already waiting in counter queue");
+                    "(passengerService/passengerCheckin) passenger checkin request failed: counter {} does not exist or is not accepting checkins for flight {}",
+                    firstCounter,
+                    passenger.flight());
 
             return;
         }
 
+        Range assignedCounters = possibleArrival.get().first();
+        int passengersInQueue = possibleArrival.get().second();
+
         logger.debug(
                 "(passengerService/passengerCheckin) passenger {} added to counter queue {}",
                 booking,
@@ -3,25 +3,31 @@ package ar.edu.itba.pod.server.services;
 import ar.edu.itba.pod.grpc.common.CounterRange;
 import ar.edu.itba.pod.grpc.query.*;
 import ar.edu.itba.pod.server.models.Checkin;
+import ar.edu.itba.pod.server.models.CounterCursor;
 import ar.edu.itba.pod.server.models.CountersRange;
 import ar.edu.itba.pod.server.models.Sector;
 import ar.edu.itba.pod.server.repositories.CheckinRepository;
 import ar.edu.itba.pod.server.repositories.CounterRepository;
+import ar.edu.itba.pod.server.utils.Pair;
 
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
-import java.util.function.Predicate;
 
 public class QueryService extends QueryServiceGrpc.QueryServiceImplBase {
 
     private static final Logger logger = LoggerFactory.getLogger(QueryService.class);
 
+    // Checkins per message of StreamCheckins
+    static final int CHECKINS_CHUNK_SIZE = 500;
+
     private final CounterRepository counterRepository;
     private final CheckinRepository checkinRepository;
 
@@ -50,32 +56,29 @@ public class QueryService extends QueryServiceGrpc.QueryServiceImplBase {
         String sector = request.getSectorName();
         String airline = request.getAirline();
 
-        Predicate<Checkin> predicate = checkin -> true;
+        List<Checkin> matchingCheckins;
 
-        if (!sector.isEmpty()) {
-            predicate = predicate.and(checkin -> checkin.sector().equals(sector));
+        if (!sector.isEmpty() && !airline.isEmpty()) {
+            matchingCheckins = checkinRepository.getCheckinsBySectorAndAirline(sector, airline);
 
-            logger.debug("(queryService/checkins) filtering checkins by sector: {}", sector);
-        }
+            logger.debug(
+                    "(queryService/checkins) filtering checkins by sector: {} and airline: {}",
+                    sector,
+                    airline);
+        } else if (!sector.isEmpty()) {
+            matchingCheckins = checkinRepository.getCheckinsBySector(sector);
 
-        if (!airline.isEmpty()) {
-            predicate = predicate.and(checkin -> checkin.airline().equals(airline));
+            logger.debug("(queryService/checkins) filtering checkins by sector: {}", sector);
+        } else if (!airline.isEmpty()) {
+            matchingCheckins = checkinRepository.getCheckinsByAirline(airline);
 
             logger.debug("(queryService/checkins) filtering checkins by airline: {}", airline);
+        } else {
+            matchingCheckins = checkinRepository.getCheckins();
         }
 
         List<CheckinInfo> checkins =
-                checkinRepository.getCheckins(predicate).stream()
-                        .map(
-                                checkin ->
-                                        CheckinInfo.newBuilder()
-                                                .setSectorName(checkin.sector())
-                                                .setCounter(checkin.counter())
-                                                .setAirline(checkin.airline())
-                                                .setFlight(checkin.flight())
-                                                .setBooking(checkin.booking())
-                                                .build())
-                        .toList();
+                matchingCheckins.stream().map(QueryService::toCheckinInfo).toList();
 
         CheckinsResponse response = CheckinsResponse.newBuilder().addAllCheckins(checkins).build();
 
@@ -85,6 +88,95 @@ public class QueryService extends QueryServiceGrpc.QueryServiceImplBase {
         logger.debug("(queryService/checkins) checkins request completed successfully");
     }
 
+    @Override
+    public void streamCheckins(
+            CheckinsRequest request, StreamObserver<CheckinsResponse> responseObserver) {
+
+        logger.debug("(queryService/streamCheckins) received request");
+
+        if (!checkinRepository.hasCheckins()) {
+            responseObserver.onError(
+                    Status.NOT_FOUND
+                            .withDescription("No checkins have been registered")
+                            .asRuntimeException());
+
+            logger.debug(
+                    "(queryService/streamCheckins) request failed: no checkins have been registered");
+
+            return;
+        }
+
+        String sector = request.getSectorName();
+        String airline = request.getAirline();
+
+        Iterator<Checkin> matchingCheckins;
+
+        if (!sector.isEmpty() && !airline.isEmpty()) {
+            matchingCheckins = checkinRepository.iterateCheckinsBySectorAndAirline(sector, airline);
+        } else if (!sector.isEmpty()) {
+            matchingCheckins = checkinRepository.iterateCheckinsBySector(sector);
+        } else if (!airline.isEmpty()) {
+            matchingCheckins = checkinRepository.iterateCheckinsByAirline(airline);
+        } else {
+            matchingCheckins = checkinRepository.iterateCheckins();
+        }
+
+        logger.debug(
+                "(queryService/streamCheckins) streaming checkins, sector: {}, airline: {}",
+                sector,
+                airline);
+
+        // Chunks are built only while the transport is ready, so at most one is held in memory
+        // per call no matter how many checkins match. The onReady handler and this method run
+        // serialized by gRPC.
+        ServerCallStreamObserver<CheckinsResponse> serverObserver =
+                (ServerCallStreamObserver<CheckinsResponse>) responseObserver;
+        boolean[] completed = {false};
+
+        Runnable sendChunks =
+                () -> {
+                    while (!completed[0] && serverObserver.isReady()) {
+                        if (serverObserver.isCancelled()) {
+                            completed[0] = true;
+                            logger.debug("(queryService/streamCheckins) request cancelled");
+                            return;
+                        }
+
+                        CheckinsResponse.Builder chunk = CheckinsResponse.newBuilder();
+                        while (chunk.getCheckinsCount() < CHECKINS_CHUNK_SIZE
+                                && matchingCheckins.hasNext()) {
+                            chunk.addCheckins(toCheckinInfo(matchingCheckins.next()));
+                        }
+
+                        if (chunk.getCheckinsCount() > 0) {
+                            serverObserver.onNext(chunk.build());
+                        }
+
+                        if (!matchingCheckins.hasNext()) {
+                            completed[0] = true;
+                            serverObserver.onCompleted();
+
+                            logger.debug(
+                                    "(queryService/streamCheckins) request completed successfully");
+                        }
+                    }
+                };
+
+        serverObserver.setOnCancelHandler(() -> completed[0] = true);
+        serverObserver.setOnReadyHandler(sendChunks);
+        sendChunks.run();
+    }
+
+    private static CheckinInfo toCheckinInfo(Checkin checkin) {
+        return CheckinInfo.newBuilder()
+                .setSectorName(checkin.sector())
+                .setCounter(checkin.counter())
+                .setAirline(checkin.airline())
+                .setFlight(checkin.flight())
+                .setBooking(checkin.booking())
+                .build();
+    }
+
     @Override
     public void counters(
             CountersRequest request, StreamObserver<CountersResponse> responseObserver) {
@@ -104,6 +196,11 @@ public class QueryService extends QueryServiceGrpc.QueryServiceImplBase {
 
         String sectorName = request.getSectorName();
 
+        if (request.getPageSize() != 0) {
+            countersPage(request, responseObserver);
+            return;
+        }
+
         List<Sector> sectors = new ArrayList<>();
 
         if (!sectorName.isEmpty()) {
@@ -133,6 +230,51 @@ public class QueryService extends QueryServiceGrpc.QueryServiceImplBase {
         logger.debug("(queryService/counters) counters request completed successfully");
     }
 
+    private void countersPage(
+            CountersRequest request, StreamObserver<CountersResponse> responseObserver) {
+
+        CounterCursor after;
+        try {
+            after = CounterCursor.fromPageToken(request.getPageToken());
+        } catch (IllegalArgumentException e) {
+            after = null;
+        }
+
+        if (request.getPageSize() < 0 || after == null) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription("Page size must not be negative and page token must come from a previous page")
+                            .asRuntimeException());
+
+            logger.debug("(queryService/counters) counters request failed: invalid page");
+
+            return;
+        }
+
+        Optional<String> sectorName =
+                request.getSectorName().isEmpty() ? Optional.empty() : Optional.of(request.getSectorName());
+        int pageSize = Math.min(request.getPageSize(), CounterCursor.MAX_PAGE_SIZE);
+
+        // One more than the page size, to know whether there is a next page
+        List<Pair<CountersRange, String>> page =
+                counterRepository.getCountersPage(sectorName, after, Integer.MAX_VALUE, pageSize + 1);
+
+        CountersResponse.Builder responseBuilder = CountersResponse.newBuilder();
+        for (Pair<CountersRange, String> entry : page.subList(0, Math.min(pageSize, page.size()))) {
+            responseBuilder.addCounters(mapCountersRangeToCountersInfo(entry.first(), entry.second()));
+        }
+
+        if (page.size() > pageSize) {
+            Pair<CountersRange, String> last = page.get(pageSize - 1);
+            responseBuilder.setNextPageToken(CounterCursor.after(last.second(), last.first()).toPageToken());
+        }
+
+        responseObserver.onNext(responseBuilder.build());
+        responseObserver.onCompleted();
+
+        logger.debug("(queryService/counters) counters page completed successfully");
+    }
+
     private CountersInfo mapCountersRangeToCountersInfo(CountersRange countersRange, String sectorName) {
         CountersInfo.Builder countersInfoBuilder =
                 CountersInfo.newBuilder()
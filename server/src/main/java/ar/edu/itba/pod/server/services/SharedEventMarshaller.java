@@ -0,0 +1,37 @@
+package ar.edu.itba.pod.server.services;
+
+import ar.edu.itba.pod.grpc.events.RegisterResponse;
+import ar.edu.itba.pod.server.events.PublishedEvent;
+
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Response marshaller of the Register streams. Every subscriber of an airline is written the same
+ * PublishedEvent, which keeps the bytes of its first serialization for the rest.
+ */
+final class SharedEventMarshaller implements MethodDescriptor.Marshaller<RegisterResponse> {
+
+    private static final class SerializedEvent extends ByteArrayInputStream implements KnownLength {
+        private SerializedEvent(byte[] bytes) {
+            super(bytes);
+        }
+    }
+
+    private final MethodDescriptor.Marshaller<RegisterResponse> delegate =
+            ProtoUtils.marshaller(RegisterResponse.getDefaultInstance());
+
+    @Override
+    public InputStream stream(RegisterResponse value) {
+        return new SerializedEvent(PublishedEvent.serialized(value));
+    }
+
+    @Override
+    public RegisterResponse parse(InputStream stream) {
+        return delegate.parse(stream);
+    }
+}
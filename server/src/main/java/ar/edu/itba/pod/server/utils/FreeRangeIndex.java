@@ -0,0 +1,121 @@
+package ar.edu.itba.pod.server.utils;
+
+import ar.edu.itba.pod.server.models.Range;
+
+import java.util.Optional;
+import java.util.SplittableRandom;
+
+/**
+ * Index of disjoint free ranges that answers first-fit queries (the lowest range with at least
+ * n counters) in O(log n). It is a treap ordered by the start of the range, where every node
+ * also keeps the length of the longest range of its subtree. Not thread safe.
+ */
+public class FreeRangeIndex {
+
+    private static final class Node {
+        private final Range range;
+        private final int priority;
+        private int maxLength;
+        private Node left;
+        private Node right;
+
+        private Node(Range range, int priority) {
+            this.range = range;
+            this.priority = priority;
+            this.maxLength = length(range);
+        }
+    }
+
+    private final SplittableRandom random = new SplittableRandom();
+    private Node root;
+    private int size;
+
+    public void add(Range range) {
+        Node[] parts = split(root, range.from());
+        root = merge(merge(parts[0], new Node(range, random.nextInt())), parts[1]);
+        size++;
+    }
+
+    public void remove(Range range) {
+        Node[] lower = split(root, range.from());
+        Node[] upper = split(lower[1], range.from() + 1);
+        if (upper[0] != null) {
+            size--;
+        }
+        root = merge(lower[0], upper[1]);
+    }
+
+    public Optional<Range> firstFit(int length) {
+        Node node = root;
+        while (node != null && node.maxLength >= length) {
+            if (maxLength(node.left) >= length) {
+                node = node.left;
+            } else if (length(node.range) >= length) {
+                return Optional.of(node.range);
+            } else {
+                node = node.right;
+            }
+        }
+        return Optional.empty();
+    }
+
+    public int maxLength() {
+        return maxLength(root);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Splits the tree into the ranges starting before from and the rest
+    private static Node[] split(Node node, int from) {
+        if (node == null) {
+            return new Node[] {null, null};
+        }
+
+        if (node.range.from() < from) {
+            Node[] parts = split(node.right, from);
+            node.right = parts[0];
+            update(node);
+            return new Node[] {node, parts[1]};
+        }
+
+        Node[] parts = split(node.left, from);
+        node.left = parts[1];
+        update(node);
+        return new Node[] {parts[0], node};
+    }
+
+    // Every range of left must start before the ranges of right
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private static void update(Node node) {
+        node.maxLength =
+                Math.max(length(node.range), Math.max(maxLength(node.left), maxLength(node.right)));
+    }
+
+    private static int maxLength(Node node) {
+        return node == null ? 0 : node.maxLength;
+    }
+
+    private static int length(Range range) {
+        return range.to() - range.from() + 1;
+    }
+}
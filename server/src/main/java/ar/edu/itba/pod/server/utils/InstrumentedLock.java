@@ -0,0 +1,105 @@
+package ar.edu.itba.pod.server.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Lock decorator that records how long threads wait to acquire it. Wait times are kept in power
+ * of two buckets, so percentiles are approximated by the upper bound of their bucket.
+ */
+public class InstrumentedLock implements Lock {
+
+    public record Stats(long acquisitions, long totalWaitNanos, long maxWaitNanos, long p99WaitNanos) {}
+
+    private static final int BUCKETS = 64;
+
+    private final Lock lock;
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] waitHistogram = new LongAdder[BUCKETS];
+
+    public InstrumentedLock(Lock lock) {
+        this.lock = lock;
+        for (int i = 0; i < BUCKETS; i++) {
+            waitHistogram[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void lock() {
+        long start = System.nanoTime();
+        lock.lock();
+        record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lockInterruptibly();
+        record(System.nanoTime() - start);
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        record(0);
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        if (!lock.tryLock(time, unit)) {
+            return false;
+        }
+        record(System.nanoTime() - start);
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        lock.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        return lock.newCondition();
+    }
+
+    public Stats stats() {
+        long count = 0;
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = waitHistogram[i].sum();
+            count += buckets[i];
+        }
+
+        long p99 = 0;
+        long threshold = (long) Math.ceil(count * 0.99);
+        long accumulated = 0;
+        for (int i = 0; i < BUCKETS && count > 0; i++) {
+            accumulated += buckets[i];
+            if (accumulated >= threshold) {
+                p99 = i == 0 ? 0 : (1L << i) - 1;
+                break;
+            }
+        }
+
+        return new Stats(acquisitions.sum(), totalWaitNanos.sum(), maxWaitNanos.get(), p99);
+    }
+
+    private void record(long waitNanos) {
+        acquisitions.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulate(waitNanos);
+        // Bucket i holds waits in [2^(i-1), 2^i)
+        waitHistogram[Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(waitNanos))].increment();
+    }
+}
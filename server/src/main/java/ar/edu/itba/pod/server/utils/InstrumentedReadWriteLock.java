@@ -0,0 +1,27 @@
+package ar.edu.itba.pod.server.utils;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/** ReentrantReadWriteLock whose read and write locks record their acquisition wait times. */
+public class InstrumentedReadWriteLock implements ReadWriteLock {
+
+    private final InstrumentedLock readLock;
+    private final InstrumentedLock writeLock;
+
+    public InstrumentedReadWriteLock(boolean fair) {
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock(fair);
+        this.readLock = new InstrumentedLock(lock.readLock());
+        this.writeLock = new InstrumentedLock(lock.writeLock());
+    }
+
+    @Override
+    public InstrumentedLock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public InstrumentedLock writeLock() {
+        return writeLock;
+    }
+}
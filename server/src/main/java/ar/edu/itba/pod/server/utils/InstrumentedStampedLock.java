@@ -0,0 +1,65 @@
+package ar.edu.itba.pod.server.utils;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * StampedLock whose read and write views record their acquisition wait times, like
+ * InstrumentedReadWriteLock. Unlike it the lock is not reentrant, a thread holding the write lock
+ * must not take it again, and it is not fair: a waiting writer keeps new readers out, but waiting
+ * threads are not granted the lock in arrival order.
+ *
+ * <p>Short bounded reads, like a lookup, can go through {@link #optimisticRead(Supplier)}, which
+ * writes nothing shared unless a writer got in the way. They must only read thread safe
+ * structures. Anything that walks or copies a collection must take the read lock instead.
+ */
+public class InstrumentedStampedLock implements ReadWriteLock {
+
+    private final StampedLock lock = new StampedLock();
+
+    private final InstrumentedLock readLock = new InstrumentedLock(lock.asReadLock());
+    private final InstrumentedLock writeLock = new InstrumentedLock(lock.asWriteLock());
+
+    private final LongAdder optimisticReads = new LongAdder();
+
+    @Override
+    public InstrumentedLock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public InstrumentedLock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * Runs the reader without locking and returns its result if no write happened meanwhile,
+     * otherwise runs it again holding the read lock. The reader runs concurrently with writers, so
+     * it must only read structures that are safe to read while they are written, like concurrent
+     * maps and sets. A failed validation is the only reason to run it again.
+     */
+    public <T> T optimisticRead(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            T result = reader.get();
+            if (lock.validate(stamp)) {
+                optimisticReads.increment();
+                return result;
+            }
+        }
+
+        readLock.lock();
+        try {
+            return reader.get();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Reads that never waited nor took the read lock
+    public InstrumentedLock.Stats optimisticStats() {
+        return new InstrumentedLock.Stats(optimisticReads.sum(), 0, 0, 0);
+    }
+}
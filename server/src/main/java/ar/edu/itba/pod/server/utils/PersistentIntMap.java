@@ -0,0 +1,180 @@
+package ar.edu.itba.pod.server.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sorted map from int keys. Every put or remove returns a new map that shares all but
+ * O(log n) nodes with the old one, so a writer can publish a new version after each change while
+ * readers keep walking the version they got, without locks. It is a treap ordered by key whose
+ * priorities are a hash of the key, so the same keys always give the same shape.
+ */
+public final class PersistentIntMap<V> {
+
+    private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(null, 0);
+
+    private record Node<V>(int key, V value, Node<V> left, Node<V> right) {
+
+        private int priority() {
+            return priority(key);
+        }
+
+        private static int priority(int key) {
+            int hash = key * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    // Keys below the split key and the rest
+    private record Split<V>(Node<V> lower, Node<V> upper) {}
+
+    private final Node<V> root;
+    private final int size;
+
+    private PersistentIntMap(Node<V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    public V get(int key) {
+        Node<V> node = root;
+        while (node != null) {
+            if (key < node.key) {
+                node = node.left;
+            } else if (key > node.key) {
+                node = node.right;
+            } else {
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    // Value of the greatest key below the given one, or null
+    public V lower(int key) {
+        V lower = null;
+        Node<V> node = root;
+        while (node != null) {
+            if (node.key < key) {
+                lower = node.value;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return lower;
+    }
+
+    // Value of the greatest key, or null if the map is empty
+    public V last() {
+        Node<V> node = root;
+        if (node == null) {
+            return null;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public PersistentIntMap<V> put(int key, V value) {
+        Split<V> lower = split(root, key);
+        Split<V> upper = split(lower.upper(), key + 1);
+        Node<V> node = new Node<>(key, value, null, null);
+        return new PersistentIntMap<>(
+                merge(merge(lower.lower(), node), upper.upper()),
+                upper.lower() == null ? size + 1 : size);
+    }
+
+    public PersistentIntMap<V> remove(int key) {
+        Split<V> lower = split(root, key);
+        Split<V> upper = split(lower.upper(), key + 1);
+        if (upper.lower() == null) {
+            return this;
+        }
+        return new PersistentIntMap<>(merge(lower.lower(), upper.upper()), size - 1);
+    }
+
+    public Iterable<V> values() {
+        return () -> new ValueIterator<>(root, Integer.MIN_VALUE, true);
+    }
+
+    // Values of the keys greater than the given one, in key order
+    public Iterable<V> valuesAfter(int key) {
+        return () -> new ValueIterator<>(root, key, false);
+    }
+
+    private static <V> Split<V> split(Node<V> node, int key) {
+        if (node == null) {
+            return new Split<>(null, null);
+        }
+
+        if (node.key < key) {
+            Split<V> parts = split(node.right, key);
+            return new Split<>(new Node<>(node.key, node.value, node.left, parts.lower()), parts.upper());
+        }
+
+        Split<V> parts = split(node.left, key);
+        return new Split<>(parts.lower(), new Node<>(node.key, node.value, parts.upper(), node.right));
+    }
+
+    // Every key of left must be below the keys of right
+    private static <V> Node<V> merge(Node<V> left, Node<V> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority() > right.priority()) {
+            return new Node<>(left.key, left.value, left.left, merge(left.right, right));
+        }
+        return new Node<>(right.key, right.value, merge(left, right.left), right.right);
+    }
+
+    private static final class ValueIterator<V> implements Iterator<V> {
+        private final Deque<Node<V>> path = new ArrayDeque<>();
+
+        private ValueIterator(Node<V> root, int key, boolean inclusive) {
+            Node<V> node = root;
+            while (node != null) {
+                if (node.key > key || (inclusive && node.key == key)) {
+                    path.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public V next() {
+            if (path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+
+            Node<V> node = path.pop();
+            for (Node<V> next = node.right; next != null; next = next.left) {
+                path.push(next);
+            }
+            return node.value;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ar.edu.itba.pod.server.wal;
+
+/**
+ * When the write-ahead log forces its writes to disk, and so when a logged mutation returns.
+ */
+public enum FsyncPolicy {
+    // Every group of records is forced before the mutations that wrote it return
+    ALWAYS,
+    // Mutations return once their group is written, writes are forced at most once per interval
+    INTERVAL,
+    // Mutations return once their group is written, the OS decides when it reaches the disk
+    NEVER
+}
@@ -0,0 +1,251 @@
+package ar.edu.itba.pod.server.wal;
+
+import ar.edu.itba.pod.server.exceptions.*;
+import ar.edu.itba.pod.server.models.*;
+import ar.edu.itba.pod.server.repositories.CounterRepository;
+import ar.edu.itba.pod.server.utils.Pair;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+
+/**
+ * Logs every mutation that succeeds on the delegate. Counter ids, queue positions and pending
+ * assignments depend on the order of the mutations, so each one is applied and appended holding
+ * the order locks of the log it depends on, and replaying the log repeats them in the same order:
+ * <ul>
+ *   <li>Adding, assigning and freeing counters hold the counter order and the sector order.
+ *   <li>Enqueueing a passenger holds the sector order and the booking order, so it follows the
+ *       assignment it joins and the passenger record.
+ *   <li>Adding a sector and checking passengers in hold the sector order.
+ * </ul>
+ * Passenger arrivals and checkins of different sectors are appended concurrently. Waiting for the
+ * record to be durable happens after releasing the locks, which is what lets concurrent mutations
+ * share a group.
+ */
+public class LoggedCounterRepository implements CounterRepository {
+
+    private final CounterRepository delegate;
+    private final WriteAheadLog log;
+
+    public LoggedCounterRepository(CounterRepository delegate, WriteAheadLog log) {
+        this.delegate = delegate;
+        this.log = log;
+    }
+
+    // -------- Sectors --------
+
+    @Override
+    public void addSector(String sector) throws AlreadyExistsException {
+        CompletableFuture<Void> durable;
+        Lock order = log.sectorOrder(sector);
+        order.lock();
+        try {
+            delegate.addSector(sector);
+            durable = log.append(new WalRecord.AddSector(sector));
+        } finally {
+            order.unlock();
+        }
+        WriteAheadLog.await(durable);
+    }
+
+    @Override
+    public boolean hasSector(String sector) {
+        return delegate.hasSector(sector);
+    }
+
+    @Override
+    public List<Sector> getSectors() {
+        return delegate.getSectors();
+    }
+
+    @Override
+    public Optional<Sector> getSector(String sectorName) {
+        return delegate.getSector(sectorName);
+    }
+
+    @Override
+    public List<Pair<CountersRange, String>> getCountersPage(
+            Optional<String> sectorName, CounterCursor after, int toCounter, int limit) {
+        return delegate.getCountersPage(sectorName, after, toCounter, limit);
+    }
+
+    // -------- Counters --------
+
+    @Override
+    public Range addCounters(String sector, int counterCount) throws NoSuchElementException {
+        Range range;
+        CompletableFuture<Void> durable;
+        Lock counterOrder = log.counterOrder();
+        Lock sectorOrder = log.sectorOrder(sector);
+        counterOrder.lock();
+        sectorOrder.lock();
+        try {
+            range = delegate.addCounters(sector, counterCount);
+            durable = log.append(new WalRecord.AddCounters(sector, counterCount));
+        } finally {
+            sectorOrder.unlock();
+            counterOrder.unlock();
+        }
+        WriteAheadLog.await(durable);
+        return range;
+    }
+
+    @Override
+    public boolean hasCounters() {
+        return delegate.hasCounters();
+    }
+
+    @Override
+    public Optional<CountersRange> getFlightCounters(String flight) {
+        return delegate.getFlightCounters(flight);
+    }
+
+    @Override
+    public Optional<Pair<CountersRange, String>> getFlightCountersAndSector(String flight) {
+        return delegate.getFlightCountersAndSector(flight);
+    }
+
+    // -------- Assignments --------
+
+    @Override
+    public Pair<Range, Integer> assignCounterAssignment(String sectorName, Assignment counterAssignment)
+            throws FlightAlreadyAssignedException,
+                    FlightAlreadyQueuedException,
+                    FlightAlreadyCheckedInException {
+        Pair<Range, Integer> result;
+        CompletableFuture<Void> durable;
+        Lock counterOrder = log.counterOrder();
+        Lock sectorOrder = log.sectorOrder(sectorName);
+        counterOrder.lock();
+        sectorOrder.lock();
+        try {
+            result = delegate.assignCounterAssignment(sectorName, counterAssignment);
+            // Queued assignments are logged too, a later mutation may assign them
+            durable =
+                    log.append(
+                            new WalRecord.AssignCounters(
+                                    sectorName,
+                                    counterAssignment.airline(),
+                                    counterAssignment.flights(),
+                                    counterAssignment.counterCount()));
+        } finally {
+            sectorOrder.unlock();
+            counterOrder.unlock();
+        }
+        WriteAheadLog.await(durable);
+        return result;
+    }
+
+    @Override
+    public List<String> getPreviouslyAssignedFlights() {
+        return delegate.getPreviouslyAssignedFlights();
+    }
+
+    @Override
+    public CountersRange freeCounters(String sector, int counterFrom, String airline)
+            throws NoSuchElementException, HasPendingPassengersException, UnauthorizedException {
+        CountersRange freed;
+        CompletableFuture<Void> durable;
+        Lock counterOrder = log.counterOrder();
+        Lock sectorOrder = log.sectorOrder(sector);
+        counterOrder.lock();
+        sectorOrder.lock();
+        try {
+            freed = delegate.freeCounters(sector, counterFrom, airline);
+            durable = log.append(new WalRecord.FreeCounters(sector, counterFrom, airline));
+        } finally {
+            sectorOrder.unlock();
+            counterOrder.unlock();
+        }
+        WriteAheadLog.await(durable);
+        return freed;
+    }
+
+    // -------- Queues - Assignments --------
+
+    @Override
+    public Queue<Assignment> getQueuedAssignments(String sector) {
+        return delegate.getQueuedAssignments(sector);
+    }
+
+    // -------- Queues - Passengers --------
+
+    @Override
+    public boolean hasPassengerInCounter(Range counterRange, String booking) {
+        return delegate.hasPassengerInCounter(counterRange, booking);
+    }
+
+    @Override
+    public int addPassengerToQueue(String sector, Range counterRange, String booking)
+            throws AlreadyExistsException, NoSuchElementException {
+        int passengersInQueue;
+        CompletableFuture<Void> durable;
+        Lock sectorOrder = log.sectorOrder(sector);
+        Lock bookingOrder = log.bookingOrder(booking);
+        sectorOrder.lock();
+        bookingOrder.lock();
+        try {
+            passengersInQueue = delegate.addPassengerToQueue(sector, counterRange, booking);
+            durable = log.append(new WalRecord.AddPassengerToQueue(sector, counterRange, booking));
+        } finally {
+            bookingOrder.unlock();
+            sectorOrder.unlock();
+        }
+        WriteAheadLog.await(durable);
+        return passengersInQueue;
+    }
+
+    @Override
+    public Optional<Pair<Range, Integer>> arrivePassenger(
+            String sector, int firstCounter, String flight, String booking, Predicate<String> checkedIn)
+            throws NoSuchElementException, AlreadyExistsException, PassengerAlreadyCheckedInException {
+        Optional<Pair<Range, Integer>> arrival;
+        CompletableFuture<Void> durable = null;
+        Lock sectorOrder = log.sectorOrder(sector);
+        Lock bookingOrder = log.bookingOrder(booking);
+        sectorOrder.lock();
+        bookingOrder.lock();
+        try {
+            arrival = delegate.arrivePassenger(sector, firstCounter, flight, booking, checkedIn);
+            // Replayed as the enqueue it turned into, the validation already passed
+            if (arrival.isPresent()) {
+                durable = log.append(new WalRecord.AddPassengerToQueue(sector, arrival.get().first(), booking));
+            }
+        } finally {
+            bookingOrder.unlock();
+            sectorOrder.unlock();
+        }
+        if (durable != null) {
+            WriteAheadLog.await(durable);
+        }
+        return arrival;
+    }
+
+    @Override
+    public List<Optional<String>> checkinCounters(
+            String sector, int counterFrom, String airline, CheckinStore store)
+            throws NoSuchElementException, UnauthorizedException, AlreadyExistsException {
+        List<Optional<String>> checkedIn;
+        CompletableFuture<Void> durable = null;
+        Lock order = log.sectorOrder(sector);
+        order.lock();
+        try {
+            checkedIn = delegate.checkinCounters(sector, counterFrom, airline, store);
+            // Replaying it polls the same passengers, and their checkins are rebuilt from them
+            if (checkedIn.stream().anyMatch(Optional::isPresent)) {
+                durable = log.append(new WalRecord.CheckinCounters(sector, counterFrom, airline));
+            }
+        } finally {
+            order.unlock();
+        }
+        if (durable != null) {
+            WriteAheadLog.await(durable);
+        }
+        return checkedIn;
+    }
+}
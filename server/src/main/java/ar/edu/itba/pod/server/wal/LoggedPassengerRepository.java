@@ -0,0 +1,88 @@
+package ar.edu.itba.pod.server.wal;
+
+import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
+import ar.edu.itba.pod.server.exceptions.FlightBelongsToOtherAirlineException;
+import ar.edu.itba.pod.server.models.Passenger;
+import ar.edu.itba.pod.server.repositories.PassengerRepository;
+import ar.edu.itba.pod.server.utils.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Logs the passengers added to the delegate. A passenger can be enqueued as soon as it is added,
+ * so its record is appended holding the booking order lock of the log, which enqueues take as
+ * well, and it is in the log before any record of the queue that may follow.
+ */
+public class LoggedPassengerRepository implements PassengerRepository {
+
+    private final PassengerRepository delegate;
+    private final WriteAheadLog log;
+
+    public LoggedPassengerRepository(PassengerRepository delegate, WriteAheadLog log) {
+        this.delegate = delegate;
+        this.log = log;
+    }
+
+    @Override
+    public boolean hasAirline(String airline) {
+        return delegate.hasAirline(airline);
+    }
+
+    @Override
+    public boolean hasPassenger(Passenger passenger) {
+        return delegate.hasPassenger(passenger);
+    }
+
+    @Override
+    public Optional<Passenger> getPassenger(String booking) {
+        return delegate.getPassenger(booking);
+    }
+
+    @Override
+    public List<Passenger> getPassengers() {
+        return delegate.getPassengers();
+    }
+
+    @Override
+    public void addPassenger(Passenger passenger) throws AlreadyExistsException, FlightBelongsToOtherAirlineException {
+        WriteAheadLog.await(addLogged(passenger));
+    }
+
+    // Added one by one, so a large manifest does not hold the order of many bookings at once
+    @Override
+    public List<Pair<Integer, Exception>> addPassengers(List<Passenger> passengers) {
+        List<Pair<Integer, Exception>> failures = new ArrayList<>();
+
+        CompletableFuture<Void> durable = null;
+        for (int i = 0; i < passengers.size(); i++) {
+            try {
+                durable = addLogged(passengers.get(i));
+            } catch (AlreadyExistsException | FlightBelongsToOtherAirlineException e) {
+                failures.add(new Pair<>(i, e));
+            }
+        }
+
+        // Groups are written in order, once the last record is durable so are the rest
+        if (durable != null) {
+            WriteAheadLog.await(durable);
+        }
+
+        return failures;
+    }
+
+    private CompletableFuture<Void> addLogged(Passenger passenger)
+            throws AlreadyExistsException, FlightBelongsToOtherAirlineException {
+        Lock order = log.bookingOrder(passenger.booking());
+        order.lock();
+        try {
+            delegate.addPassenger(passenger);
+            return log.append(new WalRecord.AddPassenger(passenger));
+        } finally {
+            order.unlock();
+        }
+    }
+}
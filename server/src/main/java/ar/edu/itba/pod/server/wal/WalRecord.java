@@ -0,0 +1,152 @@
+package ar.edu.itba.pod.server.wal;
+
+import ar.edu.itba.pod.server.models.Passenger;
+import ar.edu.itba.pod.server.models.Range;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A repository mutation as stored in the write-ahead log. A record is a type byte followed by its
+ * fields, ints as variable length integers and strings as modified UTF-8 with a two byte length,
+ * so most records take a few dozen bytes.
+ */
+public sealed interface WalRecord {
+
+    record AddSector(String sector) implements WalRecord {}
+
+    record AddCounters(String sector, int counterCount) implements WalRecord {}
+
+    record AddPassenger(Passenger passenger) implements WalRecord {}
+
+    record AssignCounters(String sector, String airline, List<String> flights, int counterCount)
+            implements WalRecord {}
+
+    record FreeCounters(String sector, int counterFrom, String airline) implements WalRecord {}
+
+    record AddPassengerToQueue(String sector, Range range, String booking) implements WalRecord {}
+
+    record CheckinCounters(String sector, int counterFrom, String airline) implements WalRecord {}
+
+    // Never reused, records already written keep their meaning
+    byte ADD_SECTOR = 1;
+    byte ADD_COUNTERS = 2;
+    byte ADD_PASSENGER = 3;
+    byte ASSIGN_COUNTERS = 4;
+    byte FREE_COUNTERS = 5;
+    byte ADD_PASSENGER_TO_QUEUE = 6;
+    byte CHECKIN_COUNTERS = 7;
+
+    default byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            if (this instanceof AddSector record) {
+                out.writeByte(ADD_SECTOR);
+                out.writeUTF(record.sector());
+            } else if (this instanceof AddCounters record) {
+                out.writeByte(ADD_COUNTERS);
+                out.writeUTF(record.sector());
+                writeVarInt(out, record.counterCount());
+            } else if (this instanceof AddPassenger record) {
+                out.writeByte(ADD_PASSENGER);
+                out.writeUTF(record.passenger().booking());
+                out.writeUTF(record.passenger().flight());
+                out.writeUTF(record.passenger().airline());
+            } else if (this instanceof AssignCounters record) {
+                out.writeByte(ASSIGN_COUNTERS);
+                out.writeUTF(record.sector());
+                out.writeUTF(record.airline());
+                writeVarInt(out, record.flights().size());
+                for (String flight : record.flights()) {
+                    out.writeUTF(flight);
+                }
+                writeVarInt(out, record.counterCount());
+            } else if (this instanceof FreeCounters record) {
+                out.writeByte(FREE_COUNTERS);
+                out.writeUTF(record.sector());
+                writeVarInt(out, record.counterFrom());
+                out.writeUTF(record.airline());
+            } else if (this instanceof AddPassengerToQueue record) {
+                out.writeByte(ADD_PASSENGER_TO_QUEUE);
+                out.writeUTF(record.sector());
+                writeVarInt(out, record.range().from());
+                writeVarInt(out, record.range().to());
+                out.writeUTF(record.booking());
+            } else if (this instanceof CheckinCounters record) {
+                out.writeByte(CHECKIN_COUNTERS);
+                out.writeUTF(record.sector());
+                writeVarInt(out, record.counterFrom());
+                out.writeUTF(record.airline());
+            }
+        } catch (IOException e) {
+            // Writing to memory never fails
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IOException if the bytes are not a record written by encode
+     */
+    static WalRecord decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = in.readByte();
+        WalRecord record =
+                switch (type) {
+                    case ADD_SECTOR -> new AddSector(in.readUTF());
+                    case ADD_COUNTERS -> new AddCounters(in.readUTF(), readVarInt(in));
+                    case ADD_PASSENGER -> new AddPassenger(new Passenger(in.readUTF(), in.readUTF(), in.readUTF()));
+                    case ASSIGN_COUNTERS -> {
+                        String sector = in.readUTF();
+                        String airline = in.readUTF();
+                        int flightCount = readVarInt(in);
+                        List<String> flights = new ArrayList<>(flightCount);
+                        for (int i = 0; i < flightCount; i++) {
+                            flights.add(in.readUTF());
+                        }
+                        yield new AssignCounters(sector, airline, flights, readVarInt(in));
+                    }
+                    case FREE_COUNTERS -> new FreeCounters(in.readUTF(), readVarInt(in), in.readUTF());
+                    case ADD_PASSENGER_TO_QUEUE ->
+                            new AddPassengerToQueue(
+                                    in.readUTF(), new Range(readVarInt(in), readVarInt(in)), in.readUTF());
+                    case CHECKIN_COUNTERS -> new CheckinCounters(in.readUTF(), readVarInt(in), in.readUTF());
+                    default -> throw new IOException("Unknown record type " + type);
+                };
+
+        if (in.available() > 0) {
+            throw new IOException("Trailing bytes after record");
+        }
+        return record;
+    }
+
+    // Seven bits per byte, the high bit tells if another byte follows
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+}
@@ -0,0 +1,74 @@
+package ar.edu.itba.pod.server.wal;
+
+import ar.edu.itba.pod.server.models.Assignment;
+import ar.edu.itba.pod.server.repositories.CheckinRepository;
+import ar.edu.itba.pod.server.repositories.CounterRepository;
+import ar.edu.itba.pod.server.repositories.PassengerRepository;
+
+import java.util.function.Consumer;
+
+/**
+ * Applies logged mutations to the repositories, which must not be logged themselves. Checkins are
+ * not logged, they are rebuilt from the passengers every replayed checkinCounters polls, just like
+ * CounterService does.
+ */
+public class WalReplayer implements Consumer<WalRecord> {
+    private final CounterRepository counterRepository;
+    private final PassengerRepository passengerRepository;
+    private final CheckinRepository checkinRepository;
+
+    public WalReplayer(
+            CounterRepository counterRepository,
+            PassengerRepository passengerRepository,
+            CheckinRepository checkinRepository) {
+        this.counterRepository = counterRepository;
+        this.passengerRepository = passengerRepository;
+        this.checkinRepository = checkinRepository;
+    }
+
+    @Override
+    public void accept(WalRecord record) {
+        try {
+            apply(record);
+        } catch (Exception e) {
+            // Only mutations that succeeded were logged, so the repositories would not match the log
+            throw new IllegalStateException("Could not replay " + record, e);
+        }
+    }
+
+    private void apply(WalRecord record) throws Exception {
+        if (record instanceof WalRecord.AddSector addSector) {
+            counterRepository.addSector(addSector.sector());
+        } else if (record instanceof WalRecord.AddCounters addCounters) {
+            counterRepository.addCounters(addCounters.sector(), addCounters.counterCount());
+        } else if (record instanceof WalRecord.AddPassenger addPassenger) {
+            passengerRepository.addPassenger(addPassenger.passenger());
+        } else if (record instanceof WalRecord.AssignCounters assign) {
+            // Nobody is listening for the events of an assignment made before the restart
+            counterRepository.assignCounterAssignment(
+                    assign.sector(), new Assignment(assign.airline(), assign.flights(), assign.counterCount()));
+        } else if (record instanceof WalRecord.FreeCounters free) {
+            counterRepository.freeCounters(free.sector(), free.counterFrom(), free.airline());
+        } else if (record instanceof WalRecord.AddPassengerToQueue enqueue) {
+            counterRepository.addPassengerToQueue(enqueue.sector(), enqueue.range(), enqueue.booking());
+        } else if (record instanceof WalRecord.CheckinCounters checkin) {
+            replayCheckin(checkin);
+        }
+    }
+
+    private void replayCheckin(WalRecord.CheckinCounters record) throws Exception {
+        counterRepository.checkinCounters(
+                record.sector(),
+                record.counterFrom(),
+                record.airline(),
+                bookings ->
+                        checkinRepository.addCheckins(
+                                CheckinRepository.checkinsOf(
+                                        record.sector(),
+                                        record.counterFrom(),
+                                        record.airline(),
+                                        bookings,
+                                        passengerRepository,
+                                        checkinRepository)));
+    }
+}
@@ -0,0 +1,352 @@
+package ar.edu.itba.pod.server.wal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of repository mutations. Appended records are buffered in the current group and
+ * a writer thread writes each group with a single write, forcing it to disk as the fsync policy
+ * says. Records appended while a group is being written wait for the next one, so under load many
+ * mutations share every write and fsync.
+ *
+ * <p>The file starts with a header and then holds one frame per record: the length of the record,
+ * its CRC32 and the record itself. On open the records of the file are replayed, and a torn last
+ * frame left by a crash is cut off.
+ */
+public class WriteAheadLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    public static final Duration DEFAULT_FSYNC_INTERVAL = Duration.ofMillis(100);
+
+    // "WAL" and the format version
+    private static final int HEADER = 0x57414C02;
+    private static final int HEADER_BYTES = Integer.BYTES;
+    private static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    private static final class Group {
+        private ByteBuffer buffer = ByteBuffer.allocate(4096);
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        private void add(byte[] record) {
+            CRC32 crc = new CRC32();
+            crc.update(record);
+
+            if (buffer.remaining() < FRAME_HEADER_BYTES + record.length) {
+                ByteBuffer larger =
+                        ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + FRAME_HEADER_BYTES + record.length));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            buffer.putInt(record.length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(record);
+        }
+
+        private boolean isEmpty() {
+            return buffer.position() == 0;
+        }
+    }
+
+    // Sectors and bookings are striped, names that never make it into the repositories take no room
+    private static final int ORDER_STRIPES = 64;
+
+    // Held by the logged repositories while they apply a mutation and append its record, never
+    // while waiting for the disk, so records that depend on each other are in the order their
+    // mutations were applied. Taken in this order: counters, sector, booking
+    private final Lock counterOrder = new ReentrantLock();
+    private final Lock[] sectorOrders = newStripes();
+    private final Lock[] bookingOrders = newStripes();
+
+    private final FileChannel channel;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final Thread writer;
+
+    // Guarded by this
+    private Group current = new Group();
+    private boolean closed;
+    private IOException failure;
+
+    // Only used by the writer thread
+    private boolean unforced;
+    private long lastForce = System.nanoTime();
+
+    private WriteAheadLog(FileChannel channel, FsyncPolicy fsyncPolicy, Duration fsyncInterval) {
+        this.channel = channel;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = fsyncInterval.toNanos();
+        this.writer = new Thread(this::writeGroups, "wal-writer");
+        this.writer.setDaemon(true);
+    }
+
+    private static Lock[] newStripes() {
+        Lock[] stripes = new Lock[ORDER_STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        return stripes;
+    }
+
+    private static Lock stripe(Lock[] stripes, String key) {
+        return stripes[Math.floorMod(key.hashCode(), stripes.length)];
+    }
+
+    /**
+     * Opens the log at path, creating it if it does not exist, and hands every record already in it
+     * to replay, in the order they were appended, before returning. It stops at the first record
+     * replay throws for, leaving the file as it was.
+     *
+     * @throws IOException if the file can not be read, is not a write-ahead log or a record could
+     *     not be replayed
+     */
+    public static WriteAheadLog open(
+            Path path, FsyncPolicy fsyncPolicy, Duration fsyncInterval, Consumer<WalRecord> replay)
+            throws IOException {
+        FileChannel channel =
+                FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long end = replay(channel, replay);
+            if (end < channel.size()) {
+                logger.warn("(wal/open) Discarding {} bytes of a torn record at the end of {}", channel.size() - end, path);
+                channel.truncate(end);
+                channel.force(true);
+            }
+            channel.position(end);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        WriteAheadLog log = new WriteAheadLog(channel, fsyncPolicy, fsyncInterval);
+        log.writer.start();
+        return log;
+    }
+
+    /**
+     * Adds the record to the next group written. Records are written in the order they are
+     * appended, so callers that must keep an order among their records append them in that order.
+     *
+     * @return completed once the record is as durable as the fsync policy says
+     */
+    public CompletableFuture<Void> append(WalRecord record) {
+        byte[] bytes = record.encode();
+
+        synchronized (this) {
+            if (failure != null) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            if (closed) {
+                return CompletableFuture.failedFuture(new IOException("The write-ahead log is closed"));
+            }
+
+            if (current.isEmpty()) {
+                notifyAll();
+            }
+            current.add(bytes);
+            return current.written;
+        }
+    }
+
+    /**
+     * Orders the mutations that change which counters exist or who they are assigned to. Counter
+     * ids are given out across sectors, and a flight can only be assigned in one sector, so these
+     * are ordered across the whole log. Holders must take the order of the sector as well.
+     */
+    public Lock counterOrder() {
+        return counterOrder;
+    }
+
+    // Orders every mutation of the sector, mutations of different sectors append concurrently
+    public Lock sectorOrder(String sector) {
+        return stripe(sectorOrders, sector);
+    }
+
+    // Orders the record of a passenger before the records that enqueue it
+    public Lock bookingOrder(String booking) {
+        return stripe(bookingOrders, booking);
+    }
+
+    /**
+     * Waits for records appended earlier to be durable.
+     *
+     * @throws UncheckedIOException if the log could not write them
+     */
+    public static void await(CompletableFuture<Void> durable) {
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw new UncheckedIOException(ioException);
+            }
+            throw e;
+        }
+    }
+
+    // Writes and forces whatever was appended before returning
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            if (failure == null) {
+                channel.force(false);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeGroups() {
+        while (true) {
+            Group group;
+            synchronized (this) {
+                try {
+                    while (current.isEmpty() && !closed) {
+                        // With INTERVAL the last writes are forced even if nothing else comes
+                        if (!unforced || fsyncPolicy != FsyncPolicy.INTERVAL) {
+                            wait();
+                        } else {
+                            long remaining = lastForce + fsyncIntervalNanos - System.nanoTime();
+                            if (remaining <= 0) {
+                                break;
+                            }
+                            wait(Math.max(1, remaining / 1_000_000));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                group = current;
+                current = new Group();
+            }
+
+            try {
+                if (!group.isEmpty()) {
+                    ByteBuffer buffer = group.buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    unforced = true;
+                }
+
+                if (unforced && shouldForce()) {
+                    channel.force(false);
+                    unforced = false;
+                    lastForce = System.nanoTime();
+                }
+                group.written.complete(null);
+            } catch (IOException e) {
+                logger.error("(wal/writeGroups) The write-ahead log can not be written, no mutation is durable from now on", e);
+                synchronized (this) {
+                    failure = e;
+                    current.written.completeExceptionally(e);
+                }
+                group.written.completeExceptionally(e);
+                return;
+            }
+
+            synchronized (this) {
+                if (closed && current.isEmpty()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean shouldForce() {
+        return switch (fsyncPolicy) {
+            case ALWAYS -> true;
+            case INTERVAL -> System.nanoTime() - lastForce >= fsyncIntervalNanos;
+            case NEVER -> false;
+        };
+    }
+
+    // Returns the position right after the last whole record
+    private static long replay(FileChannel channel, Consumer<WalRecord> replay) throws IOException {
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(HEADER).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+            return HEADER_BYTES;
+        }
+
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        long size = channel.size();
+        if (size < HEADER_BYTES || in.readInt() != HEADER) {
+            throw new IOException("Not a write-ahead log");
+        }
+
+        long position = HEADER_BYTES;
+        int records = 0;
+        while (true) {
+            byte[] record;
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES || position + FRAME_HEADER_BYTES + length > size) {
+                    break;
+                }
+                record = new byte[length];
+                in.readFully(record);
+
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+
+            WalRecord decoded = WalRecord.decode(record);
+            try {
+                replay.accept(decoded);
+            } catch (RuntimeException e) {
+                throw new IOException("Could not replay record " + records + " of the write-ahead log", e);
+            }
+            position += FRAME_HEADER_BYTES + record.length;
+            records++;
+        }
+
+        logger.info("(wal/open) Replayed {} records", records);
+        return position;
+    }
+}
@@ -3,16 +3,26 @@ package ar.edu.itba.pod.server.events;
 import ar.edu.itba.pod.grpc.common.CounterRange;
 import ar.edu.itba.pod.grpc.events.*;
 import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
+import ar.edu.itba.pod.server.exceptions.SequenceNotAvailableException;
 
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class EventManagerTest {
 
@@ -124,7 +134,7 @@ public class EventManagerTest {
             Assertions.assertTrue(eventManager.notify(airline, event));
         }
 
-        Assertions.assertEquals(this.events, events);
+        Assertions.assertEquals(this.events, withoutRegistration(events));
     }
 
     @Test
@@ -199,4 +209,411 @@ public class EventManagerTest {
             Assertions.assertFalse(eventManager.notify(airline, event));
         }
     }
+
+    @Test
+    public void testDropOldestWhenBufferIsFull() throws AlreadyExistsException {
+        String airline = "AmericanAirlines";
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        EventManagerImpl eventManager = new EventManagerImpl(tasks::add, 2, OverflowPolicy.DROP_OLDEST, 16);
+        RecordingStream eventStream = new RecordingStream();
+
+        eventManager.register(airline, eventStream);
+        for (RegisterResponse event : this.events) {
+            Assertions.assertTrue(eventManager.notify(airline, event));
+        }
+
+        // Nothing is written until the dispatcher runs
+        Assertions.assertEquals(List.of(), eventStream.events);
+        Assertions.assertEquals(2, eventManager.getDispatcherStats().get(airline).get(0).queuedEvents());
+
+        runAll(tasks);
+
+        // The registration event was the first one dropped
+        Assertions.assertEquals(
+                this.events.subList(this.events.size() - 2, this.events.size()),
+                eventStream.events.stream().map(EventManagerTest::withoutSequence).toList());
+        DispatcherStats stats = eventManager.getDispatcherStats().get(airline).get(0);
+        Assertions.assertEquals(0, stats.queuedEvents());
+        Assertions.assertEquals(2, stats.deliveredEvents());
+        Assertions.assertEquals(this.events.size() - 1, stats.droppedEvents());
+    }
+
+    @Test
+    public void testCoalesceReplacesSupersededMoves() throws AlreadyExistsException {
+        String airline = "AmericanAirlines";
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        EventManagerImpl eventManager = new EventManagerImpl(tasks::add, 3, OverflowPolicy.COALESCE, 16);
+        RecordingStream eventStream = new RecordingStream();
+
+        eventManager.register(airline, eventStream);
+        eventManager.notify(airline, moved("AA888", 3));
+        eventManager.notify(airline, moved("AA999", 2));
+        eventManager.notify(airline, moved("AA888", 1));
+        runAll(tasks);
+
+        Assertions.assertEquals(List.of(moved("AA999", 2), moved("AA888", 1)), withoutRegistration(eventStream.events));
+        Assertions.assertEquals(1, eventManager.getDispatcherStats().get(airline).get(0).coalescedEvents());
+        Assertions.assertEquals(0, eventManager.getDispatcherStats().get(airline).get(0).droppedEvents());
+    }
+
+    @Test
+    public void testDisconnectWhenBufferIsFull() throws AlreadyExistsException {
+        String airline = "AmericanAirlines";
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        EventManagerImpl eventManager = new EventManagerImpl(tasks::add, 3, OverflowPolicy.DISCONNECT, 16);
+        RecordingStream eventStream = new RecordingStream();
+
+        eventManager.register(airline, eventStream);
+        Assertions.assertTrue(eventManager.notify(airline, this.events.get(0)));
+        Assertions.assertTrue(eventManager.notify(airline, this.events.get(1)));
+        Assertions.assertFalse(eventManager.notify(airline, this.events.get(2)));
+        runAll(tasks);
+
+        Assertions.assertEquals(List.of(), eventStream.events);
+        Assertions.assertEquals(Status.RESOURCE_EXHAUSTED.getCode(), Status.fromThrowable(eventStream.error).getCode());
+        Assertions.assertFalse(eventManager.notify(airline, this.events.get(3)));
+        Assertions.assertThrows(NoSuchElementException.class, () -> eventManager.unregister(airline));
+    }
+
+    @Test
+    public void testWaitsUntilStreamIsReady() throws AlreadyExistsException {
+        String airline = "AmericanAirlines";
+        FlowControlledStream eventStream = new FlowControlledStream();
+        EventManagerImpl eventManager = new EventManagerImpl(Runnable::run, 16, OverflowPolicy.DROP_OLDEST, 16);
+
+        eventManager.register(airline, eventStream);
+        for (RegisterResponse event : this.events) {
+            eventManager.notify(airline, event);
+        }
+        eventManager.unregister(airline);
+
+        Assertions.assertEquals(List.of(), eventStream.events);
+        Assertions.assertFalse(eventStream.completed);
+
+        eventStream.ready = true;
+        eventStream.onReadyHandler.run();
+
+        // Pending events are written before the stream is completed
+        Assertions.assertEquals(this.events, withoutRegistration(eventStream.events));
+        Assertions.assertTrue(eventStream.completed);
+    }
+
+    @Test
+    public void testCoalesceWindowBatchesArrivalsAndMoves() throws Exception {
+        String airline = "AmericanAirlines";
+        EventManagerImpl eventManager = new EventManagerImpl();
+        List<RegisterResponse> events = new CopyOnWriteArrayList<>();
+        CountDownLatch received = new CountDownLatch(3);
+        StreamObserver<RegisterResponse> eventStream =
+                new StreamObserver<>() {
+                    @Override
+                    public void onNext(RegisterResponse value) {
+                        events.add(value);
+                        received.countDown();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {}
+
+                    @Override
+                    public void onCompleted() {}
+                };
+
+        eventManager.register(airline, eventStream, new SubscriptionOptions(Duration.ofMillis(50), 0, EventFilter.ALL));
+        RegisterResponse arrived = this.events.get(3);
+        RegisterResponse checkedIn = this.events.get(4);
+        eventManager.notify(airline, arrived);
+        eventManager.notify(airline, moved("AA888", 3));
+        eventManager.notify(airline, arrived);
+        eventManager.notify(airline, moved("AA888", 2));
+        eventManager.notify(airline, checkedIn);
+
+        // Only the registration is sent until the window of the first arrival closes
+        Assertions.assertEquals(1, events.size());
+        Assertions.assertTrue(received.await(5, TimeUnit.SECONDS));
+
+        RegisterResponse batch =
+                RegisterResponse.newBuilder()
+                        .setEventType(EventType.EVENT_TYPE_BATCH)
+                        .addAllBatchedEvents(List.of(arrived, moved("AA888", 2), arrived))
+                        .build();
+        Assertions.assertEquals(List.of(batch, checkedIn), withoutRegistration(events));
+        Assertions.assertEquals(3, eventManager.getDispatcherStats().get(airline).get(0).coalescedEvents());
+    }
+
+    @Test
+    public void testSequencesAreIncreasingPerAirline() throws AlreadyExistsException {
+        RecordingStream americanStream = new RecordingStream();
+        RecordingStream iberiaStream = new RecordingStream();
+        eventManager.register("AmericanAirlines", americanStream);
+        eventManager.register("Iberia", iberiaStream);
+
+        for (RegisterResponse event : this.events) {
+            eventManager.notify("AmericanAirlines", event);
+            eventManager.notify("Iberia", event);
+        }
+
+        List<Long> expected = new ArrayList<>();
+        for (long sequence = 0; sequence <= this.events.size(); sequence++) {
+            expected.add(sequence);
+        }
+        Assertions.assertEquals(expected, americanStream.events.stream().map(RegisterResponse::getSequence).toList());
+        Assertions.assertEquals(expected, iberiaStream.events.stream().map(RegisterResponse::getSequence).toList());
+    }
+
+    @Test
+    public void testResumeReplaysMissedEvents() throws Exception {
+        String airline = "AmericanAirlines";
+        eventManager.register(airline, new RecordingStream());
+        eventManager.notify(airline, this.events.get(1));
+        eventManager.unregister(airline);
+
+        // Sent while the airline had no stream
+        eventManager.notify(airline, this.events.get(2));
+        eventManager.notify(airline, this.events.get(3));
+
+        RecordingStream resumed = new RecordingStream();
+        eventManager.register(airline, resumed, new SubscriptionOptions(Duration.ZERO, 2, EventFilter.ALL));
+        eventManager.notify(airline, this.events.get(4));
+
+        Assertions.assertEquals(3, resumed.events.get(0).getSequence());
+        Assertions.assertEquals(this.events.subList(2, 5), withoutRegistration(resumed.events));
+        Assertions.assertEquals(
+                List.of(2L, 3L, 4L),
+                resumed.events.subList(1, 4).stream().map(RegisterResponse::getSequence).toList());
+    }
+
+    @Test
+    public void testResumeFromEvictedSequence() throws Exception {
+        String airline = "AmericanAirlines";
+        EventManagerImpl eventManager = new EventManagerImpl(Runnable::run, 16, OverflowPolicy.DROP_OLDEST, 4);
+        for (RegisterResponse event : this.events) {
+            eventManager.notify(airline, event);
+        }
+
+        // Only the last 4 events are kept
+        Assertions.assertThrows(
+                SequenceNotAvailableException.class,
+                () -> eventManager.register(airline, new RecordingStream(), new SubscriptionOptions(Duration.ZERO, 3, EventFilter.ALL)));
+        Assertions.assertThrows(
+                SequenceNotAvailableException.class,
+                () -> eventManager.register(airline, new RecordingStream(), new SubscriptionOptions(Duration.ZERO, 9, EventFilter.ALL)));
+
+        RecordingStream resumed = new RecordingStream();
+        eventManager.register(airline, resumed, new SubscriptionOptions(Duration.ZERO, 4, EventFilter.ALL));
+        Assertions.assertEquals(this.events.subList(3, 7), withoutRegistration(resumed.events));
+    }
+
+    @Test
+    public void testEverySubscriberGetsTheSameEvents() throws AlreadyExistsException {
+        String airline = "AmericanAirlines";
+        RecordingStream dashboard = new RecordingStream();
+        FlowControlledStream billing = new FlowControlledStream();
+        eventManager.register(airline, dashboard);
+        eventManager.register(airline, billing);
+
+        for (RegisterResponse event : this.events) {
+            Assertions.assertTrue(eventManager.notify(airline, event));
+        }
+
+        // The stream that is not ready does not hold up the other one
+        Assertions.assertEquals(this.events, withoutRegistration(dashboard.events));
+        Assertions.assertEquals(List.of(), billing.events);
+
+        billing.ready = true;
+        billing.onReadyHandler.run();
+
+        Assertions.assertEquals(this.events, withoutRegistration(billing.events));
+        // Built once, written to both streams
+        for (int i = 1; i < dashboard.events.size(); i++) {
+            Assertions.assertSame(dashboard.events.get(i), billing.events.get(i));
+        }
+
+        eventManager.unregister(airline);
+        Assertions.assertTrue(dashboard.completed);
+        Assertions.assertTrue(billing.completed);
+    }
+
+    @Test
+    public void testFilteredSubscriberOnlyGetsMatchingEvents() throws Exception {
+        String airline = "AmericanAirlines";
+        RecordingStream checkins = new RecordingStream();
+        RecordingStream flight = new RecordingStream();
+        RecordingStream sector = new RecordingStream();
+        eventManager.register(
+                airline,
+                checkins,
+                new SubscriptionOptions(
+                        Duration.ZERO,
+                        0,
+                        new EventFilter(Set.of(EventType.EVENT_TYPE_PASSENGER_CHECKED_IN), Set.of("AA123"), Set.of())));
+        eventManager.register(
+                airline,
+                flight,
+                new SubscriptionOptions(Duration.ZERO, 0, new EventFilter(Set.of(), Set.of("AA999"), Set.of())));
+        eventManager.register(
+                airline,
+                sector,
+                new SubscriptionOptions(Duration.ZERO, 0, new EventFilter(Set.of(), Set.of(), Set.of("D"))));
+
+        for (RegisterResponse event : this.events) {
+            eventManager.notify(airline, event);
+        }
+
+        Assertions.assertEquals(List.of(this.events.get(4)), withoutRegistration(checkins.events));
+        Assertions.assertEquals(this.events.subList(5, 7), withoutRegistration(flight.events));
+        Assertions.assertEquals(List.of(), withoutRegistration(sector.events));
+    }
+
+    @Test
+    public void testFilteredOutEventsAreStillReplayed() throws Exception {
+        String airline = "AmericanAirlines";
+        RecordingStream checkins = new RecordingStream();
+        eventManager.register(
+                airline,
+                checkins,
+                new SubscriptionOptions(
+                        Duration.ZERO, 0, new EventFilter(Set.of(EventType.EVENT_TYPE_PASSENGER_CHECKED_IN), Set.of(), Set.of())));
+
+        eventManager.notifyAll(airline, this.events.subList(0, 3));
+        for (RegisterResponse event : this.events.subList(3, this.events.size())) {
+            eventManager.notify(airline, event);
+        }
+
+        // Only the wanted event is sequenced for the stream, the log keeps every sequence
+        Assertions.assertEquals(List.of(this.events.get(4)), withoutRegistration(checkins.events));
+        Assertions.assertEquals(5, checkins.events.get(1).getSequence());
+
+        RecordingStream resumed = new RecordingStream();
+        eventManager.register(airline, resumed, new SubscriptionOptions(Duration.ZERO, 1, EventFilter.ALL));
+        Assertions.assertEquals(this.events, withoutRegistration(resumed.events));
+        Assertions.assertEquals(
+                List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L),
+                resumed.events.subList(1, resumed.events.size()).stream().map(RegisterResponse::getSequence).toList());
+    }
+
+    @Test
+    public void testNotifyAllSchedulesOneDrain() throws Exception {
+        String airline = "AmericanAirlines";
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        EventManagerImpl eventManager = new EventManagerImpl(tasks::add, 16, OverflowPolicy.DROP_OLDEST, 16);
+        RecordingStream stream = new RecordingStream();
+
+        eventManager.register(airline, stream);
+        runAll(tasks);
+
+        Assertions.assertTrue(eventManager.notifyAll(airline, this.events));
+        Assertions.assertEquals(1, tasks.size());
+        runAll(tasks);
+
+        Assertions.assertEquals(this.events, withoutRegistration(stream.events));
+        for (int i = 1; i < stream.events.size(); i++) {
+            Assertions.assertEquals(i, stream.events.get(i).getSequence());
+        }
+
+        Assertions.assertFalse(eventManager.notifyAll(airline, List.of()));
+    }
+
+    // Drops the registration event and the sequences, which the expected events do not have
+    private static List<RegisterResponse> withoutRegistration(List<RegisterResponse> received) {
+        Assertions.assertEquals(EventType.EVENT_TYPE_AIRLINE_REGISTERED, received.get(0).getEventType());
+        return received.subList(1, received.size()).stream().map(EventManagerTest::withoutSequence).toList();
+    }
+
+    private static RegisterResponse withoutSequence(RegisterResponse event) {
+        RegisterResponse.Builder builder = event.toBuilder().clearSequence().clearBatchedEvents();
+        event.getBatchedEventsList().forEach(batched -> builder.addBatchedEvents(withoutSequence(batched)));
+        return builder.build();
+    }
+
+    private static void runAll(Queue<Runnable> tasks) {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static RegisterResponse moved(String flight, int pendingAssignations) {
+        return RegisterResponse.newBuilder()
+                .setEventType(EventType.EVENT_TYPE_MOVED_IN_ASSIGNATION_QUEUE)
+                .setMovedInAssignationQueueInfo(
+                        MovedInAssignationQueueInfo.newBuilder()
+                                .setSectorName("C")
+                                .addFlights(flight)
+                                .setCounterCount(2)
+                                .setPendingAssignations(pendingAssignations)
+                                .build())
+                .build();
+    }
+
+    private static class RecordingStream implements StreamObserver<RegisterResponse> {
+        private final List<RegisterResponse> events = new ArrayList<>();
+        private Throwable error;
+        private boolean completed;
+
+        @Override
+        public void onNext(RegisterResponse value) {
+            events.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+    }
+
+    private static class FlowControlledStream extends ServerCallStreamObserver<RegisterResponse> {
+        private final List<RegisterResponse> events = new ArrayList<>();
+        private boolean completed;
+        private boolean ready;
+        private Runnable onReadyHandler;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+            this.onReadyHandler = onReadyHandler;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {}
+
+        @Override
+        public void setCompression(String compression) {}
+
+        @Override
+        public void disableAutoInboundFlowControl() {}
+
+        @Override
+        public void request(int count) {}
+
+        @Override
+        public void setMessageCompression(boolean enable) {}
+
+        @Override
+        public void onNext(RegisterResponse value) {
+            events.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {}
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package ar.edu.itba.pod.server.repositories;
+
+import ar.edu.itba.pod.server.models.Checkin;
+
+/**
+ * Cost per addCheckin and hasCheckin as the repository grows, which must stay flat. Run its main
+ * from the test classpath, the checkin counts can be passed as args.
+ */
+public class CheckinRepositoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] checkinCounts = {10_000, 100_000, 1_000_000};
+        if (args.length > 0) {
+            checkinCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                checkinCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        // Warm up
+        run(checkinCounts[0]);
+
+        for (int checkinCount : checkinCounts) {
+            run(checkinCount);
+        }
+    }
+
+    private static void run(int checkinCount) throws Exception {
+        CheckinRepository checkinRepository = new CheckinRepositoryImpl();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < checkinCount; i++) {
+            checkinRepository.addCheckin(
+                    new Checkin("A", 1, "Aerolineas Argentinas", "AR1234", String.valueOf(i)));
+        }
+        long added = System.nanoTime();
+
+        for (int i = 0; i < checkinCount; i++) {
+            if (!checkinRepository.hasCheckin(String.valueOf(i))) {
+                throw new IllegalStateException("Missing checkin " + i);
+            }
+        }
+        long checked = System.nanoTime();
+
+        System.out.printf(
+                "checkins=%-10d addCheckin=%,8.0fns hasCheckin=%,8.0fns%n",
+                checkinCount,
+                (double) (added - start) / checkinCount,
+                (double) (checked - added) / checkinCount);
+    }
+}
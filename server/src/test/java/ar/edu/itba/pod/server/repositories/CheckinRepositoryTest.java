@@ -9,6 +9,8 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -48,6 +50,33 @@ public class CheckinRepositoryTest {
         }
     }
 
+    @Test
+    public final void testAddCheckins() throws AlreadyExistsException {
+        checkinRepository.addCheckins(checkins);
+
+        Assertions.assertEquals(checkins, checkinRepository.getCheckins());
+        Assertions.assertEquals(
+                List.of(checkins.get(0), checkins.get(3)), checkinRepository.getCheckinsBySector("A"));
+        Assertions.assertEquals(List.of(checkins.get(1)), checkinRepository.getCheckinsByAirline("LATAM"));
+        Assertions.assertEquals(
+                List.of(checkins.get(4)), checkinRepository.getCheckinsBySectorAndAirline("B", "Iberia"));
+    }
+
+    @Test
+    public final void testAddCheckinsAlreadyExists() throws AlreadyExistsException {
+        checkinRepository.addCheckin(checkins.get(2));
+
+        // None of the batch is added, not even the checkins before the duplicate
+        Assertions.assertThrows(
+                AlreadyExistsException.class, () -> checkinRepository.addCheckins(checkins));
+
+        Assertions.assertEquals(List.of(checkins.get(2)), checkinRepository.getCheckins());
+        Assertions.assertFalse(checkinRepository.hasCheckin(checkins.get(0).booking()));
+
+        checkinRepository.addCheckins(List.of(checkins.get(0), checkins.get(1)));
+        Assertions.assertEquals(3, checkinRepository.getCheckins().size());
+    }
+
     @Test
     public final void testOneCheckin() throws AlreadyExistsException {
         checkinRepository.addCheckin(checkins.get(0));
@@ -111,6 +140,70 @@ public class CheckinRepositoryTest {
         Assertions.assertEquals(this.checkins.get(3), checkins.get(1));
     }
 
+    @Test
+    public final void testGetCheckinsBySectorAndAirline() throws AlreadyExistsException {
+        for (Checkin checkin : checkins) {
+            checkinRepository.addCheckin(checkin);
+        }
+        checkinRepository.addCheckin(new Checkin("A", 7, "LATAM", "LA4321", "777777"));
+
+        List<Checkin> bySector = checkinRepository.getCheckinsBySector("A");
+
+        Assertions.assertEquals(3, bySector.size());
+        Assertions.assertEquals(this.checkins.get(0), bySector.get(0));
+        Assertions.assertEquals(this.checkins.get(3), bySector.get(1));
+        Assertions.assertEquals("777777", bySector.get(2).booking());
+
+        List<Checkin> byAirline = checkinRepository.getCheckinsByAirline("LATAM");
+
+        Assertions.assertEquals(2, byAirline.size());
+        Assertions.assertEquals(this.checkins.get(1), byAirline.get(0));
+        Assertions.assertEquals("777777", byAirline.get(1).booking());
+
+        List<Checkin> bySectorAndAirline =
+                checkinRepository.getCheckinsBySectorAndAirline("A", "LATAM");
+
+        Assertions.assertEquals(1, bySectorAndAirline.size());
+        Assertions.assertEquals("777777", bySectorAndAirline.get(0).booking());
+
+        Assertions.assertTrue(checkinRepository.getCheckinsBySector("Z").isEmpty());
+        Assertions.assertTrue(checkinRepository.getCheckinsByAirline("Lufthansa").isEmpty());
+        Assertions.assertTrue(
+                checkinRepository.getCheckinsBySectorAndAirline("B", "Lufthansa").isEmpty());
+        Assertions.assertTrue(
+                checkinRepository.getCheckinsBySectorAndAirline("Z", "LATAM").isEmpty());
+    }
+
+    @Test
+    public final void testIterateCheckinsMatchesIndexedQueries() throws AlreadyExistsException {
+        for (Checkin checkin : checkins) {
+            checkinRepository.addCheckin(checkin);
+        }
+
+        List<Checkin> iterated = new ArrayList<>();
+        checkinRepository.iterateCheckins().forEachRemaining(iterated::add);
+        Assertions.assertEquals(checkinRepository.getCheckins(), iterated);
+
+        iterated.clear();
+        checkinRepository.iterateCheckinsBySector("A").forEachRemaining(iterated::add);
+        Assertions.assertEquals(checkinRepository.getCheckinsBySector("A"), iterated);
+
+        iterated.clear();
+        checkinRepository.iterateCheckinsByAirline("LATAM").forEachRemaining(iterated::add);
+        Assertions.assertEquals(checkinRepository.getCheckinsByAirline("LATAM"), iterated);
+
+        Assertions.assertFalse(checkinRepository.iterateCheckinsBySector("Z").hasNext());
+        Assertions.assertFalse(
+                checkinRepository.iterateCheckinsBySectorAndAirline("Z", "LATAM").hasNext());
+        Assertions.assertThrows(
+                UnsupportedOperationException.class,
+                () -> {
+                    Iterator<Checkin> iterator = checkinRepository.iterateCheckins();
+                    iterator.next();
+                    iterator.remove();
+                });
+    }
+
     @Test
     public final void testConcurrentAdd() throws AlreadyExistsException {
         List<List<Checkin>> repeatedCheckins = new LinkedList<>();
@@ -171,6 +264,48 @@ public class CheckinRepositoryTest {
         }
     }
 
+    @Test
+    public final void testManyCheckins() throws AlreadyExistsException {
+        // Timing per call lives in CheckinRepositoryBenchmark, this only checks the indexes agree
+        int checkinCount = 10_000;
+        String[] sectors = {"A", "B", "C"};
+        String[] airlines = {"Aerolineas Argentinas", "LATAM"};
+
+        for (int i = 0; i < checkinCount; i++) {
+            checkinRepository.addCheckin(
+                    new Checkin(sectors[i % sectors.length], 1, airlines[i % airlines.length], "AR1234", String.valueOf(i)));
+        }
+
+        for (int i = 0; i < checkinCount; i++) {
+            Assertions.assertTrue(checkinRepository.hasCheckin(String.valueOf(i)));
+        }
+        Assertions.assertThrows(
+                AlreadyExistsException.class,
+                () -> checkinRepository.addCheckin(new Checkin("B", 2, "LATAM", "LA4321", "0")));
+
+        List<Checkin> checkins = checkinRepository.getCheckins();
+        Assertions.assertEquals(checkinCount, checkins.size());
+        Assertions.assertEquals("0", checkins.get(0).booking());
+        Assertions.assertEquals(String.valueOf(checkinCount - 1), checkins.get(checkinCount - 1).booking());
+
+        for (String sector : sectors) {
+            for (String airline : airlines) {
+                Assertions.assertEquals(
+                        checkinRepository.getCheckins(
+                                checkin -> checkin.sector().equals(sector) && checkin.airline().equals(airline)),
+                        checkinRepository.getCheckinsBySectorAndAirline(sector, airline));
+            }
+            Assertions.assertEquals(
+                    checkinRepository.getCheckins(checkin -> checkin.sector().equals(sector)),
+                    checkinRepository.getCheckinsBySector(sector));
+        }
+        for (String airline : airlines) {
+            Assertions.assertEquals(
+                    checkinRepository.getCheckins(checkin -> checkin.airline().equals(airline)),
+                    checkinRepository.getCheckinsByAirline(airline));
+        }
+    }
+
     // Returns true if the subList is contained in the list in the same order
     // if the sublist is [A, B, C] and the list is [A, D, B, E, C, F] then the method should return
     // true
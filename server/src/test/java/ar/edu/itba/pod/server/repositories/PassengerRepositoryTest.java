@@ -5,6 +5,7 @@ import ar.edu.itba.pod.server.exceptions.FlightBelongsToOtherAirlineException;
 import ar.edu.itba.pod.server.models.Passenger;
 import ar.edu.itba.pod.server.repositories.PassengerRepository;
 import ar.edu.itba.pod.server.repositories.PassengerRepositoryImpl;
+import ar.edu.itba.pod.server.utils.Pair;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -49,6 +50,28 @@ public class PassengerRepositoryTest {
         }
     }
 
+    @Test
+    public void addPassengersBatch() throws AlreadyExistsException, FlightBelongsToOtherAirlineException {
+        passengerRepository.addPassenger(passengers.get(0));
+
+        Passenger otherAirline = new Passenger("777777", "LA4321", "Iberia");
+        List<Passenger> batch =
+                List.of(passengers.get(0), passengers.get(1), otherAirline, passengers.get(2));
+
+        List<Pair<Integer, Exception>> failures = passengerRepository.addPassengers(batch);
+
+        Assertions.assertEquals(2, failures.size());
+        Assertions.assertEquals(0, failures.get(0).first());
+        Assertions.assertInstanceOf(AlreadyExistsException.class, failures.get(0).second());
+        Assertions.assertEquals(2, failures.get(1).first());
+        Assertions.assertInstanceOf(
+                FlightBelongsToOtherAirlineException.class, failures.get(1).second());
+
+        Assertions.assertTrue(passengerRepository.hasPassenger(passengers.get(1)));
+        Assertions.assertTrue(passengerRepository.hasPassenger(passengers.get(2)));
+        Assertions.assertFalse(passengerRepository.hasPassenger(otherAirline));
+    }
+
     @Test
     public void addPassengerAlreadyExists() throws AlreadyExistsException, FlightBelongsToOtherAirlineException {
         Passenger passenger = passengers.get(0);
@@ -68,6 +91,55 @@ public class PassengerRepositoryTest {
                 FlightBelongsToOtherAirlineException.class, () -> passengerRepository.addPassenger(passenger2));
     }
 
+    @Test
+    public void concurrentAddPassengerSameFlightDifferentAirlines() throws InterruptedException {
+        List<String> airlines = List.of("Aerolineas Argentinas", "LATAM", "Iberia", "Air France");
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(airlines.size());
+
+        for (int i = 0; i < airlines.size(); i++) {
+            String airline = airlines.get(i);
+            int bookingStart = i * 1000;
+
+            new Thread(
+                            () -> {
+                                try {
+                                    start.await();
+                                } catch (InterruptedException e) {
+                                    return;
+                                }
+
+                                for (int j = 0; j < 1000; j++) {
+                                    try {
+                                        passengerRepository.addPassenger(
+                                                new Passenger(
+                                                        String.valueOf(bookingStart + j),
+                                                        "XX1234",
+                                                        airline));
+                                    } catch (Exception e) {
+                                    }
+                                }
+
+                                latch.countDown();
+                            })
+                    .start();
+        }
+
+        start.countDown();
+        latch.await();
+
+        // Only one airline can claim the flight
+        List<Passenger> passengers = passengerRepository.getPassengers();
+        String owner = passengers.get(0).airline();
+
+        Assertions.assertEquals(1000, passengers.size());
+        Assertions.assertTrue(passengers.stream().allMatch(passenger -> passenger.airline().equals(owner)));
+
+        for (String airline : airlines) {
+            Assertions.assertEquals(airline.equals(owner), passengerRepository.hasAirline(airline));
+        }
+    }
+
     @Test
     public void hasAirlineTrue() throws AlreadyExistsException, FlightBelongsToOtherAirlineException {
         for (Passenger passenger : passengers) {
@@ -0,0 +1,135 @@
+package ar.edu.itba.pod.server.repositories.counterRepository;
+
+import ar.edu.itba.pod.server.models.Assignment;
+import ar.edu.itba.pod.server.models.Range;
+import ar.edu.itba.pod.server.repositories.CounterRepository;
+import ar.edu.itba.pod.server.repositories.CounterRepositoryImpl;
+import ar.edu.itba.pod.server.repositories.CounterRepositorySectorLocked;
+import ar.edu.itba.pod.server.repositories.CounterRepositorySynchronized;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Multi-sector contention benchmark, every thread assigns, fills, checks in and frees counters in
+ * its own sector. Run its main from the test classpath, the thread counts can be passed as args.
+ */
+public class CounterRepositoryBenchmark {
+
+    private static final int ITERATIONS = 2_000;
+    private static final int PASSENGERS_PER_ITERATION = 10;
+    private static final int COUNTERS_PER_ASSIGNMENT = 2;
+
+    private static final Map<String, Supplier<CounterRepository>> IMPLEMENTATIONS =
+            Map.of(
+                    "CounterRepositoryImpl", CounterRepositoryImpl::new,
+                    "CounterRepositorySynchronized", CounterRepositorySynchronized::new,
+                    "CounterRepositorySectorLocked", CounterRepositorySectorLocked::new);
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> threadCounts = new ArrayList<>();
+        for (String arg : args) {
+            threadCounts.add(Integer.parseInt(arg));
+        }
+        if (threadCounts.isEmpty()) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                threadCounts.add(threads);
+            }
+        }
+
+        for (Map.Entry<String, Supplier<CounterRepository>> implementation : IMPLEMENTATIONS.entrySet()) {
+            // Warm up
+            run(implementation.getValue().get(), threadCounts.get(threadCounts.size() - 1));
+
+            CounterRepository counterRepository = null;
+            for (int threads : threadCounts) {
+                counterRepository = implementation.getValue().get();
+                double opsPerSecond = run(counterRepository, threads);
+                System.out.printf(
+                        "%-32s threads=%-3d %,12.0f ops/s%n",
+                        implementation.getKey(), threads, opsPerSecond);
+            }
+
+            if (counterRepository instanceof CounterRepositoryImpl impl) {
+                impl.getLockStats()
+                        .forEach(
+                                (lock, stats) ->
+                                        System.out.printf(
+                                                "    %-26s acquisitions=%-10d p99 wait=%,dns max wait=%,dns%n",
+                                                lock,
+                                                stats.acquisitions(),
+                                                stats.p99WaitNanos(),
+                                                stats.maxWaitNanos()));
+            }
+        }
+    }
+
+    private static double run(CounterRepository counterRepository, int threads) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            String sector = "S" + t;
+            counterRepository.addSector(sector);
+            counterRepository.addCounters(sector, COUNTERS_PER_ASSIGNMENT);
+
+            Thread worker =
+                    new Thread(
+                            () -> {
+                                try {
+                                    start.await();
+                                    work(counterRepository, sector);
+                                } catch (Throwable e) {
+                                    synchronized (errors) {
+                                        errors.add(e);
+                                    }
+                                }
+                            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException(errors.get(0));
+        }
+
+        // assign + passengers + checkins + free
+        long checkins = (PASSENGERS_PER_ITERATION + COUNTERS_PER_ASSIGNMENT - 1) / COUNTERS_PER_ASSIGNMENT;
+        long operations = (long) threads * ITERATIONS * (2 + PASSENGERS_PER_ITERATION + checkins);
+        return operations / (elapsed / 1_000_000_000.0);
+    }
+
+    private static void work(CounterRepository counterRepository, String sector) throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            String flight = sector + "-" + i;
+            Range range =
+                    counterRepository
+                            .assignCounterAssignment(
+                                    sector,
+                                    new Assignment("Airline", List.of(flight), COUNTERS_PER_ASSIGNMENT))
+                            .first();
+
+            for (int p = 0; p < PASSENGERS_PER_ITERATION; p++) {
+                counterRepository.addPassengerToQueue(sector, range, flight + "-" + p);
+            }
+
+            for (int p = 0; p < PASSENGERS_PER_ITERATION; p += COUNTERS_PER_ASSIGNMENT) {
+                counterRepository.checkinCounters(sector, range.from(), "Airline");
+            }
+
+            counterRepository.freeCounters(sector, range.from(), "Airline");
+        }
+    }
+}
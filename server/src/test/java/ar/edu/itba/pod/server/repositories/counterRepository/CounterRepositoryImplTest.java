@@ -1,6 +1,20 @@
 package ar.edu.itba.pod.server.repositories.counterRepository;
 
+import ar.edu.itba.pod.server.models.Assignment;
+import ar.edu.itba.pod.server.models.Range;
 import ar.edu.itba.pod.server.repositories.CounterRepositoryImpl;
+import ar.edu.itba.pod.server.utils.InstrumentedLock;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class CounterRepositoryImplTest extends CounterRepositoryTest<CounterRepositoryImpl> {
 
@@ -8,4 +22,84 @@ public class CounterRepositoryImplTest extends CounterRepositoryTest<CounterRepo
     protected CounterRepositoryImpl createCounterRepository() {
         return new CounterRepositoryImpl();
     }
+
+    @Override
+    protected int[] expectedTimesMovedWhenAllPendingAreAssigned() {
+        // Only the assignments that stay queued are told their new position
+        return new int[10];
+    }
+
+    @Test
+    public void testFreedNeighboursAreMergedForPendingAssignments() throws Exception {
+        CounterRepositoryImpl counterRepository = createCounterRepository();
+        counterRepository.addSector("D");
+        counterRepository.addCounters("D", 3);
+        for (int i = 0; i < 3; i++) {
+            counterRepository.assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA" + i), 1));
+        }
+
+        List<Range> assigned = new ArrayList<>();
+        counterRepository.assignCounterAssignment(
+                "D", new Assignment("AmericanAirlines", List.of("AA9"), 3, position -> {}, assigned::add));
+
+        counterRepository.freeCounters("D", 1, "AmericanAirlines");
+        counterRepository.freeCounters("D", 3, "AmericanAirlines");
+        Assertions.assertEquals(List.of(), assigned);
+
+        // Freeing the middle counter joins it with the free counters on both sides
+        counterRepository.freeCounters("D", 2, "AmericanAirlines");
+        Assertions.assertEquals(List.of(new Range(1, 3)), assigned);
+        Assertions.assertTrue(counterRepository.getQueuedAssignments("D").isEmpty());
+    }
+
+    @Test
+    public void testConcurrentAdminAndPassengerTrafficDoesNotDeadlock() throws Exception {
+        CounterRepositoryImpl counterRepository = createCounterRepository();
+        int sectors = 4;
+        int iterations = 500;
+
+        for (int i = 0; i < sectors; i++) {
+            counterRepository.addSector("S" + i);
+            counterRepository.addCounters("S" + i, 2);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(sectors);
+        try {
+            Assertions.assertTimeoutPreemptively(
+                    Duration.ofSeconds(30),
+                    () -> {
+                        List<Future<?>> futures = new ArrayList<>();
+                        for (int i = 0; i < sectors; i++) {
+                            String sector = "S" + i;
+                            futures.add(
+                                    executor.submit(
+                                            () -> {
+                                                for (int j = 0; j < iterations; j++) {
+                                                    String flight = sector + "-" + j;
+                                                    Range range =
+                                                            counterRepository
+                                                                    .assignCounterAssignment(
+                                                                            sector,
+                                                                            new Assignment("Airline", List.of(flight), 2))
+                                                                    .first();
+                                                    counterRepository.addPassengerToQueue(sector, range, flight);
+                                                    counterRepository.checkinCounters(sector, range.from(), "Airline");
+                                                    counterRepository.freeCounters(sector, range.from(), "Airline");
+                                                }
+                                                return null;
+                                            }));
+                        }
+                        for (Future<?> future : futures) {
+                            future.get();
+                        }
+                    });
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, InstrumentedLock.Stats> stats = counterRepository.getLockStats();
+        Assertions.assertTrue(stats.get("sectorCounters.write").acquisitions() >= sectors * iterations * 4L);
+        // Assignments do not lock the passenger queues, only the enqueue and the checkin do
+        Assertions.assertTrue(stats.get("passengerCounters.write").acquisitions() >= sectors * iterations * 2L);
+    }
 }
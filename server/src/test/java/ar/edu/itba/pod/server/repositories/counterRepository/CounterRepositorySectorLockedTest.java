@@ -0,0 +1,351 @@
+package ar.edu.itba.pod.server.repositories.counterRepository;
+
+import ar.edu.itba.pod.server.exceptions.HasPendingPassengersException;
+import ar.edu.itba.pod.server.models.AssignedInfo;
+import ar.edu.itba.pod.server.models.Assignment;
+import ar.edu.itba.pod.server.models.CountersRange;
+import ar.edu.itba.pod.server.models.Range;
+import ar.edu.itba.pod.server.repositories.CounterRepositorySectorLocked;
+import ar.edu.itba.pod.server.utils.Pair;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CounterRepositorySectorLockedTest extends CounterRepositoryTest<CounterRepositorySectorLocked> {
+
+    @Override
+    protected CounterRepositorySectorLocked createCounterRepository() {
+        return new CounterRepositorySectorLocked();
+    }
+
+    @Override
+    protected int[] expectedTimesMovedWhenAllPendingAreAssigned() {
+        // Only the assignments that stay queued are told their new position
+        return new int[10];
+    }
+
+    @Test
+    public void testFreeCountersOnlyNotifiesMovedAssignments() throws Exception {
+        CounterRepositorySectorLocked counterRepository = createCounterRepository();
+        counterRepository.addSector("D");
+        counterRepository.addCounters("D", 1);
+        counterRepository.assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA100"), 1));
+
+        List<List<Integer>> moves = new ArrayList<>();
+        int[] counterCounts = {2, 1, 2, 1};
+        for (int i = 0; i < counterCounts.length; i++) {
+            List<Integer> assignmentMoves = new ArrayList<>();
+            moves.add(assignmentMoves);
+            counterRepository.assignCounterAssignment(
+                    "D",
+                    new Assignment("AmericanAirlines", List.of("AA" + i), counterCounts[i], assignmentMoves::add, range -> {}));
+        }
+
+        counterRepository.freeCounters("D", 1, "AmericanAirlines");
+
+        // AA1 takes the freed counter, AA0 keeps its position and the ones behind AA1 move once
+        Assertions.assertEquals(List.of(), moves.get(0));
+        Assertions.assertEquals(List.of(), moves.get(1));
+        Assertions.assertEquals(List.of(1), moves.get(2));
+        Assertions.assertEquals(List.of(2), moves.get(3));
+        Assertions.assertEquals(
+                List.of("AA0", "AA2", "AA3"),
+                counterRepository.getQueuedAssignments("D").stream().map(assignment -> assignment.flights().get(0)).toList());
+    }
+
+    @Test
+    public void testConcurrentAddPassengerToQueue() throws Exception {
+        CounterRepositorySectorLocked counterRepository = createCounterRepository();
+        counterRepository.addSector("D");
+        counterRepository.addCounters("D", 2);
+        Range range =
+                counterRepository
+                        .assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA123"), 2))
+                        .first();
+
+        int threads = 8;
+        int passengersPerThread = 1000;
+        CountDownLatch latch = new CountDownLatch(threads);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            new Thread(
+                            () -> {
+                                try {
+                                    for (int i = 0; i < passengersPerThread; i++) {
+                                        counterRepository.addPassengerToQueue("D", range, thread + "-" + i);
+                                    }
+                                } catch (Throwable e) {
+                                    errors.add(e);
+                                } finally {
+                                    latch.countDown();
+                                }
+                            })
+                    .start();
+        }
+        latch.await();
+        Assertions.assertEquals(List.of(), errors);
+
+        Assertions.assertEquals(
+                threads * passengersPerThread,
+                counterRepository.getFlightCounters("AA123").orElseThrow().assignedInfo().orElseThrow().passengersInQueue());
+        Assertions.assertThrows(
+                HasPendingPassengersException.class,
+                () -> counterRepository.freeCounters("D", range.from(), "AmericanAirlines"));
+
+        long checkedIn = 0;
+        List<Optional<String>> result;
+        do {
+            result = counterRepository.checkinCounters("D", range.from(), "AmericanAirlines");
+            checkedIn += result.stream().filter(Optional::isPresent).count();
+        } while (result.get(0).isPresent());
+        Assertions.assertEquals(threads * passengersPerThread, checkedIn);
+
+        counterRepository.freeCounters("D", range.from(), "AmericanAirlines");
+        Assertions.assertThrows(
+                NoSuchElementException.class,
+                () -> counterRepository.addPassengerToQueue("D", range, "late"));
+    }
+
+    @Test
+    public void testReadersSeeWholeSnapshots() throws Exception {
+        CounterRepositorySectorLocked counterRepository = createCounterRepository();
+        counterRepository.addSector("D");
+        counterRepository.addCounters("D", 10);
+
+        int assignments = 500;
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread writer =
+                new Thread(
+                        () -> {
+                            try {
+                                for (int i = 0; i < assignments; i++) {
+                                    Range range =
+                                            counterRepository
+                                                    .assignCounterAssignment(
+                                                            "D", new Assignment("AmericanAirlines", List.of("AA" + i), 1 + i % 4))
+                                                    .first();
+                                    counterRepository.freeCounters("D", range.from(), "AmericanAirlines");
+                                }
+                            } catch (Throwable e) {
+                                errors.add(e);
+                            }
+                        });
+        writer.start();
+
+        // Every snapshot covers the 10 counters exactly once, whatever the writer is doing
+        while (writer.isAlive()) {
+            List<CountersRange> countersRanges = counterRepository.getSector("D").orElseThrow().countersRangeList();
+            int next = 1;
+            for (CountersRange countersRange : countersRanges) {
+                Assertions.assertEquals(next, countersRange.range().from());
+                next = countersRange.range().to() + 1;
+            }
+            Assertions.assertEquals(11, next);
+        }
+        writer.join();
+        Assertions.assertEquals(List.of(), errors);
+
+        Assertions.assertEquals(
+                List.of(new CountersRange(new Range(1, 10))),
+                counterRepository.getSector("D").orElseThrow().countersRangeList());
+    }
+
+    @Test
+    public void testCheckinWaitsForAnArrivalBeingValidated() throws Exception {
+        CounterRepositorySectorLocked counterRepository = createCounterRepository();
+        counterRepository.addSector("D");
+        counterRepository.addCounters("D", 1);
+        counterRepository.assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA123"), 1));
+
+        // A checkin that starts while the passenger is validated must not run until it is enqueued,
+        // otherwise it could store the passenger and have it queued again
+        List<Optional<String>> checkedIn = Collections.synchronizedList(new ArrayList<>());
+        boolean[] checkinWaited = {false};
+        Thread checkin =
+                new Thread(
+                        () -> {
+                            try {
+                                checkedIn.addAll(counterRepository.checkinCounters("D", 1, "AmericanAirlines"));
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                        });
+
+        Optional<Pair<Range, Integer>> arrival =
+                counterRepository.arrivePassenger(
+                        "D",
+                        1,
+                        "AA123",
+                        "ABC123",
+                        booking -> {
+                            checkin.start();
+                            try {
+                                checkin.join(200);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            checkinWaited[0] = checkin.isAlive();
+                            return false;
+                        });
+        checkin.join(5000);
+
+        Assertions.assertTrue(checkinWaited[0]);
+        Assertions.assertEquals(Optional.of(new Range(1, 1)), arrival.map(Pair::first));
+        Assertions.assertEquals(List.of(Optional.of("ABC123")), checkedIn);
+        Assertions.assertFalse(counterRepository.hasPassengerInCounter(new Range(1, 1), "ABC123"));
+    }
+
+    @Test
+    public void testQueriesDoNotWaitForACheckin() throws Exception {
+        CounterRepositorySectorLocked counterRepository = createCounterRepository();
+        counterRepository.addSector("D");
+        counterRepository.addCounters("D", 2);
+        counterRepository.assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA123"), 1));
+        counterRepository.arrivePassenger("D", 1, "AA123", "ABC123", booking -> false);
+
+        // The checkin holds the sector lock until the store is released
+        CountDownLatch storing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<Optional<String>>> checkin =
+                CompletableFuture.supplyAsync(
+                        () -> {
+                            try {
+                                return counterRepository.checkinCounters(
+                                        "D",
+                                        1,
+                                        "AmericanAirlines",
+                                        bookings -> {
+                                            storing.countDown();
+                                            try {
+                                                release.await();
+                                            } catch (InterruptedException e) {
+                                                Thread.currentThread().interrupt();
+                                            }
+                                        });
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                        });
+        storing.await();
+
+        try {
+            CompletableFuture<List<CountersRange>> query =
+                    CompletableFuture.supplyAsync(
+                            () -> counterRepository.getSector("D").orElseThrow().countersRangeList());
+            Assertions.assertEquals(2, query.get(5, TimeUnit.SECONDS).size());
+            Assertions.assertEquals(1, counterRepository.getFlightCounters("AA123").orElseThrow().assignedInfo().orElseThrow().passengersInQueue());
+        } finally {
+            release.countDown();
+        }
+        Assertions.assertEquals(List.of(Optional.of("ABC123")), checkin.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAssignmentCallbacksRunOutsideTheSectorLock() throws Exception {
+        CounterRepositorySectorLocked counterRepository = createCounterRepository();
+        counterRepository.addSector("D");
+
+        // The callback adds counters to the sector from another thread, which takes the sector lock
+        // and would block if the callback held it
+        boolean[] sectorWritable = {false};
+        counterRepository.assignCounterAssignment(
+                "D",
+                new Assignment(
+                        "AmericanAirlines",
+                        List.of("AA123"),
+                        1,
+                        pendingAhead -> {},
+                        range -> {
+                            Thread writer = new Thread(() -> counterRepository.addCounters("D", 1));
+                            writer.setDaemon(true);
+                            writer.start();
+                            try {
+                                writer.join(5_000);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            sectorWritable[0] = !writer.isAlive();
+                        }));
+
+        counterRepository.addCounters("D", 1);
+
+        Assertions.assertTrue(sectorWritable[0]);
+        Assertions.assertEquals(
+                List.of(
+                        new CountersRange(new Range(1, 1), new AssignedInfo("AmericanAirlines", List.of("AA123"), 0)),
+                        new CountersRange(new Range(2, 2))),
+                counterRepository.getSector("D").orElseThrow().countersRangeList());
+    }
+
+    @Test
+    public void testQueuedAssignmentIsDiscardedWhenAnotherSectorTakesItsFlight() throws Exception {
+        CounterRepositorySectorLocked counterRepository = createCounterRepository();
+        counterRepository.addSector("D");
+        counterRepository.addSector("E");
+
+        CompletableFuture<Void> discarded = new CompletableFuture<>();
+        counterRepository.assignCounterAssignment(
+                "D",
+                new Assignment("AmericanAirlines", List.of("AA1"), 1, position -> {}, range -> {}, () -> discarded.complete(null)));
+
+        counterRepository.addCounters("E", 1);
+        counterRepository.assignCounterAssignment("E", new Assignment("AmericanAirlines", List.of("AA1"), 1));
+
+        // D can never take AA1 now, the assignment leaves its queue instead of waiting forever
+        counterRepository.addCounters("D", 1);
+
+        discarded.get(5, TimeUnit.SECONDS);
+        Assertions.assertTrue(counterRepository.getQueuedAssignments("D").isEmpty());
+        Assertions.assertEquals(
+                "E", counterRepository.getFlightCountersAndSector("AA1").orElseThrow().second());
+    }
+
+    @Test
+    public void testArrivalJoinsTheQueueOfTheAssignmentItLookedUp() throws Exception {
+        CounterRepositorySectorLocked counterRepository = createCounterRepository();
+        counterRepository.addSector("D");
+        counterRepository.addCounters("D", 2);
+        Range range =
+                counterRepository
+                        .assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA1"), 2))
+                        .first();
+
+        // Between the lookup and the enqueue the range is freed and assigned to another flight
+        Optional<Pair<Range, Integer>> arrival =
+                counterRepository.arrivePassenger(
+                        "D",
+                        range.from(),
+                        "AA1",
+                        "ABC123",
+                        booking -> {
+                            try {
+                                counterRepository.freeCounters("D", range.from(), "AmericanAirlines");
+                                Assertions.assertEquals(
+                                        range,
+                                        counterRepository
+                                                .assignCounterAssignment(
+                                                        "D", new Assignment("AmericanAirlines", List.of("AA2"), 2))
+                                                .first());
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                            return false;
+                        });
+
+        Assertions.assertTrue(arrival.isEmpty());
+        Assertions.assertFalse(counterRepository.hasPassengerInCounter(range, "ABC123"));
+        Assertions.assertEquals(
+                0, counterRepository.getFlightCounters("AA2").orElseThrow().assignedInfo().orElseThrow().passengersInQueue());
+    }
+}
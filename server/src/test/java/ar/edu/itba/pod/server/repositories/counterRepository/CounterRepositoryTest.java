@@ -2,7 +2,11 @@ package ar.edu.itba.pod.server.repositories.counterRepository;
 
 import ar.edu.itba.pod.server.exceptions.*;
 import ar.edu.itba.pod.server.models.*;
+import ar.edu.itba.pod.server.repositories.CheckinRepository;
+import ar.edu.itba.pod.server.repositories.CheckinRepositoryImpl;
 import ar.edu.itba.pod.server.repositories.CounterRepository;
+import ar.edu.itba.pod.server.repositories.PassengerRepository;
+import ar.edu.itba.pod.server.repositories.PassengerRepositoryImpl;
 import ar.edu.itba.pod.server.utils.Pair;
 
 import org.junit.jupiter.api.Assertions;
@@ -19,6 +23,18 @@ public abstract class CounterRepositoryTest<T extends CounterRepository> {
 
     abstract T createCounterRepository();
 
+    // Sum of the positions reported by onMoved to each of 10 pending assignments of 1 counter,
+    // when 10 counters are freed at once
+    protected int[] expectedTimesMovedWhenAllPendingAreAssigned() {
+        // Every assignment notifies the ones still queued
+        // i = 0, pendingAhead = 0
+        // i = 1, pendingAhead = 0
+        // i = 2, pendingAhead = 1 + 0
+        // i = 3, pendingAhead = 2 + 1 + 0
+        // i = 4, pendingAhead = 3 + 2 + 1 + 0
+        return new int[] {0, 0, 1, 3, 6, 10, 15, 21, 28, 36};
+    }
+
     @BeforeEach
     public void setUp() {
         counterRepository = createCounterRepository();
@@ -107,6 +123,44 @@ public abstract class CounterRepositoryTest<T extends CounterRepository> {
                 NoSuchElementException.class, () -> counterRepository.addCounters("D", 5));
     }
 
+    @Test
+    public void testGetCountersPage() throws Exception {
+        counterRepository.addSector("D");
+        counterRepository.addSector("C");
+        counterRepository.addCounters("D", 3);
+        counterRepository.addCounters("C", 2);
+        counterRepository.addCounters("D", 2);
+        counterRepository.assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA123"), 2));
+
+        // Sector C first, then D by counter: C 4-5, D 1-2, D 3-3, D 6-7
+        List<Pair<CountersRange, String>> page =
+                counterRepository.getCountersPage(Optional.empty(), CounterCursor.START, Integer.MAX_VALUE, 2);
+        Assertions.assertEquals(List.of("C", "D"), page.stream().map(Pair::second).toList());
+        Assertions.assertEquals(
+                List.of(new Range(4, 5), new Range(1, 2)),
+                page.stream().map(entry -> entry.first().range()).toList());
+        Assertions.assertEquals("AmericanAirlines", page.get(1).first().assignedInfo().orElseThrow().airline());
+
+        CounterCursor after = CounterCursor.after(page.get(1).second(), page.get(1).first());
+        page = counterRepository.getCountersPage(Optional.empty(), after, Integer.MAX_VALUE, 2);
+        Assertions.assertEquals(
+                List.of(new Range(3, 3), new Range(6, 7)),
+                page.stream().map(entry -> entry.first().range()).toList());
+
+        after = CounterCursor.after(page.get(1).second(), page.get(1).first());
+        Assertions.assertEquals(
+                List.of(), counterRepository.getCountersPage(Optional.empty(), after, Integer.MAX_VALUE, 2));
+
+        // Only one sector and only the ranges that end by the given counter
+        page = counterRepository.getCountersPage(Optional.of("D"), CounterCursor.START, 5, 10);
+        Assertions.assertEquals(
+                List.of(new Range(1, 2), new Range(3, 3)),
+                page.stream().map(entry -> entry.first().range()).toList());
+
+        Assertions.assertEquals(
+                List.of(), counterRepository.getCountersPage(Optional.of("A"), CounterCursor.START, Integer.MAX_VALUE, 10));
+    }
+
     // ---- Assignments
     @Test
     public void testAssignCounterAssignment()
@@ -496,7 +550,7 @@ public abstract class CounterRepositoryTest<T extends CounterRepository> {
         counterRepository.assignCounterAssignment("D", assignmentD1);
 
         // Add a passenger to the queue
-        counterRepository.addPassengerToQueue(new Range(1, 2), "XYZ123");
+        counterRepository.addPassengerToQueue("D", new Range(1, 2), "XYZ123");
 
         Assertions.assertThrows(
                 HasPendingPassengersException.class,
@@ -775,13 +829,7 @@ public abstract class CounterRepositoryTest<T extends CounterRepository> {
             Assertions.assertEquals("AA" + i, countersRanges.get(i).assignedInfo().get().flights().get(0));
         }
 
-        // Expected timesMoved
-        // i = 0, pendingAhead = 0
-        // i = 1, pendingAhead = 0
-        // i = 2, pendingAhead = 1 + 0
-        // i = 3, pendingAhead = 2 + 1 + 0
-        // i = 4, pendingAhead = 3 + 2 + 1 + 0
-        int [] expectedTimesMoved = {0, 0, 1, 3, 6, 10, 15, 21, 28, 36};
+        int [] expectedTimesMoved = expectedTimesMovedWhenAllPendingAreAssigned();
 
         // Validate callback
         for (int i = 0; i < 10; i++) {
@@ -845,6 +893,48 @@ public abstract class CounterRepositoryTest<T extends CounterRepository> {
 
     // ---- Queues - Passengers
 
+    @Test
+    public void testArrivePassenger() throws Exception {
+        counterRepository.addSector("D");
+        counterRepository.addSector("C");
+        counterRepository.addCounters("C", 2);
+        counterRepository.addCounters("D", 3);
+        Range range =
+                counterRepository
+                        .assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA123"), 2))
+                        .first();
+
+        Assertions.assertThrows(
+                NoSuchElementException.class,
+                () -> counterRepository.arrivePassenger("A", range.from(), "AA123", "XYZ345", booking -> false));
+
+        // Other sector, other counter or a flight without counters
+        Assertions.assertEquals(
+                Optional.empty(), counterRepository.arrivePassenger("C", range.from(), "AA123", "XYZ345", booking -> false));
+        Assertions.assertEquals(
+                Optional.empty(), counterRepository.arrivePassenger("D", range.from() + 1, "AA123", "XYZ345", booking -> false));
+        Assertions.assertEquals(
+                Optional.empty(), counterRepository.arrivePassenger("D", range.from(), "AA999", "XYZ345", booking -> false));
+
+        Assertions.assertThrows(
+                PassengerAlreadyCheckedInException.class,
+                () -> counterRepository.arrivePassenger("D", range.from(), "AA123", "XYZ345", booking -> true));
+
+        Pair<Range, Integer> arrival =
+                counterRepository.arrivePassenger("D", range.from(), "AA123", "XYZ345", booking -> false).orElseThrow();
+        Assertions.assertEquals(range, arrival.first());
+        Assertions.assertEquals(1, arrival.second());
+
+        arrival = counterRepository.arrivePassenger("D", range.from(), "AA123", "XYZ346", booking -> false).orElseThrow();
+        Assertions.assertEquals(range, arrival.first());
+        Assertions.assertEquals(2, arrival.second());
+        Assertions.assertTrue(counterRepository.hasPassengerInCounter(range, "XYZ345"));
+
+        Assertions.assertThrows(
+                AlreadyExistsException.class,
+                () -> counterRepository.arrivePassenger("D", range.from(), "AA123", "XYZ345", booking -> false));
+    }
+
     @Test
     public void testAddPassengerToQueuePassengerAlreadyQueued() throws AlreadyExistsException, FlightAlreadyCheckedInException, FlightAlreadyAssignedException, FlightAlreadyQueuedException, HasPendingPassengersException {
 
@@ -859,12 +949,12 @@ public abstract class CounterRepositoryTest<T extends CounterRepository> {
         counterRepository.assignCounterAssignment("D", assignmentD1);
 
         // Add a passenger to the queue
-        counterRepository.addPassengerToQueue(new Range(1, 2), "XYZ123");
+        counterRepository.addPassengerToQueue("D", new Range(1, 2), "XYZ123");
 
         // Should fail because the passenger is already queued
         Assertions.assertThrows(
                 AlreadyExistsException.class,
-                () -> counterRepository.addPassengerToQueue(new Range(1, 2), "XYZ123"));
+                () -> counterRepository.addPassengerToQueue("D", new Range(1, 2), "XYZ123"));
     }
 
     @Test
@@ -876,7 +966,7 @@ public abstract class CounterRepositoryTest<T extends CounterRepository> {
 
         Assertions.assertThrows(
                 NoSuchElementException.class,
-                () -> counterRepository.addPassengerToQueue(new Range(2, 2), "XYZ123"));
+                () -> counterRepository.addPassengerToQueue("D", new Range(2, 2), "XYZ123"));
     }
 
     @Test
@@ -891,7 +981,7 @@ public abstract class CounterRepositoryTest<T extends CounterRepository> {
 
         // Add 10 passengers to the queue
         for (int i = 0; i < 10; i++) {
-            counterRepository.addPassengerToQueue(new Range(1, 2), "XYZ" + i);
+            counterRepository.addPassengerToQueue("D", new Range(1, 2), "XYZ" + i);
         }
 
         // Check that the passengers are in the queue
@@ -900,6 +990,35 @@ public abstract class CounterRepositoryTest<T extends CounterRepository> {
         }
     }
 
+    @Test
+    public void testFlightCountersFollowQueueSize() throws AlreadyExistsException, FlightAlreadyCheckedInException, FlightAlreadyAssignedException, FlightAlreadyQueuedException, UnauthorizedException {
+        counterRepository.addSector("C");
+        counterRepository.addSector("D");
+        counterRepository.addCounters("C", 2);
+        counterRepository.addCounters("D", 2);
+
+        counterRepository.assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA123", "AA124"), 2));
+
+        for (int i = 0; i < 3; i++) {
+            counterRepository.addPassengerToQueue("D", new Range(3, 4), "XYZ" + i);
+        }
+
+        for (String flight : List.of("AA123", "AA124")) {
+            Optional<Pair<CountersRange, String>> countersRangeAndSector =
+                    counterRepository.getFlightCountersAndSector(flight);
+            Assertions.assertTrue(countersRangeAndSector.isPresent());
+            Assertions.assertEquals("D", countersRangeAndSector.get().second());
+            Assertions.assertEquals(new Range(3, 4), countersRangeAndSector.get().first().range());
+            Assertions.assertEquals(3, countersRangeAndSector.get().first().assignedInfo().orElseThrow().passengersInQueue());
+        }
+
+        counterRepository.checkinCounters("D", 3, "AmericanAirlines");
+
+        Optional<CountersRange> countersRange = counterRepository.getFlightCounters("AA124");
+        Assertions.assertTrue(countersRange.isPresent());
+        Assertions.assertEquals(1, countersRange.get().assignedInfo().orElseThrow().passengersInQueue());
+    }
+
     @Test
     public void testCheckinCountersSectorNotFound() {
         Assertions.assertThrows(
@@ -926,6 +1045,78 @@ public abstract class CounterRepositoryTest<T extends CounterRepository> {
                 () -> counterRepository.checkinCounters("D", 2, "AmericanAirlines"));
     }
 
+    @Test
+    public void testCheckinCountersKeepsPassengersQueuedIfStoreFails() throws Exception {
+        counterRepository.addSector("D");
+        counterRepository.addCounters("D", 2);
+        Range range =
+                counterRepository
+                        .assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA123"), 2))
+                        .first();
+        for (int i = 0; i < 3; i++) {
+            counterRepository.addPassengerToQueue("D", range, "XYZ" + i);
+        }
+
+        Assertions.assertThrows(
+                AlreadyExistsException.class,
+                () ->
+                        counterRepository.checkinCounters(
+                                "D",
+                                range.from(),
+                                "AmericanAirlines",
+                                bookings -> {
+                                    Assertions.assertEquals(List.of(Optional.of("XYZ0"), Optional.of("XYZ1")), bookings);
+                                    throw new AlreadyExistsException("Checkin already exists");
+                                }));
+
+        // Nobody left the queue, the next checkin takes the same passengers
+        Assertions.assertEquals(
+                3, counterRepository.getFlightCounters("AA123").orElseThrow().assignedInfo().orElseThrow().passengersInQueue());
+        Assertions.assertTrue(counterRepository.hasPassengerInCounter(range, "XYZ0"));
+        Assertions.assertEquals(
+                List.of(Optional.of("XYZ0"), Optional.of("XYZ1")),
+                counterRepository.checkinCounters("D", range.from(), "AmericanAirlines"));
+        Assertions.assertEquals(
+                List.of(Optional.of("XYZ2"), Optional.empty()),
+                counterRepository.checkinCounters("D", range.from(), "AmericanAirlines"));
+    }
+
+    @Test
+    public void testCheckinSkipsBookingsQueuedAgainAfterTheirCheckin() throws Exception {
+        counterRepository.addSector("D");
+        counterRepository.addCounters("D", 2);
+        Range range =
+                counterRepository
+                        .assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA123"), 2))
+                        .first();
+
+        PassengerRepository passengerRepository = new PassengerRepositoryImpl();
+        passengerRepository.addPassenger(new Passenger("XYZ0", "AA123", "AmericanAirlines"));
+        passengerRepository.addPassenger(new Passenger("XYZ1", "AA123", "AmericanAirlines"));
+        CheckinRepository checkinRepository = new CheckinRepositoryImpl();
+        CounterRepository.CheckinStore store =
+                bookings ->
+                        checkinRepository.addCheckins(
+                                CheckinRepository.checkinsOf(
+                                        "D", range.from(), "AmericanAirlines", bookings, passengerRepository, checkinRepository));
+
+        counterRepository.addPassengerToQueue("D", range, "XYZ0");
+        counterRepository.checkinCounters("D", range.from(), "AmericanAirlines", store);
+
+        // Queued again after checking in, ahead of a passenger that was not
+        counterRepository.addPassengerToQueue("D", range, "XYZ0");
+        counterRepository.addPassengerToQueue("D", range, "XYZ1");
+        Assertions.assertEquals(
+                List.of(Optional.of("XYZ0"), Optional.of("XYZ1")),
+                counterRepository.checkinCounters("D", range.from(), "AmericanAirlines", store));
+
+        // The first checkin is kept, the passenger behind is checked in and nobody is left queued
+        Assertions.assertEquals(1, checkinRepository.getCheckin("XYZ0").orElseThrow().counter());
+        Assertions.assertEquals(2, checkinRepository.getCheckin("XYZ1").orElseThrow().counter());
+        Assertions.assertFalse(counterRepository.hasPassengerInCounter(range, "XYZ0"));
+        Assertions.assertDoesNotThrow(() -> counterRepository.freeCounters("D", range.from(), "AmericanAirlines"));
+    }
+
     @Test
     public void testCheckinCountersSuccess() throws AlreadyExistsException, FlightAlreadyCheckedInException, FlightAlreadyAssignedException, FlightAlreadyQueuedException, HasPendingPassengersException, UnauthorizedException {
 
@@ -946,7 +1137,7 @@ public abstract class CounterRepositoryTest<T extends CounterRepository> {
 
         // Add 5 passengers to the queue of 4 to 6
         for (int i = 0; i < 5; i++) {
-            counterRepository.addPassengerToQueue(new Range(4, 6), "XYZ" + i);
+            counterRepository.addPassengerToQueue("D", new Range(4, 6), "XYZ" + i);
         }
 
         // Checkin 4 to 6
@@ -3,7 +3,11 @@ package ar.edu.itba.pod.server.services;
 import static org.mockito.Mockito.*;
 
 import ar.edu.itba.pod.grpc.admin.AddCountersRequest;
+import ar.edu.itba.pod.grpc.admin.AddPassengerFailure;
+import ar.edu.itba.pod.grpc.admin.AddPassengerFailureReason;
 import ar.edu.itba.pod.grpc.admin.AddPassengerRequest;
+import ar.edu.itba.pod.grpc.admin.AddPassengersRequest;
+import ar.edu.itba.pod.grpc.admin.AddPassengersResponse;
 import ar.edu.itba.pod.grpc.admin.AddSectorRequest;
 import ar.edu.itba.pod.grpc.admin.AdminServiceGrpc;
 import ar.edu.itba.pod.grpc.common.CounterRange;
@@ -13,11 +17,14 @@ import ar.edu.itba.pod.server.models.Passenger;
 import ar.edu.itba.pod.server.models.Range;
 import ar.edu.itba.pod.server.repositories.CounterRepository;
 import ar.edu.itba.pod.server.repositories.PassengerRepository;
+import ar.edu.itba.pod.server.utils.Pair;
 
+import io.grpc.ManagedChannel;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
 import io.grpc.testing.GrpcCleanupRule;
 
 import org.junit.Before;
@@ -27,6 +34,8 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 @RunWith(JUnit4.class)
@@ -42,6 +51,7 @@ public class AdminServiceTest {
     private final PassengerRepository passengerRepository = mock(PassengerRepository.class);
 
     private AdminServiceGrpc.AdminServiceBlockingStub blockingStub;
+    private AdminServiceGrpc.AdminServiceStub stub;
 
     @Before
     public void setUp() throws Exception {
@@ -56,12 +66,12 @@ public class AdminServiceTest {
                         .build()
                         .start());
 
-        blockingStub =
-                AdminServiceGrpc.newBlockingStub(
-                        grpcCleanup.register(
-                                InProcessChannelBuilder.forName(serverName)
-                                        .directExecutor()
-                                        .build()));
+        ManagedChannel channel =
+                grpcCleanup.register(
+                        InProcessChannelBuilder.forName(serverName).directExecutor().build());
+
+        blockingStub = AdminServiceGrpc.newBlockingStub(channel);
+        stub = AdminServiceGrpc.newStub(channel);
     }
 
     @Test
@@ -281,4 +291,79 @@ public class AdminServiceTest {
 
         verify(passengerRepository).addPassenger(passenger);
     }
+
+    @Test
+    public void testAddPassengersBatch() {
+        Passenger passenger2 = new Passenger("777777", "AR1234", "LATAM");
+        Passenger passenger3 = new Passenger("888888", "AR1234", "Aerolineas Argentinas");
+
+        when(passengerRepository.addPassengers(anyList()))
+                .thenReturn(
+                        List.of(
+                                new Pair<Integer, Exception>(
+                                        1,
+                                        new FlightBelongsToOtherAirlineException(
+                                                "Flight belongs to another airline"))));
+
+        List<AddPassengersResponse> responses = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        StreamObserver<AddPassengersRequest> requestObserver =
+                stub.addPassengers(
+                        new StreamObserver<>() {
+                            @Override
+                            public void onNext(AddPassengersResponse response) {
+                                responses.add(response);
+                            }
+
+                            @Override
+                            public void onError(Throwable throwable) {
+                                errors.add(throwable);
+                            }
+
+                            @Override
+                            public void onCompleted() {}
+                        });
+
+        requestObserver.onNext(
+                AddPassengersRequest.newBuilder()
+                        .addPassengers(toRequest(passenger))
+                        .addPassengers(AddPassengerRequest.newBuilder().setBooking("999999"))
+                        .addPassengers(toRequest(passenger2))
+                        .addPassengers(toRequest(passenger3))
+                        .build());
+        requestObserver.onCompleted();
+
+        Assertions.assertTrue(errors.isEmpty());
+        Assertions.assertEquals(1, responses.size());
+
+        AddPassengersResponse response = responses.get(0);
+        Assertions.assertEquals(2, response.getAddedPassengers());
+        Assertions.assertEquals(2, response.getFailuresCount());
+
+        AddPassengerFailure invalid = response.getFailures(0);
+        Assertions.assertEquals(1, invalid.getIndex());
+        Assertions.assertEquals(
+                AddPassengerFailureReason.ADD_PASSENGER_FAILURE_REASON_INVALID_ARGUMENT,
+                invalid.getReason());
+
+        AddPassengerFailure otherAirline = response.getFailures(1);
+        Assertions.assertEquals(2, otherAirline.getIndex());
+        Assertions.assertEquals(passenger2.booking(), otherAirline.getPassenger().getBooking());
+        Assertions.assertEquals(
+                AddPassengerFailureReason
+                        .ADD_PASSENGER_FAILURE_REASON_FLIGHT_BELONGS_TO_OTHER_AIRLINE,
+                otherAirline.getReason());
+        Assertions.assertEquals(
+                "Flight belongs to another airline", otherAirline.getDescription());
+
+        verify(passengerRepository).addPassengers(List.of(passenger, passenger2, passenger3));
+    }
+
+    private static AddPassengerRequest toRequest(Passenger passenger) {
+        return AddPassengerRequest.newBuilder()
+                .setBooking(passenger.booking())
+                .setAirline(passenger.airline())
+                .setFlight(passenger.flight())
+                .build();
+    }
 }
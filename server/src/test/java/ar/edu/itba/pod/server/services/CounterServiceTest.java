@@ -27,6 +27,7 @@ import org.junit.Test;
 import org.junit.jupiter.api.Assertions;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
 
 import java.util.*;
 
@@ -293,6 +294,49 @@ public class CounterServiceTest {
         Assertions.assertTrue(response.getCountersList().isEmpty());
     }
 
+    @Test
+    public void testListCountersPaged() {
+        Sector sectorC = sectors.get(1);
+        List<Pair<CountersRange, String>> counters =
+                sectorC.countersRangeList().stream().map(countersRange -> new Pair<>(countersRange, "C")).toList();
+        CounterCursor afterFirst = CounterCursor.after("C", counters.get(0).first());
+
+        when(counterRepository.hasSector("C")).thenReturn(true);
+        // The first page starts right before the requested range
+        when(counterRepository.getCountersPage(Optional.of("C"), new CounterCursor("C", 1), 20, 2))
+                .thenReturn(counters.subList(0, 2));
+
+        ListCountersResponse response =
+                blockingStub.listCounters(
+                        ListCountersRequest.newBuilder()
+                                .setSectorName("C")
+                                .setCounterRange(CounterRange.newBuilder().setFrom(2).setTo(20).build())
+                                .setPageSize(1)
+                                .build());
+
+        Assertions.assertEquals(1, response.getCountersCount());
+        Assertions.assertEquals(
+                counters.get(0).first().range().from(), response.getCounters(0).getCounterRange().getFrom());
+        Assertions.assertEquals(afterFirst.toPageToken(), response.getNextPageToken());
+    }
+
+    @Test
+    public void testListCountersPagedTokenOfOtherSector() {
+        StatusRuntimeException exception =
+                Assertions.assertThrows(
+                        StatusRuntimeException.class,
+                        () ->
+                                blockingStub.listCounters(
+                                        ListCountersRequest.newBuilder()
+                                                .setSectorName("C")
+                                                .setCounterRange(CounterRange.newBuilder().setFrom(2).setTo(5).build())
+                                                .setPageSize(1)
+                                                .setPageToken(new CounterCursor("D", 3).toPageToken())
+                                                .build()));
+
+        Assertions.assertEquals(Status.INVALID_ARGUMENT.getCode(), exception.getStatus().getCode());
+    }
+
     @Test
     public void testAssignCountersNoAirline() {
         when(counterRepository.getSector("C")).thenReturn(Optional.of(sectors.get(1)));
@@ -1076,9 +1120,9 @@ public class CounterServiceTest {
 
     @Test
     public void testCheckinCountersCounterNotFound()
-            throws UnauthorizedException, NoSuchElementException {
+            throws UnauthorizedException, NoSuchElementException, AlreadyExistsException {
         when(counterRepository.hasSector("C")).thenReturn(true);
-        when(counterRepository.checkinCounters("C", 3, "AmericanAirlines"))
+        when(counterRepository.checkinCounters(eq("C"), eq(3), eq("AmericanAirlines"), any()))
                 .thenThrow(new NoSuchElementException("Counter not found"));
 
         StatusRuntimeException exception =
@@ -1100,9 +1144,9 @@ public class CounterServiceTest {
 
     @Test
     public void testCheckinCountersUnauthorized()
-            throws NoSuchElementException, UnauthorizedException {
+            throws NoSuchElementException, UnauthorizedException, AlreadyExistsException {
         when(counterRepository.hasSector("C")).thenReturn(true);
-        when(counterRepository.checkinCounters("C", 3, "AmericanAirlines"))
+        when(counterRepository.checkinCounters(eq("C"), eq(3), eq("AmericanAirlines"), any()))
                 .thenThrow(new UnauthorizedException("Unauthorized"));
 
         StatusRuntimeException exception =
@@ -1127,12 +1171,11 @@ public class CounterServiceTest {
     public void testCheckinCounters()
             throws NoSuchElementException, UnauthorizedException, AlreadyExistsException {
         when(counterRepository.hasSector("C")).thenReturn(true);
-        when(counterRepository.checkinCounters("C", 3, "AmericanAirlines"))
-                .thenReturn(List.of(Optional.of("XYZ345"), Optional.empty()));
+        when(counterRepository.checkinCounters(eq("C"), eq(3), eq("AmericanAirlines"), any()))
+                .thenAnswer(invocation -> storedCheckins(invocation, List.of(Optional.of("XYZ345"), Optional.empty())));
         when(passengerRepository.getPassenger("XYZ345"))
                 .thenReturn(Optional.of(new Passenger("XYZ345", "AA123", "AmericanAirlines")));
-        doNothing().when(checkinRepository).addCheckin(any(Checkin.class));
-        when(eventManager.notify(anyString(), any(RegisterResponse.class))).thenReturn(true);
+        when(eventManager.notifyAll(anyString(), anyList())).thenReturn(true);
 
         CheckinCountersRequest request =
                 CheckinCountersRequest.newBuilder()
@@ -1151,19 +1194,86 @@ public class CounterServiceTest {
         Assertions.assertEquals(3, response.getSuccessfulCheckins(0).getCounter());
 
         verify(checkinRepository)
-                .addCheckin(new Checkin("C", 3, "AmericanAirlines", "AA123", "XYZ345"));
+                .addCheckins(List.of(new Checkin("C", 3, "AmericanAirlines", "AA123", "XYZ345")));
         verify(eventManager)
-                .notify(
+                .notifyAll(
                         "AmericanAirlines",
-                        RegisterResponse.newBuilder()
-                                .setEventType(EventType.EVENT_TYPE_PASSENGER_CHECKED_IN)
-                                .setPassengerCheckedInInfo(
-                                        PassengerCheckedInInfo.newBuilder()
-                                                .setBooking("XYZ345")
-                                                .setFlight("AA123")
-                                                .setCounter(3)
-                                                .setSectorName("C")
-                                                .build())
+                        List.of(
+                                RegisterResponse.newBuilder()
+                                        .setEventType(EventType.EVENT_TYPE_PASSENGER_CHECKED_IN)
+                                        .setPassengerCheckedInInfo(
+                                                PassengerCheckedInInfo.newBuilder()
+                                                        .setBooking("XYZ345")
+                                                        .setFlight("AA123")
+                                                        .setCounter(3)
+                                                        .setSectorName("C")
+                                                        .build())
+                                        .build()));
+    }
+
+    @Test
+    public void testCheckinCountersSkipsPassengersAlreadyCheckedIn()
+            throws NoSuchElementException, UnauthorizedException, AlreadyExistsException {
+        when(counterRepository.hasSector("C")).thenReturn(true);
+        when(counterRepository.checkinCounters(eq("C"), eq(3), eq("AmericanAirlines"), any()))
+                .thenAnswer(
+                        invocation -> storedCheckins(invocation, List.of(Optional.of("XYZ345"), Optional.of("XYZ346"))));
+        when(passengerRepository.getPassenger("XYZ346"))
+                .thenReturn(Optional.of(new Passenger("XYZ346", "AA123", "AmericanAirlines")));
+        when(checkinRepository.hasCheckin("XYZ345")).thenReturn(true);
+        when(eventManager.notifyAll(anyString(), anyList())).thenReturn(true);
+
+        CheckinCountersResponse response =
+                blockingStub.checkinCounters(
+                        CheckinCountersRequest.newBuilder()
+                                .setSectorName("C")
+                                .setCounterFrom(3)
+                                .setAirline("AmericanAirlines")
                                 .build());
+
+        // The passenger queued again after its checkin only leaves the queue
+        Assertions.assertEquals(1, response.getSuccessfulCheckinsCount());
+        Assertions.assertEquals("XYZ346", response.getSuccessfulCheckins(0).getBooking());
+        Assertions.assertEquals(4, response.getSuccessfulCheckins(0).getCounter());
+        Assertions.assertEquals(0, response.getIdleCounterCount());
+        verify(checkinRepository)
+                .addCheckins(List.of(new Checkin("C", 4, "AmericanAirlines", "AA123", "XYZ346")));
+    }
+
+    @Test
+    public void testCheckinCountersKeepsPassengersQueuedIfCheckinsCanNotBeStored()
+            throws NoSuchElementException, UnauthorizedException, AlreadyExistsException {
+        when(counterRepository.hasSector("C")).thenReturn(true);
+        when(counterRepository.checkinCounters(eq("C"), eq(3), eq("AmericanAirlines"), any()))
+                .thenAnswer(invocation -> storedCheckins(invocation, List.of(Optional.of("XYZ345"))));
+        when(passengerRepository.getPassenger("XYZ345"))
+                .thenReturn(Optional.of(new Passenger("XYZ345", "AA123", "AmericanAirlines")));
+        doThrow(new AlreadyExistsException("Checkin already exists"))
+                .when(checkinRepository)
+                .addCheckins(anyList());
+
+        StatusRuntimeException exception =
+                Assertions.assertThrows(
+                        StatusRuntimeException.class,
+                        () ->
+                                blockingStub.checkinCounters(
+                                        CheckinCountersRequest.newBuilder()
+                                                .setSectorName("C")
+                                                .setCounterFrom(3)
+                                                .setAirline("AmericanAirlines")
+                                                .build()));
+
+        Assertions.assertEquals(Status.INTERNAL.getCode(), exception.getStatus().getCode());
+        Assertions.assertEquals(
+                "A passenger in the queue is already checked in", exception.getStatus().getDescription());
+        verify(eventManager, never()).notifyAll(anyString(), anyList());
+    }
+
+    // Hands the bookings to the store like the repository does, which fails if the store fails
+    private static List<Optional<String>> storedCheckins(
+            InvocationOnMock invocation, List<Optional<String>> bookings) throws AlreadyExistsException {
+        CounterRepository.CheckinStore store = invocation.getArgument(3);
+        store.store(bookings);
+        return bookings;
     }
 }
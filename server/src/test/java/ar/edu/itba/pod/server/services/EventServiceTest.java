@@ -3,11 +3,16 @@ package ar.edu.itba.pod.server.services;
 import static org.mockito.Mockito.*;
 
 import ar.edu.itba.pod.grpc.events.*;
+import ar.edu.itba.pod.server.events.EventFilter;
 import ar.edu.itba.pod.server.events.EventManager;
+import ar.edu.itba.pod.server.events.PublishedEvent;
+import ar.edu.itba.pod.server.events.SubscriptionOptions;
 import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
+import ar.edu.itba.pod.server.exceptions.SequenceNotAvailableException;
 import ar.edu.itba.pod.server.repositories.PassengerRepository;
 
 import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
@@ -22,7 +27,13 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
@@ -129,7 +140,8 @@ public class EventServiceTest {
 
     @Test
     public void testRegisterAlreadyExists()
-            throws AlreadyExistsException, ExecutionException, InterruptedException {
+            throws AlreadyExistsException, SequenceNotAvailableException, ExecutionException,
+                    InterruptedException {
 
         final CompletableFuture<Status> errorStatus = new CompletableFuture<>();
         StreamObserver<RegisterResponse> responseObserver =
@@ -153,7 +165,7 @@ public class EventServiceTest {
         when(passengerRepository.hasAirline("Iberia")).thenReturn(true);
         doThrow(AlreadyExistsException.class)
                 .when(eventManager)
-                .register(any(String.class), any(StreamObserver.class));
+                .register(any(String.class), any(StreamObserver.class), any(SubscriptionOptions.class));
 
         asyncStub.register(
                 RegisterRequest.newBuilder().setAirline("Iberia").build(), responseObserver);
@@ -200,7 +212,7 @@ public class EventServiceTest {
     }
 
     @Test
-    public void testRegister() throws AlreadyExistsException {
+    public void testRegister() throws AlreadyExistsException, SequenceNotAvailableException {
         CompletableFuture<EventType> eventType = new CompletableFuture<>();
         StreamObserver<RegisterResponse> responseObserver =
                 new StreamObserver<>() {
@@ -221,7 +233,18 @@ public class EventServiceTest {
                 };
 
         when(passengerRepository.hasAirline("Iberia")).thenReturn(true);
-        doNothing().when(eventManager).register(any(String.class), any(StreamObserver.class));
+
+        // The registration event is sent by the manager, before any other event
+        doAnswer(invocation -> {
+                    StreamObserver<RegisterResponse> eventStream = invocation.getArgument(1);
+                    eventStream.onNext(
+                            RegisterResponse.newBuilder()
+                                    .setEventType(EventType.EVENT_TYPE_AIRLINE_REGISTERED)
+                                    .build());
+                    return null;
+                })
+                .when(eventManager)
+                .register(eq("Iberia"), any(StreamObserver.class), eq(SubscriptionOptions.DEFAULT));
 
         asyncStub.register(
                 RegisterRequest.newBuilder().setAirline("Iberia").build(), responseObserver);
@@ -232,4 +255,233 @@ public class EventServiceTest {
 
         Assertions.assertEquals(EventType.EVENT_TYPE_AIRLINE_REGISTERED, type);
     }
+
+    @Test
+    public void testRegisterCoalescing()
+            throws AlreadyExistsException, SequenceNotAvailableException {
+        when(passengerRepository.hasAirline("Iberia")).thenReturn(true);
+
+        asyncStub.register(
+                RegisterRequest.newBuilder()
+                        .setAirline("Iberia")
+                        .setCoalesce(true)
+                        .setCoalesceWindowMillis(250)
+                        .build(),
+                new StreamObserver<>() {
+                    @Override
+                    public void onNext(RegisterResponse value) {}
+
+                    @Override
+                    public void onError(Throwable t) {}
+
+                    @Override
+                    public void onCompleted() {}
+                });
+
+        verify(eventManager)
+                .register(
+                        eq("Iberia"),
+                        any(StreamObserver.class),
+                        eq(new SubscriptionOptions(Duration.ofMillis(250), 0, EventFilter.ALL)));
+
+        channel.shutdownNow();
+    }
+
+    @Test
+    public void testRegisterNegativeCoalesceWindow() {
+        StatusRuntimeException exception =
+                Assertions.assertThrows(
+                        StatusRuntimeException.class,
+                        () ->
+                                blockingStub
+                                        .register(
+                                                RegisterRequest.newBuilder()
+                                                        .setAirline("Iberia")
+                                                        .setCoalesce(true)
+                                                        .setCoalesceWindowMillis(-1)
+                                                        .build())
+                                        .hasNext());
+
+        Assertions.assertEquals(Status.INVALID_ARGUMENT.getCode(), exception.getStatus().getCode());
+    }
+
+    @Test
+    public void testRegisterResumeNotAvailable()
+            throws AlreadyExistsException, SequenceNotAvailableException {
+        when(passengerRepository.hasAirline("Iberia")).thenReturn(true);
+        doThrow(new SequenceNotAvailableException("The events from sequence 3 are no longer available"))
+                .when(eventManager)
+                .register(
+                        eq("Iberia"),
+                        any(StreamObserver.class),
+                        eq(new SubscriptionOptions(Duration.ZERO, 3, EventFilter.ALL)));
+
+        StatusRuntimeException exception =
+                Assertions.assertThrows(
+                        StatusRuntimeException.class,
+                        () ->
+                                blockingStub
+                                        .register(
+                                                RegisterRequest.newBuilder()
+                                                        .setAirline("Iberia")
+                                                        .setResumeFromSequence(3)
+                                                        .build())
+                                        .hasNext());
+
+        Assertions.assertEquals(Status.OUT_OF_RANGE.getCode(), exception.getStatus().getCode());
+        Assertions.assertEquals(
+                "The events from sequence 3 are no longer available",
+                exception.getStatus().getDescription());
+    }
+
+    @Test
+    public void testRegisterResponsesAreSerializedOnce() throws Exception {
+        EventsService eventsService = new EventsService(passengerRepository, eventManager);
+        MethodDescriptor.Marshaller<?> marshaller =
+                eventsService
+                        .bindWithSharedSerialization()
+                        .getMethod(EventsServiceGrpc.getRegisterMethod().getFullMethodName())
+                        .getMethodDescriptor()
+                        .getResponseMarshaller();
+        Assertions.assertInstanceOf(SharedEventMarshaller.class, marshaller);
+
+        SharedEventMarshaller eventMarshaller = (SharedEventMarshaller) marshaller;
+        RegisterResponse event =
+                RegisterResponse.newBuilder()
+                        .setEventType(EventType.EVENT_TYPE_PASSENGER_CHECKED_IN)
+                        .setPassengerCheckedInInfo(
+                                PassengerCheckedInInfo.newBuilder()
+                                        .setBooking("XYZ345")
+                                        .setFlight("AA123")
+                                        .setSectorName("C")
+                                        .setCounter(3))
+                        .setSequence(12)
+                        .build();
+
+        // Two streams writing the same published event, the marshaller runs inside onNext
+        PublishedEvent published = new PublishedEvent(event);
+        List<byte[]> written = new ArrayList<>();
+        StreamObserver<RegisterResponse> stream =
+                new StreamObserver<>() {
+                    @Override
+                    public void onNext(RegisterResponse value) {
+                        Assertions.assertSame(PublishedEvent.serialized(value), PublishedEvent.serialized(value));
+                        try {
+                            written.add(eventMarshaller.stream(value).readAllBytes());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        written.add(PublishedEvent.serialized(value));
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {}
+
+                    @Override
+                    public void onCompleted() {}
+                };
+        published.writeTo(stream);
+        published.writeTo(stream);
+
+        Assertions.assertArrayEquals(event.toByteArray(), written.get(0));
+        Assertions.assertArrayEquals(written.get(0), written.get(2));
+        Assertions.assertSame(written.get(1), written.get(3));
+        Assertions.assertEquals(event, eventMarshaller.parse(eventMarshaller.stream(event)));
+    }
+
+    @Test
+    public void testRegisterFilters() throws AlreadyExistsException, SequenceNotAvailableException {
+        when(passengerRepository.hasAirline("Iberia")).thenReturn(true);
+
+        asyncStub.register(
+                RegisterRequest.newBuilder()
+                        .setAirline("Iberia")
+                        .addEventTypes(EventType.EVENT_TYPE_PASSENGER_CHECKED_IN)
+                        .addFlights("IB123")
+                        .addFlights("IB124")
+                        .build(),
+                new StreamObserver<>() {
+                    @Override
+                    public void onNext(RegisterResponse value) {}
+
+                    @Override
+                    public void onError(Throwable t) {}
+
+                    @Override
+                    public void onCompleted() {}
+                });
+
+        verify(eventManager)
+                .register(
+                        eq("Iberia"),
+                        any(StreamObserver.class),
+                        eq(
+                                new SubscriptionOptions(
+                                        Duration.ZERO,
+                                        0,
+                                        new EventFilter(
+                                                Set.of(EventType.EVENT_TYPE_PASSENGER_CHECKED_IN),
+                                                Set.of("IB123", "IB124"),
+                                                Set.of()))));
+
+        channel.shutdownNow();
+    }
+
+    @Test
+    public void testRegisterFiltersDiscardedAssignations() throws AlreadyExistsException, SequenceNotAvailableException {
+        when(passengerRepository.hasAirline("Iberia")).thenReturn(true);
+
+        asyncStub.register(
+                RegisterRequest.newBuilder()
+                        .setAirline("Iberia")
+                        .addEventTypes(EventType.EVENT_TYPE_ASSIGNATION_PENDING)
+                        .addEventTypes(EventType.EVENT_TYPE_ASSIGNATION_DISCARDED)
+                        .build(),
+                new StreamObserver<>() {
+                    @Override
+                    public void onNext(RegisterResponse value) {}
+
+                    @Override
+                    public void onError(Throwable t) {}
+
+                    @Override
+                    public void onCompleted() {}
+                });
+
+        verify(eventManager)
+                .register(
+                        eq("Iberia"),
+                        any(StreamObserver.class),
+                        eq(
+                                new SubscriptionOptions(
+                                        Duration.ZERO,
+                                        0,
+                                        new EventFilter(
+                                                Set.of(
+                                                        EventType.EVENT_TYPE_ASSIGNATION_PENDING,
+                                                        EventType.EVENT_TYPE_ASSIGNATION_DISCARDED),
+                                                Set.of(),
+                                                Set.of()))));
+
+        channel.shutdownNow();
+    }
+
+    @Test
+    public void testRegisterFilterNotNotifiedEventType() {
+        when(passengerRepository.hasAirline("Iberia")).thenReturn(true);
+
+        StatusRuntimeException exception =
+                Assertions.assertThrows(
+                        StatusRuntimeException.class,
+                        () ->
+                                blockingStub
+                                        .register(
+                                                RegisterRequest.newBuilder()
+                                                        .setAirline("Iberia")
+                                                        .addEventTypes(EventType.EVENT_TYPE_BATCH)
+                                                        .build())
+                                        .hasNext());
+
+        Assertions.assertEquals(Status.INVALID_ARGUMENT.getCode(), exception.getStatus().getCode());
+    }
 }
@@ -9,6 +9,7 @@ import ar.edu.itba.pod.grpc.events.RegisterResponse;
 import ar.edu.itba.pod.grpc.passenger.*;
 import ar.edu.itba.pod.server.events.EventManager;
 import ar.edu.itba.pod.server.exceptions.AlreadyExistsException;
+import ar.edu.itba.pod.server.exceptions.PassengerAlreadyCheckedInException;
 import ar.edu.itba.pod.server.models.*;
 import ar.edu.itba.pod.server.repositories.CheckinRepository;
 import ar.edu.itba.pod.server.repositories.CounterRepository;
@@ -29,6 +30,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 
 @RunWith(JUnit4.class)
@@ -220,9 +222,10 @@ public class PassengerServiceTest {
     }
 
     @Test
-    public void testPassengerCheckinSectorNotFound() {
+    public void testPassengerCheckinSectorNotFound() throws Exception {
         when(passengerRepository.getPassenger("XYZ345")).thenReturn(Optional.of(passenger));
-        when(counterRepository.hasSector("A")).thenReturn(false);
+        when(counterRepository.arrivePassenger(eq("A"), eq(3), eq("AA123"), eq("XYZ345"), any()))
+                .thenThrow(new NoSuchElementException("Sector does not exist"));
 
         StatusRuntimeException exception =
                 Assertions.assertThrows(
@@ -241,10 +244,10 @@ public class PassengerServiceTest {
     }
 
     @Test
-    public void testPassengerCheckinCounterNotFound() {
+    public void testPassengerCheckinCounterNotFound() throws Exception {
         when(passengerRepository.getPassenger("XYZ345")).thenReturn(Optional.of(passenger));
-        when(counterRepository.hasSector("A")).thenReturn(true);
-        when(counterRepository.getFlightCounters("AA123")).thenReturn(Optional.empty());
+        when(counterRepository.arrivePassenger(eq("A"), eq(3), eq("AA123"), eq("XYZ345"), any()))
+                .thenReturn(Optional.empty());
 
         StatusRuntimeException exception =
                 Assertions.assertThrows(
@@ -264,10 +267,11 @@ public class PassengerServiceTest {
     }
 
     @Test
-    public void testPassengerCheckinCounterInvalid() {
+    public void testPassengerCheckinCounterInvalid() throws Exception {
         when(passengerRepository.getPassenger("XYZ345")).thenReturn(Optional.of(passenger));
-        when(counterRepository.hasSector("A")).thenReturn(true);
-        when(counterRepository.getFlightCounters("AA123")).thenReturn(Optional.of(countersRange));
+        // The flight counters start at 3
+        when(counterRepository.arrivePassenger(eq("A"), eq(4), eq("AA123"), eq("XYZ345"), any()))
+                .thenReturn(Optional.empty());
 
         StatusRuntimeException exception =
                 Assertions.assertThrows(
@@ -287,11 +291,9 @@ public class PassengerServiceTest {
     }
 
     @Test
-    public void testPassengerCheckinAlreadyInQueue() throws AlreadyExistsException {
+    public void testPassengerCheckinAlreadyInQueue() throws Exception {
         when(passengerRepository.getPassenger("XYZ345")).thenReturn(Optional.of(passenger));
-        when(counterRepository.hasSector("A")).thenReturn(true);
-        when(counterRepository.getFlightCounters("AA123")).thenReturn(Optional.of(countersRange));
-        when(counterRepository.addPassengerToQueue(countersRange.range(), "XYZ345"))
+        when(counterRepository.arrivePassenger(eq("A"), eq(3), eq("AA123"), eq("XYZ345"), any()))
                 .thenThrow(new AlreadyExistsException("Passenger is already waiting in counter queue"));
 
         StatusRuntimeException exception =
@@ -312,13 +314,10 @@ public class PassengerServiceTest {
     }
 
     @Test
-    public void testPassengerAlreadyCheckedIn() {
+    public void testPassengerAlreadyCheckedIn() throws Exception {
         when(passengerRepository.getPassenger("XYZ345")).thenReturn(Optional.of(passenger));
-        when(counterRepository.hasSector("A")).thenReturn(true);
-        when(counterRepository.getFlightCounters("AA123")).thenReturn(Optional.of(countersRange));
-        when(counterRepository.hasPassengerInCounter(countersRange.range(), "XYZ345"))
-                .thenReturn(false);
-        when(checkinRepository.hasCheckin("XYZ345")).thenReturn(true);
+        when(counterRepository.arrivePassenger(eq("A"), eq(3), eq("AA123"), eq("XYZ345"), any()))
+                .thenThrow(new PassengerAlreadyCheckedInException("Passenger already checked in"));
 
         StatusRuntimeException exception =
                 Assertions.assertThrows(
@@ -337,15 +336,14 @@ public class PassengerServiceTest {
     }
 
     @Test
-    public void testPassengerCheckinSuccess() throws AlreadyExistsException {
+    public void testPassengerCheckinSuccess() throws Exception {
         when(passengerRepository.getPassenger("XYZ345")).thenReturn(Optional.of(passenger));
-        when(counterRepository.hasSector("A")).thenReturn(true);
-        when(counterRepository.getFlightCounters("AA123")).thenReturn(Optional.of(countersRange));
-        when(counterRepository.hasPassengerInCounter(countersRange.range(), "XYZ345"))
-                .thenReturn(false);
-        when(checkinRepository.hasCheckin("XYZ345")).thenReturn(false);
-        when(counterRepository.addPassengerToQueue(countersRange.range(), "XYZ345"))
-                .thenReturn(countersRange.assignedInfo().get().passengersInQueue());
+        when(counterRepository.arrivePassenger(eq("A"), eq(3), eq("AA123"), eq("XYZ345"), any()))
+                .thenReturn(
+                        Optional.of(
+                                new Pair<>(
+                                        countersRange.range(),
+                                        countersRange.assignedInfo().get().passengersInQueue())));
         when(eventManager.notify(any(), any())).thenReturn(true);
 
         PassengerCheckinResponse response =
@@ -1,6 +1,5 @@
 package ar.edu.itba.pod.server.services;
 
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -8,6 +7,7 @@ import ar.edu.itba.pod.grpc.query.*;
 import ar.edu.itba.pod.server.models.*;
 import ar.edu.itba.pod.server.repositories.CheckinRepository;
 import ar.edu.itba.pod.server.repositories.CounterRepository;
+import ar.edu.itba.pod.server.utils.Pair;
 
 import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
@@ -21,6 +21,9 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Predicate;
@@ -99,12 +102,7 @@ public class QueryServiceTest {
 
     @Test
     public void testCheckinsNoFilter() {
-        when(checkinRepository.getCheckins(any()))
-                .then(
-                        invocation -> {
-                            Predicate<Checkin> predicate = invocation.getArgument(0);
-                            return checkins.stream().filter(predicate).toList();
-                        });
+        when(checkinRepository.getCheckins()).thenReturn(checkins);
         when(checkinRepository.hasCheckins()).thenReturn(true);
 
         // Test the service with no filters
@@ -125,12 +123,8 @@ public class QueryServiceTest {
 
     @Test
     public void testCheckinsFilterSector() {
-        when(checkinRepository.getCheckins(any()))
-                .then(
-                        invocation -> {
-                            Predicate<Checkin> predicate = invocation.getArgument(0);
-                            return checkins.stream().filter(predicate).toList();
-                        });
+        when(checkinRepository.getCheckinsBySector("C"))
+                .thenReturn(filter(checkin -> checkin.sector().equals("C")));
         when(checkinRepository.hasCheckins()).thenReturn(true);
 
         // Test the service with a sector filter
@@ -152,12 +146,8 @@ public class QueryServiceTest {
 
     @Test
     public void testCheckinsFilterAirline() {
-        when(checkinRepository.getCheckins(any()))
-                .then(
-                        invocation -> {
-                            Predicate<Checkin> predicate = invocation.getArgument(0);
-                            return checkins.stream().filter(predicate).toList();
-                        });
+        when(checkinRepository.getCheckinsByAirline("AirCanada"))
+                .thenReturn(filter(checkin -> checkin.airline().equals("AirCanada")));
         when(checkinRepository.hasCheckins()).thenReturn(true);
 
         // Test the service with an airline filter
@@ -177,12 +167,12 @@ public class QueryServiceTest {
 
     @Test
     public void testCheckinsFilterSectorAndAirline() {
-        when(checkinRepository.getCheckins(any()))
-                .then(
-                        invocation -> {
-                            Predicate<Checkin> predicate = invocation.getArgument(0);
-                            return checkins.stream().filter(predicate).toList();
-                        });
+        when(checkinRepository.getCheckinsBySectorAndAirline("C", "AmericanAirlines"))
+                .thenReturn(
+                        filter(
+                                checkin ->
+                                        checkin.sector().equals("C")
+                                                && checkin.airline().equals("AmericanAirlines")));
         when(checkinRepository.hasCheckins()).thenReturn(true);
 
         // Test the service with a sector and airline filter
@@ -209,12 +199,12 @@ public class QueryServiceTest {
 
     @Test
     public void testCheckinsFilterSectorAndAirlineEmpty() {
-        when(checkinRepository.getCheckins(any()))
-                .then(
-                        invocation -> {
-                            Predicate<Checkin> predicate = invocation.getArgument(0);
-                            return checkins.stream().filter(predicate).toList();
-                        });
+        when(checkinRepository.getCheckinsBySectorAndAirline("C", "AirCanada"))
+                .thenReturn(
+                        filter(
+                                checkin ->
+                                        checkin.sector().equals("C")
+                                                && checkin.airline().equals("AirCanada")));
         when(checkinRepository.hasCheckins()).thenReturn(true);
 
         // Test the service with a sector and airline filter
@@ -229,6 +219,81 @@ public class QueryServiceTest {
         Assertions.assertEquals(0, response.getCheckinsCount());
     }
 
+    @Test
+    public void testStreamCheckinsNoCheckins() {
+        when(checkinRepository.hasCheckins()).thenReturn(false);
+
+        StatusRuntimeException exception =
+                Assertions.assertThrows(
+                        io.grpc.StatusRuntimeException.class,
+                        () -> blockingStub.streamCheckins(CheckinsRequest.newBuilder().build()).hasNext());
+
+        Assertions.assertEquals(
+                io.grpc.Status.NOT_FOUND.getCode(), exception.getStatus().getCode());
+    }
+
+    @Test
+    public void testStreamCheckinsFilterSector() {
+        when(checkinRepository.iterateCheckinsBySector("C"))
+                .thenReturn(filter(checkin -> checkin.sector().equals("C")).iterator());
+        when(checkinRepository.hasCheckins()).thenReturn(true);
+
+        Iterator<CheckinsResponse> responses =
+                blockingStub.streamCheckins(CheckinsRequest.newBuilder().setSectorName("C").build());
+
+        List<CheckinInfo> checkinInfos = responses.next().getCheckinsList();
+        Assertions.assertFalse(responses.hasNext());
+        Assertions.assertEquals(2, checkinInfos.size());
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertEquals(checkins.get(i).booking(), checkinInfos.get(i).getBooking());
+            Assertions.assertEquals(checkins.get(i).counter(), checkinInfos.get(i).getCounter());
+        }
+    }
+
+    @Test
+    public void testStreamCheckinsInChunks() {
+        int checkinCount = QueryService.CHECKINS_CHUNK_SIZE * 2 + 7;
+        List<Checkin> manyCheckins = new ArrayList<>();
+        for (int i = 0; i < checkinCount; i++) {
+            manyCheckins.add(new Checkin("C", 1 + i % 3, "AmericanAirlines", "AA123", "B" + i));
+        }
+        when(checkinRepository.iterateCheckins()).thenReturn(manyCheckins.iterator());
+        when(checkinRepository.hasCheckins()).thenReturn(true);
+
+        Iterator<CheckinsResponse> responses =
+                blockingStub.streamCheckins(CheckinsRequest.newBuilder().build());
+
+        List<Integer> chunkSizes = new ArrayList<>();
+        List<String> bookings = new ArrayList<>();
+        responses.forEachRemaining(
+                response -> {
+                    chunkSizes.add(response.getCheckinsCount());
+                    response.getCheckinsList().forEach(info -> bookings.add(info.getBooking()));
+                });
+
+        Assertions.assertEquals(
+                List.of(QueryService.CHECKINS_CHUNK_SIZE, QueryService.CHECKINS_CHUNK_SIZE, 7),
+                chunkSizes);
+        Assertions.assertEquals(manyCheckins.stream().map(Checkin::booking).toList(), bookings);
+    }
+
+    @Test
+    public void testStreamCheckinsFilterSectorAndAirlineEmpty() {
+        when(checkinRepository.iterateCheckinsBySectorAndAirline("C", "AirCanada"))
+                .thenReturn(Collections.emptyIterator());
+        when(checkinRepository.hasCheckins()).thenReturn(true);
+
+        Iterator<CheckinsResponse> responses =
+                blockingStub.streamCheckins(
+                        CheckinsRequest.newBuilder()
+                                .setSectorName("C")
+                                .setAirline("AirCanada")
+                                .build());
+
+        // No chunks, just the end of the stream
+        Assertions.assertFalse(responses.hasNext());
+    }
+
     @Test
     public void testCountersNoCounters() {
         when(counterRepository.hasCounters()).thenReturn(false);
@@ -327,4 +392,63 @@ public class QueryServiceTest {
         // Empty response
         Assertions.assertEquals(0, response.getCountersCount());
     }
+
+    @Test
+    public void testCountersPaged() {
+        when(counterRepository.hasCounters()).thenReturn(true);
+
+        List<Pair<CountersRange, String>> allCounters = new ArrayList<>();
+        for (Sector sector : sectors) {
+            sector.countersRangeList().forEach(countersRange -> allCounters.add(new Pair<>(countersRange, sector.sectorName())));
+        }
+        Pair<CountersRange, String> second = allCounters.get(1);
+        CounterCursor afterSecond = CounterCursor.after(second.second(), second.first());
+
+        // The service asks for one more than the page size
+        when(counterRepository.getCountersPage(Optional.empty(), CounterCursor.START, Integer.MAX_VALUE, 3))
+                .thenReturn(allCounters.subList(0, 3));
+        when(counterRepository.getCountersPage(Optional.empty(), afterSecond, Integer.MAX_VALUE, 3))
+                .thenReturn(allCounters.subList(2, 3));
+
+        CountersResponse response =
+                blockingStub.counters(CountersRequest.newBuilder().setPageSize(2).build());
+
+        Assertions.assertEquals(2, response.getCountersCount());
+        Assertions.assertEquals(second.second(), response.getCounters(1).getSectorName());
+        Assertions.assertEquals(second.first().range().from(), response.getCounters(1).getCounters().getFrom());
+        Assertions.assertEquals(afterSecond.toPageToken(), response.getNextPageToken());
+
+        response =
+                blockingStub.counters(
+                        CountersRequest.newBuilder()
+                                .setPageSize(2)
+                                .setPageToken(response.getNextPageToken())
+                                .build());
+
+        Assertions.assertEquals(1, response.getCountersCount());
+        Assertions.assertEquals(allCounters.get(2).first().range().from(), response.getCounters(0).getCounters().getFrom());
+        Assertions.assertTrue(response.getNextPageToken().isEmpty());
+    }
+
+    @Test
+    public void testCountersPagedInvalidToken() {
+        when(counterRepository.hasCounters()).thenReturn(true);
+
+        StatusRuntimeException exception =
+                Assertions.assertThrows(
+                        StatusRuntimeException.class,
+                        () ->
+                                blockingStub.counters(
+                                        CountersRequest.newBuilder()
+                                                .setPageSize(2)
+                                                .setPageToken("not a token")
+                                                .build()));
+
+        Assertions.assertEquals(
+                io.grpc.Status.INVALID_ARGUMENT.getCode(), exception.getStatus().getCode());
+    }
+
+    private List<Checkin> filter(Predicate<Checkin> predicate) {
+        return checkins.stream().filter(predicate).toList();
+    }
 }
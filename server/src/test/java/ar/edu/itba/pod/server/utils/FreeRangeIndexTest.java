@@ -0,0 +1,59 @@
+package ar.edu.itba.pod.server.utils;
+
+import ar.edu.itba.pod.server.models.Range;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class FreeRangeIndexTest {
+
+    @Test
+    public void testFirstFitReturnsLowestRangeThatFits() {
+        FreeRangeIndex index = new FreeRangeIndex();
+        index.add(new Range(1, 2));
+        index.add(new Range(10, 14));
+        index.add(new Range(5, 7));
+        index.add(new Range(20, 29));
+
+        Assertions.assertEquals(Optional.of(new Range(1, 2)), index.firstFit(1));
+        Assertions.assertEquals(Optional.of(new Range(5, 7)), index.firstFit(3));
+        Assertions.assertEquals(Optional.of(new Range(10, 14)), index.firstFit(4));
+        Assertions.assertEquals(Optional.of(new Range(20, 29)), index.firstFit(6));
+        Assertions.assertEquals(Optional.empty(), index.firstFit(11));
+
+        index.remove(new Range(10, 14));
+        Assertions.assertEquals(Optional.of(new Range(20, 29)), index.firstFit(4));
+        Assertions.assertEquals(3, index.size());
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+        Random random = new Random(42);
+        FreeRangeIndex index = new FreeRangeIndex();
+        TreeMap<Integer, Range> ranges = new TreeMap<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            int from = random.nextInt(100_000) * 10;
+            if (ranges.containsKey(from)) {
+                index.remove(ranges.remove(from));
+            } else {
+                Range range = new Range(from, from + random.nextInt(10));
+                ranges.put(from, range);
+                index.add(range);
+            }
+
+            int length = 1 + random.nextInt(10);
+            Optional<Range> expected =
+                    ranges.values().stream()
+                            .filter(range -> range.to() - range.from() + 1 >= length)
+                            .findFirst();
+            Assertions.assertEquals(expected, index.firstFit(length));
+        }
+
+        Assertions.assertEquals(ranges.size(), index.size());
+    }
+}
@@ -0,0 +1,82 @@
+package ar.edu.itba.pod.server.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class InstrumentedStampedLockTest {
+
+    @Test
+    public void testUncontendedReadsAreOptimistic() {
+        InstrumentedStampedLock lock = new InstrumentedStampedLock();
+
+        for (int i = 0; i < 10; i++) {
+            int expected = i;
+            Assertions.assertEquals(expected, lock.optimisticRead(() -> expected));
+        }
+
+        Assertions.assertEquals(10, lock.optimisticStats().acquisitions());
+        Assertions.assertEquals(0, lock.readLock().stats().acquisitions());
+    }
+
+    @Test
+    public void testReadOverlappingAWriteFallsBackToTheReadLock() throws Exception {
+        InstrumentedStampedLock lock = new InstrumentedStampedLock();
+        int[] value = {0};
+
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        Thread writer =
+                new Thread(
+                        () -> {
+                            try {
+                                reading.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            lock.writeLock().lock();
+                            try {
+                                value[0] = 1;
+                            } finally {
+                                lock.writeLock().unlock();
+                            }
+                            written.countDown();
+                        });
+        writer.start();
+
+        // The first run sees the old value and fails validation, the locked run sees the new one
+        int read =
+                lock.optimisticRead(
+                        () -> {
+                            int seen = value[0];
+                            if (reading.getCount() > 0) {
+                                reading.countDown();
+                                try {
+                                    written.await();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                            return seen;
+                        });
+        writer.join();
+
+        Assertions.assertEquals(1, read);
+        Assertions.assertEquals(0, lock.optimisticStats().acquisitions());
+        Assertions.assertEquals(1, lock.readLock().stats().acquisitions());
+    }
+
+    @Test
+    public void testExceptionsOfValidReadsArePropagated() {
+        InstrumentedStampedLock lock = new InstrumentedStampedLock();
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        lock.optimisticRead(
+                                () -> {
+                                    throw new IllegalArgumentException();
+                                }));
+    }
+}
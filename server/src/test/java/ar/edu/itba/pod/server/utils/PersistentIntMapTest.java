@@ -0,0 +1,64 @@
+package ar.edu.itba.pod.server.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class PersistentIntMapTest {
+
+    @Test
+    public void testOldVersionsDoNotChange() {
+        PersistentIntMap<String> empty = PersistentIntMap.empty();
+        PersistentIntMap<String> one = empty.put(1, "a");
+        PersistentIntMap<String> two = one.put(5, "b");
+        PersistentIntMap<String> replaced = two.put(1, "c");
+        PersistentIntMap<String> removed = replaced.remove(5);
+
+        Assertions.assertEquals(List.of(), values(empty.values()));
+        Assertions.assertEquals(List.of("a"), values(one.values()));
+        Assertions.assertEquals(List.of("a", "b"), values(two.values()));
+        Assertions.assertEquals(List.of("c", "b"), values(replaced.values()));
+        Assertions.assertEquals(List.of("c"), values(removed.values()));
+        Assertions.assertEquals(2, replaced.size());
+        Assertions.assertSame(removed, removed.remove(5));
+    }
+
+    @Test
+    public void testMatchesTreeMap() {
+        Random random = new Random(42);
+        PersistentIntMap<Integer> map = PersistentIntMap.empty();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(2_000);
+            if (random.nextBoolean()) {
+                map = map.put(key, i);
+                expected.put(key, i);
+            } else {
+                map = map.remove(key);
+                expected.remove(key);
+            }
+
+            int probe = random.nextInt(2_100) - 50;
+            Assertions.assertEquals(expected.get(probe), map.get(probe));
+            Map.Entry<Integer, Integer> lower = expected.lowerEntry(probe);
+            Assertions.assertEquals(lower == null ? null : lower.getValue(), map.lower(probe));
+            Assertions.assertEquals(expected.isEmpty() ? null : expected.lastEntry().getValue(), map.last());
+            Assertions.assertEquals(expected.size(), map.size());
+        }
+
+        Assertions.assertEquals(new ArrayList<>(expected.values()), values(map.values()));
+        Assertions.assertEquals(new ArrayList<>(expected.tailMap(1_000, false).values()), values(map.valuesAfter(1_000)));
+    }
+
+    private static <V> List<V> values(Iterable<V> values) {
+        List<V> list = new ArrayList<>();
+        values.forEach(list::add);
+        return list;
+    }
+}
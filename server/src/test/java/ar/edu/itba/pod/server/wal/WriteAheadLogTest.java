@@ -0,0 +1,273 @@
+package ar.edu.itba.pod.server.wal;
+
+import ar.edu.itba.pod.server.models.Assignment;
+import ar.edu.itba.pod.server.models.Checkin;
+import ar.edu.itba.pod.server.models.Passenger;
+import ar.edu.itba.pod.server.models.Range;
+import ar.edu.itba.pod.server.repositories.*;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+
+public class WriteAheadLogTest {
+
+    private static final List<WalRecord> RECORDS =
+            List.of(
+                    new WalRecord.AddSector("C"),
+                    new WalRecord.AddCounters("C", 300),
+                    new WalRecord.AddPassenger(new Passenger("ABC123", "AA123", "AmericanAirlines")),
+                    new WalRecord.AssignCounters("C", "AmericanAirlines", List.of("AA123", "AA124"), 2),
+                    new WalRecord.FreeCounters("C", 1, "AmericanAirlines"),
+                    new WalRecord.AddPassengerToQueue("C", new Range(1, 2), "ABC123"),
+                    new WalRecord.CheckinCounters("C", 1, "AmericanAirlines"));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testRecordsRoundTrip() throws IOException {
+        for (WalRecord record : RECORDS) {
+            Assertions.assertEquals(record, WalRecord.decode(record.encode()));
+        }
+    }
+
+    @Test
+    public void testReopenReplaysAppendedRecords() throws IOException {
+        for (FsyncPolicy fsyncPolicy : FsyncPolicy.values()) {
+            Path path = directory.resolve(fsyncPolicy.name());
+
+            WriteAheadLog log = WriteAheadLog.open(path, fsyncPolicy, Duration.ofMillis(10), record -> Assertions.fail());
+            for (WalRecord record : RECORDS) {
+                WriteAheadLog.await(log.append(record));
+            }
+            log.close();
+
+            List<WalRecord> replayed = new ArrayList<>();
+            WriteAheadLog.open(path, fsyncPolicy, Duration.ofMillis(10), replayed::add).close();
+            Assertions.assertEquals(RECORDS, replayed);
+        }
+    }
+
+    @Test
+    public void testTornLastRecordIsDiscarded() throws IOException {
+        Path path = directory.resolve("airport.wal");
+        WriteAheadLog log = WriteAheadLog.open(path, FsyncPolicy.ALWAYS, Duration.ZERO, record -> {});
+        WriteAheadLog.await(log.append(RECORDS.get(0)));
+        log.close();
+
+        // Half a frame, as left by a crash in the middle of a write
+        Files.write(path, new byte[] {0, 0, 0, 20, 1, 2}, StandardOpenOption.APPEND);
+
+        List<WalRecord> replayed = new ArrayList<>();
+        log = WriteAheadLog.open(path, FsyncPolicy.ALWAYS, Duration.ZERO, replayed::add);
+        Assertions.assertEquals(List.of(RECORDS.get(0)), replayed);
+
+        // New records go where the torn one was
+        WriteAheadLog.await(log.append(RECORDS.get(1)));
+        log.close();
+
+        replayed.clear();
+        WriteAheadLog.open(path, FsyncPolicy.ALWAYS, Duration.ZERO, replayed::add).close();
+        Assertions.assertEquals(RECORDS.subList(0, 2), replayed);
+    }
+
+    @Test
+    public void testNotALogIsRejected() throws IOException {
+        Path path = directory.resolve("airport.wal");
+        Files.write(path, new byte[] {1, 2, 3, 4, 5});
+
+        Assertions.assertThrows(
+                IOException.class, () -> WriteAheadLog.open(path, FsyncPolicy.ALWAYS, Duration.ZERO, record -> {}));
+    }
+
+    @Test
+    public void testReplayFailureFailsOpen() throws IOException {
+        Path path = directory.resolve("airport.wal");
+        WriteAheadLog log = WriteAheadLog.open(path, FsyncPolicy.ALWAYS, Duration.ZERO, record -> {});
+        // The second one can not be replayed, the sector already exists
+        WriteAheadLog.await(log.append(new WalRecord.AddSector("C")));
+        WriteAheadLog.await(log.append(new WalRecord.AddSector("C")));
+        WriteAheadLog.await(log.append(new WalRecord.AddSector("D")));
+        log.close();
+        long size = Files.size(path);
+
+        CounterRepository counterRepository = new CounterRepositorySectorLocked();
+        WalReplayer replayer =
+                new WalReplayer(counterRepository, new PassengerRepositoryImpl(), new CheckinRepositoryImpl());
+        Assertions.assertThrows(
+                IOException.class, () -> WriteAheadLog.open(path, FsyncPolicy.ALWAYS, Duration.ZERO, replayer));
+
+        Assertions.assertTrue(counterRepository.hasSector("C"));
+        Assertions.assertFalse(counterRepository.hasSector("D"));
+        Assertions.assertEquals(size, Files.size(path));
+    }
+
+    @Test
+    public void testConcurrentAppendsKeepTheOrderOfEachThread() throws Exception {
+        Path path = directory.resolve("airport.wal");
+        WriteAheadLog log = WriteAheadLog.open(path, FsyncPolicy.ALWAYS, Duration.ZERO, record -> {});
+
+        int threads = 8;
+        int appendsPerThread = 200;
+        CountDownLatch latch = new CountDownLatch(threads);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threads; t++) {
+            String sector = "S" + t;
+            new Thread(
+                            () -> {
+                                try {
+                                    for (int i = 1; i <= appendsPerThread; i++) {
+                                        WriteAheadLog.await(log.append(new WalRecord.AddCounters(sector, i)));
+                                    }
+                                } catch (Throwable e) {
+                                    errors.add(e);
+                                } finally {
+                                    latch.countDown();
+                                }
+                            })
+                    .start();
+        }
+        latch.await();
+        log.close();
+        Assertions.assertEquals(List.of(), errors);
+
+        int[] lastCount = new int[threads];
+        WriteAheadLog.open(
+                        path,
+                        FsyncPolicy.ALWAYS,
+                        Duration.ZERO,
+                        record -> {
+                            WalRecord.AddCounters addCounters = (WalRecord.AddCounters) record;
+                            int thread = Integer.parseInt(addCounters.sector().substring(1));
+                            Assertions.assertEquals(lastCount[thread] + 1, addCounters.counterCount());
+                            lastCount[thread] = addCounters.counterCount();
+                        })
+                .close();
+
+        for (int count : lastCount) {
+            Assertions.assertEquals(appendsPerThread, count);
+        }
+    }
+
+    @Test
+    public void testPassengersOfASectorDoNotWaitForOtherSectors() throws Exception {
+        Path path = directory.resolve("airport.wal");
+        WriteAheadLog log = WriteAheadLog.open(path, FsyncPolicy.ALWAYS, Duration.ZERO, record -> {});
+        CounterRepository loggedCounters = new LoggedCounterRepository(new CounterRepositorySectorLocked(), log);
+        PassengerRepository loggedPassengers = new LoggedPassengerRepository(new PassengerRepositoryImpl(), log);
+
+        loggedCounters.addSector("C");
+        loggedCounters.addSector("D");
+        loggedCounters.addCounters("D", 2);
+        loggedPassengers.addPassenger(new Passenger("ABC123", "AA123", "AmericanAirlines"));
+        loggedPassengers.addPassenger(new Passenger("ABC124", "AA123", "AmericanAirlines"));
+        loggedCounters.assignCounterAssignment("D", new Assignment("AmericanAirlines", List.of("AA123"), 2));
+
+        // Another thread holds sector C in the middle of a mutation
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder =
+                new Thread(
+                        () -> {
+                            log.sectorOrder("C").lock();
+                            try {
+                                held.countDown();
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            } finally {
+                                log.sectorOrder("C").unlock();
+                            }
+                        });
+        holder.start();
+        held.await();
+
+        try {
+            Assertions.assertTrue(
+                    loggedCounters.arrivePassenger("D", 1, "AA123", "ABC123", booking -> false).isPresent());
+            Assertions.assertEquals(2, loggedCounters.addPassengerToQueue("D", new Range(1, 2), "ABC124"));
+        } finally {
+            release.countDown();
+            holder.join();
+            log.close();
+        }
+
+        List<WalRecord> replayed = new ArrayList<>();
+        WriteAheadLog.open(path, FsyncPolicy.ALWAYS, Duration.ZERO, replayed::add).close();
+        Assertions.assertEquals(
+                List.of(
+                        new WalRecord.AddPassengerToQueue("D", new Range(1, 2), "ABC123"),
+                        new WalRecord.AddPassengerToQueue("D", new Range(1, 2), "ABC124")),
+                replayed.subList(replayed.size() - 2, replayed.size()));
+    }
+
+    @Test
+    public void testReplayRebuildsTheRepositories() throws Exception {
+        Path path = directory.resolve("airport.wal");
+        CounterRepository counterRepository = new CounterRepositorySectorLocked();
+        PassengerRepository passengerRepository = new PassengerRepositoryImpl();
+        CheckinRepository checkinRepository = new CheckinRepositoryImpl();
+
+        WriteAheadLog log = WriteAheadLog.open(path, FsyncPolicy.ALWAYS, Duration.ZERO, record -> {});
+        CounterRepository loggedCounters = new LoggedCounterRepository(counterRepository, log);
+        PassengerRepository loggedPassengers = new LoggedPassengerRepository(passengerRepository, log);
+
+        loggedCounters.addSector("C");
+        loggedCounters.addSector("D");
+        loggedCounters.addCounters("C", 2);
+        loggedCounters.addCounters("D", 1);
+        loggedPassengers.addPassengers(
+                List.of(
+                        new Passenger("ABC123", "AA123", "AmericanAirlines"),
+                        new Passenger("ABC124", "AA123", "AmericanAirlines"),
+                        new Passenger("XYZ999", "AA123", "OtherAirline")));
+        loggedCounters.assignCounterAssignment("C", new Assignment("AmericanAirlines", List.of("AA123"), 2));
+        loggedCounters.assignCounterAssignment("C", new Assignment("AmericanAirlines", List.of("AA456"), 2));
+        loggedCounters.arrivePassenger("C", 1, "AA123", "ABC123", booking -> false);
+        loggedCounters.arrivePassenger("C", 1, "AA123", "ABC124", booking -> false);
+
+        List<Optional<String>> checkedIn = loggedCounters.checkinCounters("C", 1, "AmericanAirlines");
+        checkinRepository.addCheckins(
+                List.of(
+                        new Checkin("C", 1, "AmericanAirlines", "AA123", checkedIn.get(0).orElseThrow()),
+                        new Checkin("C", 2, "AmericanAirlines", "AA123", checkedIn.get(1).orElseThrow())));
+
+        // The queued assignment takes the freed counters
+        loggedCounters.freeCounters("C", 1, "AmericanAirlines");
+        log.close();
+
+        CounterRepository recoveredCounters = new CounterRepositorySectorLocked();
+        PassengerRepository recoveredPassengers = new PassengerRepositoryImpl();
+        CheckinRepository recoveredCheckins = new CheckinRepositoryImpl();
+        WriteAheadLog.open(
+                        path,
+                        FsyncPolicy.ALWAYS,
+                        Duration.ZERO,
+                        new WalReplayer(recoveredCounters, recoveredPassengers, recoveredCheckins))
+                .close();
+
+        Assertions.assertEquals(counterRepository.getSectors(), recoveredCounters.getSectors());
+        Assertions.assertEquals(
+                counterRepository.getFlightCounters("AA456"), recoveredCounters.getFlightCounters("AA456"));
+        Assertions.assertEquals(
+                counterRepository.getPreviouslyAssignedFlights().stream().sorted().toList(),
+                recoveredCounters.getPreviouslyAssignedFlights().stream().sorted().toList());
+        Assertions.assertTrue(recoveredCounters.getQueuedAssignments("C").isEmpty());
+        Assertions.assertEquals(
+                passengerRepository.getPassengers().stream().sorted((a, b) -> a.booking().compareTo(b.booking())).toList(),
+                recoveredPassengers.getPassengers().stream().sorted((a, b) -> a.booking().compareTo(b.booking())).toList());
+        Assertions.assertEquals(checkinRepository.getCheckins(), recoveredCheckins.getCheckins());
+    }
+}